@@ -0,0 +1,342 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Three-address code in parallel int arrays, the form ZaraOptimizer and ZaraBackend work on.
+ * An instruction is an index: opcode plus result / a / b operand IDs (NONE when unused).
+ * Operands are interned once into a typed table (temp, variable, int or float constant, string
+ * literal, label, other name), so passes compare IDs and read kinds and constant values from
+ * arrays instead of re-parsing Strings.
+ *
+ * A variable's operand is its storage: the same name in two frame slots (shadowing, or two
+ * methods) is two operands. Convert with from(List) / toInstructions().
+ */
+public class CompactTAC {
+
+    public enum Opcode {
+        COPY(null),            // result = a
+        ADD("+"), SUB("-"), MUL("*"), DIV("/"),
+        LT("<"), GT(">"), LE("<="), GE(">="), EQ("=="), NE("!="),
+        AND("&&"), OR("||"),   // result = a op b
+        NEW(null),             // result = new a        (a: class NAME)
+        LABEL(null),           // a:
+        GOTO(null),            // goto a
+        IF_FALSE(null),        // if_false a goto b
+        PARAM(null),           // param a
+        CALL(null),            // call a, b            (a: NAME, b: argument count)
+        PRINT(null);           // print a
+
+        public final String symbol; // Binary operators only
+
+        Opcode(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public boolean isBinary() { return symbol != null; }
+
+        // Writes 'result'? (false for jumps, labels, param/call/print)
+        public boolean hasResult() { return this == COPY || this == NEW || isBinary(); }
+
+        private static final Map<String, Opcode> BINARY = new HashMap<>();
+        static {
+            for (Opcode op : values()) if (op.symbol != null) BINARY.put(op.symbol, op);
+        }
+
+        public static Opcode binary(String symbol) {
+            return BINARY.get(symbol);
+        }
+    }
+
+    public enum Kind { TEMP, VARIABLE, INT, FLOAT, STRING, LABEL, NAME }
+
+    public static final int NONE = -1;
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final Kind[] KINDS = Kind.values();
+
+    // Instructions
+    private byte[] opcodes = new byte[64];
+    private int[] results = new int[64];
+    private int[] as = new int[64];
+    private int[] bs = new int[64];
+    private int size;
+
+    // Operand table
+    private byte[] kinds = new byte[64];
+    private String[] texts = new String[64];
+    private int[] slots = new int[64];   // Frame slot (temps/variables), or NONE
+    private long[] values = new long[64]; // INT: the value, FLOAT: Double.doubleToLongBits
+    private int operandCount;
+    private int[] operandIds = new int[128]; // Open addressing over (kind, text, slot): ID + 1, 0 = empty
+
+    // ==========================================
+    // OPERANDS
+    // ==========================================
+    public int intern(Kind kind, String text, int slot) {
+        int mask = operandIds.length - 1;
+        int h = hash(kind.ordinal(), text, slot) & mask;
+        for (int id; (id = operandIds[h] - 1) >= 0; h = (h + 1) & mask) {
+            if (kinds[id] == kind.ordinal() && slots[id] == slot && texts[id].equals(text)) return id;
+        }
+
+        if (operandCount == kinds.length) {
+            int capacity = operandCount * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[operandCount] = (byte) kind.ordinal();
+        texts[operandCount] = text;
+        slots[operandCount] = slot;
+        if (kind == Kind.INT) values[operandCount] = Long.parseLong(text);
+        else if (kind == Kind.FLOAT) values[operandCount] = Double.doubleToLongBits(Double.parseDouble(text));
+        operandIds[h] = ++operandCount;
+        if (operandCount * 2 > operandIds.length) rehash();
+        return operandCount - 1;
+    }
+
+    private static int hash(int kind, String text, int slot) {
+        int h = ((text.hashCode() * 31 + slot) * 31 + kind) * 0x9E3779B9; // Fibonacci mix: version names differ only in their tail
+        return h ^ (h >>> 15);
+    }
+
+    private void rehash() {
+        operandIds = new int[operandIds.length * 2];
+        int mask = operandIds.length - 1;
+        for (int id = 0; id < operandCount; id++) {
+            int h = hash(kinds[id], texts[id], slots[id]) & mask;
+            while (operandIds[h] != 0) h = (h + 1) & mask;
+            operandIds[h] = id + 1;
+        }
+    }
+
+    public int intConstant(long value) { return intern(Kind.INT, Long.toString(value), NONE); }
+
+    // Plain decimal text ("12000000000.0", never "1.2E10"), so it reads back as a FLOAT literal
+    public int floatConstant(double value) {
+        String text = Double.toString(value);
+        if (text.indexOf('E') >= 0) {
+            text = BigDecimal.valueOf(value).toPlainString();
+            if (text.indexOf('.') < 0) text += ".0";
+        }
+        return intern(Kind.FLOAT, text, NONE);
+    }
+
+    public int operandCount() { return operandCount; }
+
+    public Kind kind(int operand) { return KINDS[kinds[operand]]; }
+
+    public String text(int operand) { return texts[operand]; }
+
+    public int slot(int operand) { return slots[operand]; }
+
+    public boolean isConstant(int operand) {
+        return operand != NONE && (kinds[operand] == Kind.INT.ordinal() || kinds[operand] == Kind.FLOAT.ordinal());
+    }
+
+    // Temps and variables: operands that name storage
+    public boolean isStorage(int operand) {
+        return operand != NONE && (kinds[operand] == Kind.TEMP.ordinal() || kinds[operand] == Kind.VARIABLE.ordinal());
+    }
+
+    public long intValue(int operand) { return values[operand]; }
+
+    // Value of an INT or FLOAT constant as a double
+    public double numericValue(int operand) {
+        return kinds[operand] == Kind.INT.ordinal() ? values[operand] : Double.longBitsToDouble(values[operand]);
+    }
+
+    // ==========================================
+    // INSTRUCTIONS
+    // ==========================================
+    public int size() { return size; }
+
+    public Opcode opcode(int i) { return OPCODES[opcodes[i]]; }
+
+    public int result(int i) { return results[i]; }
+
+    public int a(int i) { return as[i]; }
+
+    public int b(int i) { return bs[i]; }
+
+    public int add(Opcode opcode, int result, int a, int b) {
+        if (size == opcodes.length) grow();
+        set(size, opcode, result, a, b);
+        return size++;
+    }
+
+    public void set(int i, Opcode opcode, int result, int a, int b) {
+        opcodes[i] = (byte) opcode.ordinal();
+        results[i] = result;
+        as[i] = a;
+        bs[i] = b;
+    }
+
+    // Drops every instruction (operands stay interned)
+    public void clear() {
+        size = 0;
+    }
+
+    // Puts instruction order[p] at position p; 'order' is a permutation of 0 .. size-1
+    public void reorder(int[] order) {
+        byte[] newOpcodes = new byte[opcodes.length];
+        int[] newResults = new int[results.length], newAs = new int[as.length], newBs = new int[bs.length];
+        for (int p = 0; p < size; p++) {
+            int i = order[p];
+            newOpcodes[p] = opcodes[i];
+            newResults[p] = results[i];
+            newAs[p] = as[i];
+            newBs[p] = bs[i];
+        }
+        opcodes = newOpcodes;
+        results = newResults;
+        as = newAs;
+        bs = newBs;
+    }
+
+    // Drops every instruction i with remove[i], keeping the order of the rest; returns how many
+    public int removeAll(boolean[] remove) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (remove[i]) continue;
+            opcodes[kept] = opcodes[i];
+            results[kept] = results[i];
+            as[kept] = as[i];
+            bs[kept] = bs[i];
+            kept++;
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    // Operand ID -> index of its 'label:' instruction, -1 for operands that are not a placed label
+    public int[] labelPositions() {
+        int[] positions = new int[operandCount];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < size; i++) {
+            if (opcodes[i] == Opcode.LABEL.ordinal()) positions[as[i]] = i;
+        }
+        return positions;
+    }
+
+    private void grow() {
+        int capacity = opcodes.length * 2;
+        opcodes = Arrays.copyOf(opcodes, capacity);
+        results = Arrays.copyOf(results, capacity);
+        as = Arrays.copyOf(as, capacity);
+        bs = Arrays.copyOf(bs, capacity);
+    }
+
+    // Same text as TACInstruction.toString
+    public String toString(int i) {
+        int a = as[i], b = bs[i];
+        switch (opcode(i)) {
+            case LABEL: return texts[a] + ":";
+            case GOTO: return "goto " + texts[a];
+            case IF_FALSE: return "if_false " + texts[a] + " goto " + texts[b];
+            case PARAM: return "param " + texts[a];
+            case CALL: return "call " + texts[a] + ", " + texts[b];
+            case PRINT: return "print = " + texts[a];
+            case NEW: return texts[results[i]] + " = new " + texts[a];
+            case COPY: return texts[results[i]] + " = " + texts[a];
+            default: return texts[results[i]] + " = " + texts[a] + " " + opcode(i).symbol + " " + texts[b];
+        }
+    }
+
+    public void printCode() {
+        System.out.println("\n--- Generated Three-Address Code ---");
+        for (int i = 0; i < size; i++) System.out.println(toString(i));
+    }
+
+    // Approximate heap cost of the arrays (operand Strings not included)
+    public long footprintBytes() {
+        return (long) opcodes.length * (1 + 4 + 4 + 4) + (long) kinds.length * (1 + 8 + 4 + 8) + operandIds.length * 4L;
+    }
+
+    // ==========================================
+    // CONVERSION
+    // ==========================================
+    // Classifies every String once. Jump targets are labels by position; temps are the operands
+    // the generator marked as such; the rest by spelling: numbers, "..." strings, else variables.
+    public static CompactTAC from(List<TACInstruction> instructions) {
+        CompactTAC code = new CompactTAC();
+        for (TACInstruction i : instructions) {
+            if (":".equals(i.operator)) {
+                code.add(Opcode.LABEL, NONE, code.intern(Kind.LABEL, i.result, NONE), NONE);
+            } else if ("goto".equals(i.result)) {
+                code.add(Opcode.GOTO, NONE, code.intern(Kind.LABEL, i.operand1, NONE), NONE);
+            } else if ("if_false".equals(i.result)) {
+                code.add(Opcode.IF_FALSE, NONE, code.operand(i.operand1, i.operand1Slot, i, TACInstruction.OPERAND1_TEMP), code.intern(Kind.LABEL, i.operand2, NONE));
+            } else if ("param".equals(i.result)) {
+                code.add(Opcode.PARAM, NONE, code.operand(i.operand1, i.operand1Slot, i, TACInstruction.OPERAND1_TEMP), NONE);
+            } else if ("call".equals(i.result)) {
+                code.add(Opcode.CALL, NONE, code.intern(Kind.NAME, i.operand1, NONE), code.operand(i.operand2, NONE, i, 0));
+            } else if ("print".equals(i.result)) {
+                code.add(Opcode.PRINT, NONE, code.operand(i.operand1, i.operand1Slot, i, TACInstruction.OPERAND1_TEMP), NONE);
+            } else if (i.operand2 != null) {
+                Opcode op = Opcode.binary(i.operator);
+                if (op == null) throw new IllegalArgumentException("Unknown operator in: " + i);
+                code.add(op, code.operand(i.result, i.resultSlot, i, TACInstruction.RESULT_TEMP),
+                        code.operand(i.operand1, i.operand1Slot, i, TACInstruction.OPERAND1_TEMP),
+                        code.operand(i.operand2, i.operand2Slot, i, TACInstruction.OPERAND2_TEMP));
+            } else if (i.operand1.startsWith("new ")) {
+                code.add(Opcode.NEW, code.operand(i.result, i.resultSlot, i, TACInstruction.RESULT_TEMP), code.intern(Kind.NAME, i.operand1.substring(4), NONE), NONE);
+            } else {
+                code.add(Opcode.COPY, code.operand(i.result, i.resultSlot, i, TACInstruction.RESULT_TEMP),
+                        code.operand(i.operand1, i.operand1Slot, i, TACInstruction.OPERAND1_TEMP), NONE);
+            }
+        }
+        return code;
+    }
+
+    private int operand(String text, int slot, TACInstruction instruction, int tempFlag) {
+        return intern((instruction.temps & tempFlag) != 0 ? Kind.TEMP : classify(text), text, slot);
+    }
+
+    static Kind classify(String text) {
+        if (text.startsWith("\"")) return Kind.STRING;
+        int start = text.startsWith("-") && text.length() > 1 ? 1 : 0;
+        boolean digits = start < text.length();
+        int dots = 0;
+        for (int k = start; k < text.length() && digits; k++) {
+            char c = text.charAt(k);
+            if (c == '.') dots++;
+            else if (c < '0' || c > '9') digits = false;
+        }
+        if (digits && dots == 0) return Kind.INT;
+        if (digits && dots == 1 && text.charAt(text.length() - 1) != '.' && text.charAt(start) != '.') return Kind.FLOAT;
+        return Kind.VARIABLE;
+    }
+
+    public List<TACInstruction> toInstructions() {
+        List<TACInstruction> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int r = results[i], a = as[i], b = bs[i];
+            TACInstruction instruction;
+            switch (opcode(i)) {
+                case LABEL: instruction = new TACInstruction(texts[a], "", ":", ""); break;
+                case GOTO: instruction = new TACInstruction("goto", texts[a], "", ""); break;
+                case IF_FALSE: instruction = new TACInstruction("if_false", texts[a], "goto", texts[b]); break;
+                case PARAM: instruction = new TACInstruction("param", texts[a], "", ""); break;
+                case CALL: instruction = new TACInstruction("call", texts[a], "", texts[b]); break;
+                case PRINT: instruction = new TACInstruction("print", texts[a], "", null); break;
+                case NEW: instruction = new TACInstruction(texts[r], "new " + texts[a], "", null); break;
+                case COPY: instruction = new TACInstruction(texts[r], texts[a], "", null); break;
+                default: instruction = new TACInstruction(texts[r], texts[a], opcode(i).symbol, texts[b]); break;
+            }
+            instruction.slots(r != NONE ? slots[r] : NONE,
+                    a != NONE && opcode(i) != Opcode.CALL ? slots[a] : NONE,
+                    b != NONE ? slots[b] : NONE);
+            instruction.temps((r != NONE && kind(r) == Kind.TEMP ? TACInstruction.RESULT_TEMP : 0)
+                    | (a != NONE && kind(a) == Kind.TEMP ? TACInstruction.OPERAND1_TEMP : 0)
+                    | (b != NONE && kind(b) == Kind.TEMP ? TACInstruction.OPERAND2_TEMP : 0));
+            list.add(instruction);
+        }
+        return list;
+    }
+}
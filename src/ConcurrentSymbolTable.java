@@ -0,0 +1,192 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class table that any number of analyses can share, for example one ZaraSemanticAnalyzer2
+ * per source file, each on its own thread. It is the thread-safe counterpart of OOPSymbolTable:
+ *
+ * - Classes are immutable ClassSnapshots in a ConcurrentHashMap. Defining a class is a single
+ *   putIfAbsent that reserves the name; its members are collected in the defining Context and
+ *   published as one snapshot when the class ends. Readers never lock and never see half a class.
+ * - The "current class / method" cursor is not in the table but in a Context, one per analysis,
+ *   which also carries that analysis' Diagnostics.
+ * - Member lookups go through a MemberResolver, as in OOPSymbolTable: each class remembers the
+ *   names resolved through it, and publishing a class makes its and its subclasses' answers stale.
+ */
+public class ConcurrentSymbolTable {
+
+    public static final class ClassSnapshot {
+        public final String name;
+        public final String parentClass;
+        public final Map<String, OOPSymbolTable.Symbol> members; // Unmodifiable
+
+        ClassSnapshot(String name, String parentClass, Map<String, OOPSymbolTable.Symbol> members) {
+            this.name = name;
+            this.parentClass = parentClass;
+            this.members = members;
+        }
+    }
+
+    private final ConcurrentHashMap<String, ClassSnapshot> classes = new ConcurrentHashMap<>();
+    // Classes whose chain ends at a class without a parent: it can never become a cycle
+    private final Set<String> rooted = ConcurrentHashMap.newKeySet();
+    private final MemberResolver resolver = new MemberResolver(new MemberResolver.Classes() {
+        public Map<String, OOPSymbolTable.Symbol> members(String className) {
+            ClassSnapshot cls = classes.get(className);
+            return cls != null ? cls.members : null;
+        }
+
+        public String parent(String className) { return classes.get(className).parentClass; }
+
+        public int size() { return classes.size(); }
+    });
+
+    public ClassSnapshot getClass(String name) {
+        return classes.get(name);
+    }
+
+    public int classCount() {
+        return classes.size();
+    }
+
+    // Class name -> parent name (null for none), e.g. for Type.Hierarchy
+    public Map<String, String> parents() {
+        Map<String, String> parents = new HashMap<>();
+        for (ClassSnapshot cls : classes.values()) parents.put(cls.name, cls.parentClass);
+        return parents;
+    }
+
+    // Stores 'snapshot', then makes the answers of the class and its subclasses stale. The
+    // snapshot goes in first, so a lookup that sees the new version also sees the class.
+    private void publish(ClassSnapshot snapshot) {
+        classes.put(snapshot.name, snapshot);
+        resolver.changed(snapshot.name);
+    }
+
+    public OOPSymbolTable.Symbol resolveMember(String className, String name) {
+        return resolver.resolve(className, name);
+    }
+
+    // Members of the class and its ancestors; a subclass member shadows the inherited one.
+    // Built on each call, so prefer resolveMember for single names.
+    public Map<String, OOPSymbolTable.Symbol> allMembers(String className) {
+        Map<String, OOPSymbolTable.Symbol> all = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (ClassSnapshot c = classes.get(className); c != null && seen.add(c.name);
+             c = c.parentClass != null ? classes.get(c.parentClass) : null) {
+            for (Map.Entry<String, OOPSymbolTable.Symbol> member : c.members.entrySet()) all.putIfAbsent(member.getKey(), member.getValue());
+        }
+        return all;
+    }
+
+    public Context context(Diagnostics diagnostics) {
+        return new Context(diagnostics);
+    }
+
+    // ==========================================
+    // PER-ANALYSIS CURSOR
+    // ==========================================
+    // Not thread-safe itself: one Context per analysis (thread). A class it defines is reserved
+    // in the shared table at once, and its members show up there when the class ends.
+    public final class Context {
+        private final Diagnostics diagnostics;
+        private String currentClass;
+        private String currentParent;
+        private Map<String, OOPSymbolTable.Symbol> currentMembers; // Not published yet
+        private OOPSymbolTable.MethodSymbol currentMethod;
+
+        private Context(Diagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+        }
+
+        public String currentClass() { return currentClass; }
+
+        public OOPSymbolTable.MethodSymbol currentMethod() { return currentMethod; }
+
+        // False if the class already exists (in this or any other analysis sharing the table).
+        // Ends the class defined before, if endClass was not called for it.
+        public boolean defineClass(String name, String parent, int line) {
+            endClass();
+            if (parent != null) resolver.extend(parent, name);
+            if (classes.putIfAbsent(name, new ClassSnapshot(name, parent, Collections.emptyMap())) != null) {
+                diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Class '" + name + "' already defined.");
+                return false;
+            }
+            resolver.changed(name); // The reservation may complete the chain of a class declared earlier
+            currentClass = name;
+            currentParent = parent;
+            currentMembers = new HashMap<>();
+            if (diagnostics.isTracing()) {
+                diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Define Class: " + name + (parent != null ? " extends " + parent : ""));
+            }
+            return true;
+        }
+
+        public void defineField(String name, String type, int line) {
+            if (currentClass == null) {
+                diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Field '" + name + "' defined outside class.");
+                return;
+            }
+            OOPSymbolTable.Symbol field = new OOPSymbolTable.Symbol(name, type, "field");
+            field.owner = currentClass;
+            currentMembers.put(name, field);
+            if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "  Define Field: " + name + " (" + type + ")");
+        }
+
+        public void defineMethod(String name, String returnType, int line) {
+            if (currentClass == null) {
+                diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Method '" + name + "' defined outside class.");
+                return;
+            }
+            OOPSymbolTable.MethodSymbol method = new OOPSymbolTable.MethodSymbol(name, returnType);
+            method.owner = currentClass;
+            currentMembers.put(name, method);
+            currentMethod = method;
+            if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "  Define Method: " + name + " -> " + returnType);
+        }
+
+        // Publishes the members of the current class in one snapshot
+        public void endClass() {
+            if (currentClass != null) publish(new ClassSnapshot(currentClass, currentParent, Collections.unmodifiableMap(currentMembers)));
+            currentClass = null;
+            currentParent = null;
+            currentMembers = null;
+            currentMethod = null;
+        }
+
+        // Block scopes for the body of the current method; fields resolve against the shared
+        // table. The scope reports into 'bodyDiagnostics', so bodies can run on other threads.
+        public OOPSymbolTable.MethodScope enterMethod(Diagnostics bodyDiagnostics) {
+            String owner = currentClass;
+            return new OOPSymbolTable.MethodScope(name -> resolveMember(owner, name), bodyDiagnostics);
+        }
+
+        // Reports an error if 'className' (directly or through its ancestors) extends itself
+        public boolean checkInheritance(String className, int line) {
+            ClassSnapshot start = classes.get(className);
+            if (start == null) return true;
+
+            // Stops at a rooted class, so checking every class of a chain is linear, not quadratic
+            Set<String> seen = new HashSet<>();
+            seen.add(className);
+            StringBuilder path = new StringBuilder(className);
+            ClassSnapshot c = start;
+            while (c.parentClass != null && !rooted.contains(c.name)) {
+                c = classes.get(c.parentClass);
+                if (c == null) return true; // Missing parent: reported where the type is used
+                path.append(" -> ").append(c.name);
+                if (c.name.equals(className)) {
+                    diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Inheritance cycle: " + path);
+                    return false;
+                }
+                if (!seen.add(c.name)) return true; // A cycle further up, reported for its own classes
+            }
+            rooted.addAll(seen);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Basic blocks, dominator tree and natural loops of a range of CompactTAC.
+ *
+ * Blocks start at the first instruction, at every label and after every goto / if_false.
+ * Edges are kept in CSR form (one offsets array, one targets array per direction). Dominators
+ * use the iterative algorithm of Cooper, Harvey and Kennedy over reverse postorder, which on
+ * structured code like Zara's settles in two passes; the tree is then numbered in pre/post
+ * order so dominates() is two comparisons. Natural loops come from back edges (an edge whose
+ * target dominates its source); loops sharing a header are one loop.
+ *
+ * Everything is built once in the constructor, in time linear in the instructions plus the
+ * size of the loop bodies. The graph describes the code as it was: rebuild after moving or
+ * removing instructions.
+ */
+public class ControlFlowGraph {
+    public static final int NONE = -1;
+
+    public final CompactTAC code;
+    private final int first; // Instruction range [first, last)
+    private final int last;
+
+    // Blocks
+    private int blockCount;
+    private int[] blockStart;    // First instruction of each block
+    private int[] blockOf;       // Instruction - first -> block
+    private int[] succOffset, succ; // CSR: successors of b are succ[succOffset[b] .. succOffset[b+1])
+    private int[] predOffset, pred;
+
+    // Dominators
+    private int[] rpo;      // Reachable blocks in reverse postorder (rpo[0] is the entry)
+    private int[] rpoIndex; // Block -> position in rpo, NONE if unreachable
+    private int[] idom;     // NONE for the entry and unreachable blocks
+    private int[] domPre, domPost;
+    private int[] domChildOffset, domChild; // CSR: dominator tree children
+
+    // Loops, sorted from the outermost (largest) down
+    private int[] loopHeader;
+    private int[] loopParent; // Innermost enclosing loop or NONE
+    private int[] loopDepth;  // 1 for an outermost loop
+    private int[][] loopBlocks;
+    private int[] innermostLoop; // Block -> innermost loop containing it, or NONE
+
+    public ControlFlowGraph(CompactTAC code) {
+        this(code, 0, code.size());
+    }
+
+    public ControlFlowGraph(CompactTAC code, int first, int last) {
+        this.code = code;
+        this.first = first;
+        this.last = last;
+        buildBlocks();
+        buildEdges();
+        computeDominators();
+        findLoops();
+    }
+
+    // ==========================================
+    // ACCESSORS
+    // ==========================================
+    public int blockCount() { return blockCount; }
+
+    public int start(int block) { return blockStart[block]; }
+
+    // One past the block's last instruction
+    public int end(int block) { return block + 1 < blockCount ? blockStart[block + 1] : last; }
+
+    public int blockOf(int instruction) { return blockOf[instruction - first]; }
+
+    public int successorCount(int block) { return succOffset[block + 1] - succOffset[block]; }
+
+    public int successor(int block, int k) { return succ[succOffset[block] + k]; }
+
+    public int predecessorCount(int block) { return predOffset[block + 1] - predOffset[block]; }
+
+    public int predecessor(int block, int k) { return pred[predOffset[block] + k]; }
+
+    public boolean isReachable(int block) { return rpoIndex[block] != NONE; }
+
+    // Reachable blocks, entry first, every block before its successors except along back edges
+    public int[] reversePostorder() { return rpo; }
+
+    public int idom(int block) { return idom[block]; }
+
+    public int dominatorChildCount(int block) { return domChildOffset[block + 1] - domChildOffset[block]; }
+
+    public int dominatorChild(int block, int k) { return domChild[domChildOffset[block] + k]; }
+
+    // Position of 'pred' among the predecessors of 'block' (phi argument order), or NONE
+    public int predecessorIndex(int block, int pred) {
+        for (int e = predOffset[block]; e < predOffset[block + 1]; e++) if (this.pred[e] == pred) return e - predOffset[block];
+        return NONE;
+    }
+
+    // Does 'a' dominate 'b'? (Every block dominates itself; unreachable blocks dominate nothing)
+    public boolean dominates(int a, int b) {
+        if (!isReachable(a) || !isReachable(b)) return false;
+        return domPre[a] <= domPre[b] && domPost[b] <= domPost[a];
+    }
+
+    public int loopCount() { return loopHeader.length; }
+
+    public int loopHeader(int loop) { return loopHeader[loop]; }
+
+    public int loopParent(int loop) { return loopParent[loop]; }
+
+    public int loopDepth(int loop) { return loopDepth[loop]; }
+
+    // Blocks of the loop, header first; shared array, do not modify
+    public int[] loopBlocks(int loop) { return loopBlocks[loop]; }
+
+    public int loopOf(int block) { return innermostLoop[block]; }
+
+    // Number of loops around the block (0: not in a loop)
+    public int depthOf(int block) {
+        return innermostLoop[block] == NONE ? 0 : loopDepth[innermostLoop[block]];
+    }
+
+    // ==========================================
+    // 1. BASIC BLOCKS
+    // ==========================================
+    private void buildBlocks() {
+        int size = last - first;
+        boolean[] leader = new boolean[size + 1];
+        if (size > 0) leader[0] = true;
+        for (int i = first; i < last; i++) {
+            CompactTAC.Opcode op = code.opcode(i);
+            if (op == CompactTAC.Opcode.LABEL) leader[i - first] = true;
+            else if (op == CompactTAC.Opcode.GOTO || op == CompactTAC.Opcode.IF_FALSE) leader[i - first + 1] = true;
+        }
+
+        blockStart = new int[size];
+        blockOf = new int[size];
+        int block = -1;
+        for (int k = 0; k < size; k++) {
+            if (leader[k]) blockStart[++block] = first + k;
+            blockOf[k] = block;
+        }
+        blockCount = block + 1;
+        blockStart = Arrays.copyOf(blockStart, blockCount);
+    }
+
+    // Successors: the jump target and/or the next block. A jump to a label outside the range
+    // (another method's) has no edge.
+    private void buildEdges() {
+        int[] labelAt = code.labelPositions();
+        int[] targets = new int[blockCount * 2];
+        int[] counts = new int[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            int lastInstruction = end(b) - 1;
+            CompactTAC.Opcode op = code.opcode(lastInstruction);
+            int jump = NONE;
+            if (op == CompactTAC.Opcode.GOTO) jump = code.a(lastInstruction);
+            else if (op == CompactTAC.Opcode.IF_FALSE) jump = code.b(lastInstruction);
+
+            if (op != CompactTAC.Opcode.GOTO && b + 1 < blockCount) targets[b * 2 + counts[b]++] = b + 1;
+            if (jump != NONE) {
+                int at = labelAt[jump];
+                if (at >= first && at < last) {
+                    int target = blockOf(at);
+                    if (counts[b] == 0 || targets[b * 2] != target) targets[b * 2 + counts[b]++] = target;
+                }
+            }
+        }
+
+        succOffset = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++) succOffset[b + 1] = succOffset[b] + counts[b];
+        succ = new int[succOffset[blockCount]];
+        int[] predCounts = new int[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            for (int k = 0; k < counts[b]; k++) {
+                succ[succOffset[b] + k] = targets[b * 2 + k];
+                predCounts[targets[b * 2 + k]]++;
+            }
+        }
+
+        predOffset = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++) predOffset[b + 1] = predOffset[b] + predCounts[b];
+        pred = new int[succ.length];
+        int[] fill = Arrays.copyOf(predOffset, blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            for (int e = succOffset[b]; e < succOffset[b + 1]; e++) pred[fill[succ[e]]++] = b;
+        }
+    }
+
+    // ==========================================
+    // 2. DOMINATORS (Cooper, Harvey & Kennedy)
+    // ==========================================
+    private void computeDominators() {
+        rpoIndex = new int[blockCount];
+        Arrays.fill(rpoIndex, NONE);
+        idom = new int[blockCount];
+        Arrays.fill(idom, NONE);
+        if (blockCount == 0) {
+            rpo = new int[0];
+            domPre = domPost = new int[0];
+            domChildOffset = new int[1];
+            domChild = new int[0];
+            return;
+        }
+
+        // Postorder by an explicit stack: a block is finished once all its successors are
+        int[] post = new int[blockCount];
+        int postCount = 0;
+        int[] stack = new int[blockCount];
+        int[] nextEdge = new int[blockCount];
+        boolean[] visited = new boolean[blockCount];
+        int top = 0;
+        stack[0] = 0;
+        visited[0] = true;
+        nextEdge[0] = succOffset[0];
+        while (top >= 0) {
+            int b = stack[top];
+            if (nextEdge[b] < succOffset[b + 1]) {
+                int s = succ[nextEdge[b]++];
+                if (!visited[s]) {
+                    visited[s] = true;
+                    nextEdge[s] = succOffset[s];
+                    stack[++top] = s;
+                }
+            } else {
+                post[postCount++] = b;
+                top--;
+            }
+        }
+        rpo = new int[postCount];
+        for (int k = 0; k < postCount; k++) {
+            rpo[k] = post[postCount - 1 - k];
+            rpoIndex[rpo[k]] = k;
+        }
+
+        // The entry is its own idom while iterating, so intersect() stops there
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = 1; k < rpo.length; k++) {
+                int b = rpo[k];
+                int newIdom = NONE;
+                for (int e = predOffset[b]; e < predOffset[b + 1]; e++) {
+                    int p = pred[e];
+                    if (idom[p] == NONE) continue; // Not processed yet (or unreachable)
+                    newIdom = newIdom == NONE ? p : intersect(p, newIdom);
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        idom[0] = NONE;
+        numberDominatorTree();
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpoIndex[a] > rpoIndex[b]) a = idom[a];
+            while (rpoIndex[b] > rpoIndex[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    // Pre/post numbering of the dominator tree, for O(1) dominates()
+    private void numberDominatorTree() {
+        int[] childOffset = domChildOffset = new int[blockCount + 1];
+        for (int b : rpo) if (idom[b] != NONE) childOffset[idom[b] + 1]++;
+        for (int b = 0; b < blockCount; b++) childOffset[b + 1] += childOffset[b];
+        int[] children = domChild = new int[Math.max(0, rpo.length - 1)];
+        int[] fill = Arrays.copyOf(childOffset, blockCount);
+        for (int b : rpo) if (idom[b] != NONE) children[fill[idom[b]]++] = b;
+
+        domPre = new int[blockCount];
+        domPost = new int[blockCount];
+        int[] stack = new int[blockCount];
+        int[] next = new int[blockCount];
+        int clock = 0;
+        int top = 0;
+        stack[0] = 0;
+        next[0] = childOffset[0];
+        domPre[0] = clock++;
+        while (top >= 0) {
+            int b = stack[top];
+            if (next[b] < childOffset[b + 1]) {
+                int child = children[next[b]++];
+                domPre[child] = clock++;
+                next[child] = childOffset[child];
+                stack[++top] = child;
+            } else {
+                domPost[b] = clock++;
+                top--;
+            }
+        }
+    }
+
+    // Dominance frontier of every block: where its dominance ends (Cooper, Harvey & Kennedy:
+    // walk up from each predecessor of a join block to the join's idom)
+    public int[][] dominanceFrontiers() {
+        int[][] frontiers = new int[blockCount][];
+        int[] counts = new int[blockCount];
+        int[] lastAdded = new int[blockCount]; // Join block most recently added, against duplicates
+        Arrays.fill(lastAdded, NONE);
+        for (int b : rpo) {
+            // A join: two predecessors, or the entry with any (control also arrives from outside)
+            if (predecessorCount(b) < (b == 0 ? 1 : 2)) continue;
+            for (int e = predOffset[b]; e < predOffset[b + 1]; e++) {
+                if (!isReachable(pred[e])) continue;
+                // The walk ends at the entry too, whose idom is NONE
+                for (int runner = pred[e]; runner != NONE && runner != idom[b]; runner = idom[runner]) {
+                    if (lastAdded[runner] == b) continue;
+                    lastAdded[runner] = b;
+                    if (frontiers[runner] == null) frontiers[runner] = new int[2];
+                    else if (counts[runner] == frontiers[runner].length) frontiers[runner] = Arrays.copyOf(frontiers[runner], counts[runner] * 2);
+                    frontiers[runner][counts[runner]++] = b;
+                }
+            }
+        }
+        for (int b = 0; b < blockCount; b++) {
+            frontiers[b] = frontiers[b] == null ? new int[0] : Arrays.copyOf(frontiers[b], counts[b]);
+        }
+        return frontiers;
+    }
+
+    // ==========================================
+    // 3. NATURAL LOOPS
+    // ==========================================
+    private void findLoops() {
+        // Header -> its loop body, grown backwards from every back edge into it
+        int[] loopOfHeader = new int[blockCount];
+        Arrays.fill(loopOfHeader, NONE);
+        List<int[]> bodies = new ArrayList<>();
+        List<Integer> headers = new ArrayList<>();
+        int[] mark = new int[blockCount];
+        Arrays.fill(mark, NONE);
+        int[] stack = new int[blockCount];
+
+        for (int header : rpo) {
+            for (int e = predOffset[header]; e < predOffset[header + 1]; e++) {
+                int source = pred[e];
+                if (!dominates(header, source)) continue; // Not a back edge
+
+                int loop = loopOfHeader[header];
+                int[] body;
+                if (loop == NONE) {
+                    loop = bodies.size();
+                    loopOfHeader[header] = loop;
+                    headers.add(header);
+                    body = new int[] { header };
+                    mark[header] = loop;
+                } else {
+                    body = bodies.get(loop);
+                }
+
+                int size = body.length;
+                int top = -1;
+                if (mark[source] != loop) {
+                    mark[source] = loop;
+                    stack[++top] = source;
+                }
+                while (top >= 0) {
+                    int b = stack[top--];
+                    if (size == body.length) body = Arrays.copyOf(body, size * 2);
+                    body[size++] = b;
+                    for (int p = predOffset[b]; p < predOffset[b + 1]; p++) {
+                        int q = pred[p];
+                        if (mark[q] != loop && isReachable(q)) {
+                            mark[q] = loop;
+                            stack[++top] = q;
+                        }
+                    }
+                }
+                body = Arrays.copyOf(body, size);
+                if (loop == bodies.size()) bodies.add(body);
+                else bodies.set(loop, body);
+            }
+        }
+
+        // Outermost first: a loop nested in another has a strictly smaller body
+        Integer[] order = new Integer[bodies.size()];
+        for (int l = 0; l < order.length; l++) order[l] = l;
+        Arrays.sort(order, (x, y) -> bodies.get(y).length - bodies.get(x).length);
+
+        int count = order.length;
+        loopHeader = new int[count];
+        loopParent = new int[count];
+        loopDepth = new int[count];
+        loopBlocks = new int[count][];
+        innermostLoop = new int[blockCount];
+        Arrays.fill(innermostLoop, NONE);
+        for (int l = 0; l < count; l++) {
+            int[] body = bodies.get(order[l]);
+            loopHeader[l] = headers.get(order[l]);
+            loopBlocks[l] = body;
+            loopParent[l] = innermostLoop[loopHeader[l]];
+            loopDepth[l] = loopParent[l] == NONE ? 1 : loopDepth[loopParent[l]] + 1;
+            for (int b : body) innermostLoop[b] = l;
+        }
+    }
+
+    // ==========================================
+    // DEBUG OUTPUT
+    // ==========================================
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < blockCount; b++) {
+            sb.append("B").append(b).append(" [").append(start(b)).append("..").append(end(b)).append(")");
+            if (!isReachable(b)) sb.append(" unreachable");
+            else if (idom[b] != NONE) sb.append(" idom B").append(idom[b]);
+            if (depthOf(b) > 0) sb.append(" loop depth ").append(depthOf(b));
+            sb.append(" ->");
+            for (int k = 0; k < successorCount(b); k++) sb.append(" B").append(successor(b, k));
+            sb.append('\n');
+            for (int i = start(b); i < end(b); i++) sb.append("    ").append(code.toString(i)).append('\n');
+        }
+        for (int l = 0; l < loopCount(); l++) {
+            sb.append("Loop ").append(l).append(": header B").append(loopHeader[l])
+                    .append(", depth ").append(loopDepth[l]).append(", ").append(loopBlocks[l].length).append(" block(s)");
+            if (loopParent[l] != NONE) sb.append(", inside loop ").append(loopParent[l]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        String code =
+                "class Main { \n" +
+                "    void run() { \n" +
+                "       integer i = 0 \n" +
+                "       integer total = 0 \n" +
+                "       while (i < 10) { \n" +
+                "           integer j = 0 \n" +
+                "           while (j < i) { \n" +
+                "               total = total + j \n" +
+                "               j = j + 1 \n" +
+                "           } \n" +
+                "           if (total < 100) { \n" +
+                "               print(total) \n" +
+                "           } \n" +
+                "           i = i + 1 \n" +
+                "       } \n" +
+                "       print(total) \n" +
+                "    } \n" +
+                "}";
+
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(code);
+        List<TACInstruction> tac = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()),
+                Diagnostics.console(Diagnostics.Level.ERRORS)).analyze();
+        if (tac == null) return;
+        System.out.print(new ControlFlowGraph(CompactTAC.from(tac)));
+    }
+}
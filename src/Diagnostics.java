@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Where the compiler phases send errors, warnings and trace output instead of System.out.
+ * Errors and warnings are always collected as structured Diagnostic records (line, phase,
+ * message); the level decides what also reaches the DiagnosticListener.
+ *
+ * Trace messages are only built when someone listens, so callers guard them:
+ *
+ *     if (diagnostics.isTracing()) diagnostics.trace(Phase.PARSER, "Matched: " + text);
+ *
+ * The default, quiet(), formats nothing on the hot path. Not thread-safe: concurrent work
+ * records into its own buffer() and replays it in a fixed order.
+ */
+public class Diagnostics {
+
+    public enum Level {
+        QUIET,  // Collect errors and warnings, report nothing
+        ERRORS, // Report errors and warnings as they happen
+        TRACE   // Report everything, including per-token / per-symbol / per-pass trace
+    }
+
+    public enum Phase {
+        LEXER("Lexical"), PARSER("Syntax"), SEMANTIC("Semantic"), OPTIMIZER("Optimizer"), BACKEND("Backend");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Severity { ERROR, WARNING, TRACE }
+
+    public static final class Diagnostic {
+        public final Severity severity;
+        public final Phase phase;
+        public final int line; // -1 when the phase does not know the line
+        public final String message;
+
+        public Diagnostic(Severity severity, Phase phase, int line, String message) {
+            this.severity = severity;
+            this.phase = phase;
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Diagnostic)) return false;
+            Diagnostic other = (Diagnostic) o;
+            return severity == other.severity && phase == other.phase && line == other.line
+                    && message.equals(other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(severity, phase, line, message);
+        }
+
+        // e.g. "Syntax Error at line 4: Expected IDENTIFIER but found OPERATOR"
+        @Override
+        public String toString() {
+            if (severity == Severity.TRACE) return message;
+            String kind = phase.label + (severity == Severity.ERROR ? " Error" : " Warning");
+            return line >= 0 ? kind + " at line " + line + ": " + message : kind + ": " + message;
+        }
+    }
+
+    public interface DiagnosticListener {
+        void report(Diagnostic diagnostic);
+
+        void trace(Phase phase, String message);
+    }
+
+    // Prints every message on its own line
+    public static final DiagnosticListener CONSOLE = new DiagnosticListener() {
+        public void report(Diagnostic diagnostic) { System.out.println(diagnostic); }
+
+        public void trace(Phase phase, String message) { System.out.println(message); }
+    };
+
+    private final Level level;
+    private final DiagnosticListener listener;
+    private final List<Diagnostic> collected = new ArrayList<>(); // Errors and warnings
+    private int errorCount;
+    private List<Diagnostic> recording; // Everything, in order (buffers only)
+
+    public Diagnostics(Level level, DiagnosticListener listener) {
+        this.level = level;
+        this.listener = listener;
+    }
+
+    public static Diagnostics quiet() {
+        return new Diagnostics(Level.QUIET, null);
+    }
+
+    public static Diagnostics console(Level level) {
+        return new Diagnostics(level, CONSOLE);
+    }
+
+    public Level level() { return level; }
+
+    public boolean isTracing() { return level == Level.TRACE; }
+
+    public void trace(Phase phase, String message) {
+        if (level != Level.TRACE) return;
+        if (recording != null) recording.add(new Diagnostic(Severity.TRACE, phase, -1, message));
+        else listener.trace(phase, message);
+    }
+
+    public void error(Phase phase, int line, String message) {
+        add(new Diagnostic(Severity.ERROR, phase, line, message));
+    }
+
+    public void warning(Phase phase, int line, String message) {
+        add(new Diagnostic(Severity.WARNING, phase, line, message));
+    }
+
+    private void add(Diagnostic diagnostic) {
+        collected.add(diagnostic);
+        if (diagnostic.severity == Severity.ERROR) errorCount++;
+        if (recording != null) recording.add(diagnostic);
+        else if (level != Level.QUIET) listener.report(diagnostic);
+    }
+
+    public boolean hasErrors() { return errorCount > 0; }
+
+    public int errorCount() { return errorCount; }
+
+    // Errors only, in the order they were reported
+    public List<Diagnostic> getErrors() {
+        List<Diagnostic> errors = new ArrayList<>(errorCount);
+        for (Diagnostic d : collected) if (d.severity == Severity.ERROR) errors.add(d);
+        return errors;
+    }
+
+    // Errors and warnings
+    public List<Diagnostic> getDiagnostics() {
+        return Collections.unmodifiableList(collected);
+    }
+
+    // A private buffer with the same level, for work that runs on another thread
+    public Diagnostics buffer() {
+        Diagnostics buffer = new Diagnostics(level, null);
+        buffer.recording = new ArrayList<>();
+        return buffer;
+    }
+
+    // Send a buffer's messages here, in the order they were recorded
+    public void replay(Diagnostics buffer) {
+        for (Diagnostic d : buffer.recording) {
+            if (d.severity == Severity.TRACE) trace(d.phase, d.message);
+            else add(d);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Editable source text for incremental re-lexing: the chars live in one array with a gap at the
+ * last edit. An edit moves the gap there (copying only the chars in between) and fills it, so a
+ * chain of nearby edits costs the size of the edits, not of the text.
+ *
+ * charAt is one branch more than a String's; toString and subSequence copy.
+ */
+public class GapText implements CharSequence {
+    private char[] chars;
+    private int gapStart;
+    private int gapEnd;
+
+    public GapText(CharSequence text) {
+        int length = text.length();
+        chars = new char[length + Math.max(64, length >> 3)];
+        for (int i = 0; i < length; i++) chars[i] = text.charAt(i);
+        gapStart = length;
+        gapEnd = chars.length;
+    }
+
+    // Replaces 'removed' chars at 'offset' by 'inserted'
+    public void replace(int offset, int removed, CharSequence inserted) {
+        moveGap(offset);
+        gapEnd += removed;
+        int count = inserted.length();
+        if (gapEnd - gapStart < count) grow(count);
+        for (int i = 0; i < count; i++) chars[gapStart++] = inserted.charAt(i);
+    }
+
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            int count = gapStart - offset;
+            System.arraycopy(chars, offset, chars, gapEnd - count, count);
+            gapStart = offset;
+            gapEnd -= count;
+        } else if (offset > gapStart) {
+            int count = offset - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, count);
+            gapStart = offset;
+            gapEnd += count;
+        }
+    }
+
+    private void grow(int needed) {
+        int tail = chars.length - gapEnd;
+        char[] grown = new char[Math.max(chars.length + (chars.length >> 1), length() + needed + 64)];
+        System.arraycopy(chars, 0, grown, 0, gapStart);
+        System.arraycopy(chars, gapEnd, grown, grown.length - tail, tail);
+        chars = grown;
+        gapEnd = grown.length - tail;
+    }
+
+    public int length() { return chars.length - (gapEnd - gapStart); }
+
+    public char charAt(int index) {
+        return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    public String toString() {
+        return new StringBuilder(length()).append(chars, 0, gapStart).append(chars, gapEnd, chars.length - gapEnd).toString();
+    }
+}
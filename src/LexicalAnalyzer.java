@@ -1,5 +1,14 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,11 +19,30 @@ public class LexicalAnalyzer {
         KEYWORD, CONSTANT, IDENTIFIER, OPERATOR, PUNCTUATOR, EOF
     }
 
+    // Keywords, in the order of the keyword pattern. The ordinal is also the keyword's NameTable ID.
+    public enum Keyword {
+        INTEGER, FLOAT, STRING, ARRAY, STACK, IF, ELSE, DO, WHILE, FOR, CLASS,
+        SUBPROGRAM, RETURN, VOID, END, EXTENDS, NEW, THIS, PRINT;
+
+        public final String spelling = name().toLowerCase(java.util.Locale.ROOT);
+
+        public boolean isPrimitiveType() {
+            return this == INTEGER || this == FLOAT || this == STRING;
+        }
+
+        private static final Keyword[] ALL = values();
+
+        public static Keyword of(int symbol) {
+            return NameTable.isKeyword(symbol) ? ALL[symbol] : null;
+        }
+    }
+
     // 2. Token Class to hold data (UPDATED WITH LINE NUMBER)
     public static class Token {
         public TokenType type;
         public String data;
         public int line; // <--- New Field: Where did this token come from?
+        public int symbol = -1; // NameTable ID for keywords and identifiers, -1 otherwise
 
         public Token(TokenType type, String data, int line) {
             this.type = type;
@@ -22,6 +50,11 @@ public class LexicalAnalyzer {
             this.line = line;
         }
 
+        public Token(TokenType type, String data, int line, int symbol) {
+            this(type, data, line);
+            this.symbol = symbol;
+        }
+
         @Override
         public String toString() {
             // Pretty print with line number
@@ -40,8 +73,21 @@ public class LexicalAnalyzer {
         }
     }
     private ArrayList<TokenData> tokenDatas;
+    private final Diagnostics diagnostics; // Lexical errors, in source order
+    private NameTable names;
 
     public LexicalAnalyzer() {
+        this(new NameTable());
+    }
+
+    // Share one NameTable between lexers so IDs stay comparable across files
+    public LexicalAnalyzer(NameTable names) {
+        this(names, Diagnostics.quiet());
+    }
+
+    public LexicalAnalyzer(NameTable names, Diagnostics diagnostics) {
+        this.names = names;
+        this.diagnostics = diagnostics;
         tokenDatas = new ArrayList<>();
 
         // 1. KEYWORDS
@@ -62,17 +108,28 @@ public class LexicalAnalyzer {
         tokenDatas.add(new TokenData(Pattern.compile("^\\."), TokenType.PUNCTUATOR)); // Dot for OOP
     }
 
-    // 4. The Main Tokenization Logic (UPDATED TO TRACK LINES)
+    // 4. The Main Tokenization Logic (DFA scanner, one pass over the chars)
     public List<Token> tokenize(String source) {
-        List<Token> tokens = new ArrayList<>();
+        TokenBuffer buffer = tokenizeBuffer(source);
+        List<Token> tokens = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.toToken(i));
+        }
+        return tokens;
+    }
+
+    // Same tokens, stored compactly as offsets into 'source' (see TokenBuffer)
+    public TokenBuffer tokenizeBuffer(CharSequence source) {
+        int length = source.length();
+        TokenBuffer tokens = new TokenBuffer(source, length / 4, names);
         int pos = 0;
         int line = 1; // <--- Start at Line 1
 
-        while (pos < source.length()) {
+        while (pos < length) {
             char c = source.charAt(pos);
 
             // Skip Whitespace & Count Newlines
-            if (Character.isWhitespace(c)) {
+            if (isWhitespace(c)) {
                 if (c == '\n') {
                     line++; // <--- Increment Line Counter
                 }
@@ -81,6 +138,323 @@ public class LexicalAnalyzer {
             }
 
             // Skip Comments (# to end of line)
+            if (c == '#') {
+                while (pos < length && source.charAt(pos) != '\n') {
+                    pos++;
+                }
+                continue;
+            }
+
+            int end = scanToken(source, pos, length, true);
+            if (scannedType == null) {
+                reportError(line, c);
+                tokens.noteLexicalError(pos, c);
+            } else {
+                tokens.add(scannedType, pos, end, line, symbolOf(source, pos, end));
+            }
+            pos = end;
+        }
+
+        // Add EOF Token at the end so the parser knows when to stop
+        tokens.add(TokenType.EOF, length, length, line);
+
+        return tokens;
+    }
+
+    // 4a. Memory-Mapped Input
+    // Large files are mapped and scanned as ASCII bytes, with no decoding into a String. If a
+    // non-ASCII byte shows up anywhere but a comment (e.g. in a string constant) we fall back to
+    // decoding the file as UTF-8. Either way the buffer carries a LineIndex for diagnostics.
+    public TokenBuffer tokenizeFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                TokenBuffer tokens = tokenizeAscii(new AsciiSource(bytes));
+                if (tokens != null) return tokens;
+            }
+        }
+
+        String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        TokenBuffer tokens = tokenizeBuffer(source);
+        tokens.setLineIndex(LineIndex.of(source));
+        return tokens;
+    }
+
+    // Byte-level copy of tokenizeBuffer; returns null when the input needs real decoding
+    private TokenBuffer tokenizeAscii(AsciiSource source) {
+        int length = source.length();
+        TokenBuffer tokens = new TokenBuffer(source, length / 4, names);
+        LineIndex lineIndex = new LineIndex();
+        List<int[]> pendingErrors = new ArrayList<>(); // {line, char}, reported only if we don't fall back
+        int pos = 0;
+        int line = 1;
+
+        while (pos < length) {
+            int b = source.byteAt(pos);
+            if (b >= 128) return null;
+            char c = (char) b;
+
+            if (CHAR_CLASS[c] == C_SPACE) {
+                if (c == '\n') {
+                    line++;
+                    lineIndex.addLineStart(pos + 1);
+                }
+                pos++;
+                continue;
+            }
+
+            // Comments may hold any bytes: UTF-8 never hides a '\n' inside a multi-byte char
+            if (c == '#') {
+                while (pos < length && source.byteAt(pos) != '\n') {
+                    pos++;
+                }
+                continue;
+            }
+
+            int end = scanToken(source, pos, length, true);
+            if (scannedType == null) {
+                pendingErrors.add(new int[]{line, c});
+                tokens.noteLexicalError(pos, c);
+            } else {
+                if (c == '"' && !scanStringBytes(source, pos + 1, end - 1, lineIndex)) return null;
+                tokens.add(scannedType, pos, end, line, symbolOf(source, pos, end));
+            }
+            pos = end;
+        }
+
+        tokens.add(TokenType.EOF, length, length, line);
+        tokens.setLineIndex(lineIndex);
+        for (int[] error : pendingErrors) {
+            reportError(error[0], (char) error[1]);
+        }
+        return tokens;
+    }
+
+    // Checks a string constant's body for non-ASCII bytes and records its newlines
+    private static boolean scanStringBytes(AsciiSource source, int from, int to, LineIndex lineIndex) {
+        for (int i = from; i < to; i++) {
+            int b = source.byteAt(i);
+            if (b >= 128) return false;
+            if (b == '\n') lineIndex.addLineStart(i + 1);
+        }
+        return true;
+    }
+
+    // Read-only char view of ASCII bytes (one byte = one char)
+    static final class AsciiSource implements CharSequence {
+        private final ByteBuffer bytes;
+
+        AsciiSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        int byteAt(int index) {
+            return bytes.get(index) & 0xFF;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        // Token text is materialised straight from the mapped bytes
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            byte[] text = new byte[end - start];
+            bytes.get(start, text);
+            return new String(text, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    // 4b. The DFA
+    // The class of the first character picks the branch of the automaton; each branch then
+    // walks forward until the token ends. No substring is taken until the token is known.
+    static final int NEED_MORE = -1; // scanToken hit 'limit' before it could decide (streaming input only)
+
+    private static final byte C_OTHER = 0, C_SPACE = 1, C_LETTER = 2, C_DIGIT = 3, C_QUOTE = 4,
+            C_OPERATOR = 5, C_PUNCTUATOR = 6;
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) CHAR_CLASS[c] = C_SPACE;
+            else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') CHAR_CLASS[c] = C_LETTER;
+            else if (c >= '0' && c <= '9') CHAR_CLASS[c] = C_DIGIT;
+            else if (c == '"') CHAR_CLASS[c] = C_QUOTE;
+            else if ("=<>!&|+-*/".indexOf(c) >= 0) CHAR_CLASS[c] = C_OPERATOR;
+            else if ("()[]{},;.".indexOf(c) >= 0) CHAR_CLASS[c] = C_PUNCTUATOR;
+        }
+    }
+
+    // Perfect hash over the keywords: (first * 24 + last * 30 + length) & 31 never collides for
+    // this set, so one probe plus one compare decides whether a word is a keyword.
+    private static final Keyword[] KEYWORD_TABLE = new Keyword[32];
+
+    static {
+        for (Keyword keyword : Keyword.values()) {
+            String s = keyword.spelling;
+            int slot = keywordSlot(s.charAt(0), s.charAt(s.length() - 1), s.length());
+            if (KEYWORD_TABLE[slot] != null) {
+                throw new IllegalStateException("Keyword hash collision: " + s + " / " + KEYWORD_TABLE[slot].spelling);
+            }
+            KEYWORD_TABLE[slot] = keyword;
+        }
+    }
+
+    private static int keywordSlot(char first, char last, int length) {
+        return (first * 24 + last * 30 + length) & 31;
+    }
+
+    // Type of the token recognised by the last scanToken call (null = lexical error)
+    TokenType scannedType;
+    // Keyword recognised by the last scanToken call (null unless scannedType == KEYWORD)
+    Keyword scannedKeyword;
+
+    static boolean isWhitespace(char c) {
+        return c < 128 ? CHAR_CLASS[c] == C_SPACE : Character.isWhitespace(c);
+    }
+
+    /**
+     * Recognises the token starting at 'pos' (which must not be whitespace or '#') and returns its
+     * end offset. The token type is left in 'scannedType'. An unexpected character yields a null
+     * type and an end of pos + 1. When 'atEnd' is false the input may continue past 'limit', and
+     * NEED_MORE is returned if the decision depends on characters that are not there yet.
+     */
+    int scanToken(CharSequence src, int pos, int limit, boolean atEnd) {
+        char c = src.charAt(pos);
+        int p = pos + 1;
+        switch (c < 128 ? CHAR_CLASS[c] : C_OTHER) {
+            case C_LETTER:
+                while (p < limit && isIdentifierPart(src.charAt(p))) p++;
+                if (p == limit && !atEnd) return NEED_MORE;
+                // Same rule as the \b after the keyword alternation in the regex lexer
+                Keyword keyword = keywordAt(src, pos, p);
+                if (keyword != null && (p == limit || !isWordAfterKeyword(src, p))) {
+                    scannedType = TokenType.KEYWORD;
+                    scannedKeyword = keyword;
+                } else {
+                    scannedType = TokenType.IDENTIFIER;
+                }
+                return p;
+
+            case C_DIGIT:
+                while (p < limit && isDigit(src.charAt(p))) p++;
+                if (p == limit) {
+                    if (!atEnd) return NEED_MORE;
+                } else if (src.charAt(p) == '.') {
+                    if (p + 1 == limit && !atEnd) return NEED_MORE;
+                    if (p + 1 < limit && isDigit(src.charAt(p + 1))) {
+                        p += 2;
+                        while (p < limit && isDigit(src.charAt(p))) p++;
+                        if (p == limit && !atEnd) return NEED_MORE;
+                    }
+                }
+                scannedType = TokenType.CONSTANT;
+                return p;
+
+            case C_QUOTE:
+                while (p < limit && src.charAt(p) != '"') p++;
+                if (p < limit) {
+                    scannedType = TokenType.CONSTANT;
+                    return p + 1;
+                }
+                if (!atEnd) return NEED_MORE;
+                scannedType = null; // Unterminated string: the quote itself is the bad character
+                return pos + 1;
+
+            case C_OPERATOR:
+                if (p == limit && !atEnd) return NEED_MORE;
+                char next = p < limit ? src.charAt(p) : '\0';
+                scannedType = TokenType.OPERATOR;
+                switch (c) {
+                    case '=': case '<': case '>': case '*': case '/':
+                        return next == '=' ? p + 1 : p;
+                    case '!':
+                        if (next == '=') return p + 1;
+                        break;
+                    case '&': case '|':
+                        if (next == c) return p + 1;
+                        break;
+                    case '+': case '-':
+                        return (next == '=' || next == c) ? p + 1 : p;
+                }
+                scannedType = null;
+                return p;
+
+            case C_PUNCTUATOR:
+                scannedType = TokenType.PUNCTUATOR;
+                return p;
+
+            default:
+                scannedType = null;
+                return p;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return c < 128 && (CHAR_CLASS[c] == C_LETTER || CHAR_CLASS[c] == C_DIGIT);
+    }
+
+    private static Keyword keywordAt(CharSequence src, int start, int end) {
+        int length = end - start;
+        if (length < 2 || length > 10) return null;
+        Keyword keyword = KEYWORD_TABLE[keywordSlot(src.charAt(start), src.charAt(end - 1), length)];
+        if (keyword == null || keyword.spelling.length() != length) return null;
+        for (int i = 0; i < length; i++) {
+            if (keyword.spelling.charAt(i) != src.charAt(start + i)) return null;
+        }
+        return keyword;
+    }
+
+    // NameTable ID of the token just scanned: the keyword ordinal, or the interned identifier
+    int symbolOf(CharSequence src, int start, int end) {
+        if (scannedType == TokenType.KEYWORD) return scannedKeyword.ordinal();
+        if (scannedType == TokenType.IDENTIFIER) return names.intern(src, start, end);
+        return -1;
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    // java.util.regex treats letters, digits, '_' and combining marks (following a letter) as word chars
+    private static boolean isWordAfterKeyword(CharSequence src, int pos) {
+        int cp = Character.codePointAt(src, pos);
+        return cp == '_' || Character.isLetterOrDigit(cp) || Character.getType(cp) == Character.NON_SPACING_MARK;
+    }
+
+    // 4c. The Original Regex Tokenizer (kept as the reference for the DFA regression check)
+    public List<Token> tokenizeRegex(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int pos = 0;
+        int line = 1;
+
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+
+            if (Character.isWhitespace(c)) {
+                if (c == '\n') {
+                    line++;
+                }
+                pos++;
+                continue;
+            }
+
             if (c == '#') {
                 while (pos < source.length() && source.charAt(pos) != '\n') {
                     pos++;
@@ -96,7 +470,6 @@ public class LexicalAnalyzer {
                 Matcher matcher = tokenData.pattern.matcher(substring);
                 if (matcher.find()) {
                     String match = matcher.group();
-                    // Pass 'line' to the new Token
                     tokens.add(new Token(tokenData.type, match, line));
                     pos += match.length();
                     matched = true;
@@ -105,18 +478,501 @@ public class LexicalAnalyzer {
             }
 
             if (!matched) {
-                System.out.println("Lexical Error at line " + line + ": Unexpected character '" + c + "'");
+                reportError(line, c);
                 pos++;
             }
         }
 
-        // Add EOF Token at the end so the parser knows when to stop
         tokens.add(new Token(TokenType.EOF, "", line));
 
         return tokens;
     }
 
-    // 5. Test
+    void reportError(int line, char c) {
+        diagnostics.error(Diagnostics.Phase.LEXER, line, "Unexpected character '" + c + "'");
+    }
+
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return diagnostics.getErrors();
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    // 4d. Parallel Chunked Lexing
+    // The input is cut right after newlines and every chunk is lexed on the pool as if it started
+    // outside a string constant, into its own NameTable. Stitching then walks the chunks in order:
+    // a chunk that really starts where the previous one stopped is taken as is; if a string from
+    // the previous chunk ran into it, we re-lex sequentially until we hit a token start the chunk
+    // also found, and take its remaining tokens from there. Lines, names and errors come out
+    // exactly as from tokenizeBuffer.
+    //
+    // Only that walk and the merge of the chunks' name tables are sequential, and they cost the
+    // re-lexed tokens and the distinct names per chunk. Listing each chunk's names in order of
+    // first use and copying its tokens into the result (names mapped, lines shifted) run on the
+    // pool again.
+    static final int MIN_PARALLEL_CHUNK = 64 * 1024;
+
+    public TokenBuffer tokenizeParallel(CharSequence source) {
+        return tokenizeParallel(source, ForkJoinPool.commonPool(), MIN_PARALLEL_CHUNK);
+    }
+
+    public TokenBuffer tokenizeParallel(CharSequence source, ForkJoinPool pool, int minChunk) {
+        int length = source.length();
+        int chunkCount = Math.min(pool.getParallelism() * 4, length / Math.max(1, minChunk));
+        if (chunkCount < 2) return tokenizeBuffer(source);
+
+        // Chunk boundaries: just after the first newline at or past each even split point
+        List<Chunk> chunks = new ArrayList<>();
+        int from = 0;
+        for (int i = 1; i <= chunkCount && from < length; i++) {
+            int to = i == chunkCount ? length : (int) ((long) length * i / chunkCount);
+            while (to < length && source.charAt(to - 1) != '\n') to++;
+            if (to > from) chunks.add(new Chunk(source, from, to));
+            from = to;
+        }
+        runAll(pool, chunks, Chunk::lex);
+
+        // 1. Where the real (sequential) scan joins each chunk's speculative one
+        long serialStart = System.nanoTime();
+        NameTable relexNames = new NameTable(); // Names of re-lexed tokens, interned in order in step 3
+        LexicalAnalyzer relexer = new LexicalAnalyzer(relexNames);
+        int pos = 0;  // Where the real scanner stands
+        int line = 1; // Its line counter
+        for (Chunk chunk : chunks) {
+            chunk.relexed = new TokenBuffer(source, relexNames);
+            chunk.sync = chunk.tokens.size(); // None of its own tokens, unless the scans meet
+            if (pos >= chunk.to) continue; // Swallowed whole by a string constant
+
+            int sync = 0;
+            int delta = line; // Chunk lines are relative to its start
+            while (pos > chunk.from && pos < chunk.to) {
+                char c = source.charAt(pos);
+                if (isWhitespace(c)) {
+                    if (c == '\n') line++;
+                    pos++;
+                    continue;
+                }
+                if (c == '#') {
+                    while (pos < length && source.charAt(pos) != '\n') pos++;
+                    continue;
+                }
+                while (sync < chunk.tokens.size() && chunk.tokens.start(sync) < pos) sync++;
+                if (sync < chunk.tokens.size() && chunk.tokens.start(sync) == pos) {
+                    delta = line - chunk.tokens.line(sync);
+                    break;
+                }
+
+                int end = relexer.scanToken(source, pos, length, true);
+                if (relexer.scannedType == null) chunk.relexError(pos, line);
+                else chunk.relexed.add(relexer.scannedType, pos, end, line, relexer.symbolOf(source, pos, end));
+                pos = end;
+            }
+            if (pos >= chunk.to) continue;
+
+            // From here on the speculative result is the real one, shifted by 'delta' lines
+            chunk.kept = true;
+            chunk.sync = sync;
+            chunk.syncOffset = pos;
+            chunk.lineDelta = delta;
+            pos = chunk.exit;
+            line = chunk.endLine + delta;
+        }
+        long serialNanos = System.nanoTime() - serialStart;
+
+        // 2. The names each chunk keeps, in order of first use (in parallel)
+        runAll(pool, chunks, Chunk::listNames);
+
+        // 3. Merge the name tables in source order, replay errors, place each chunk's tokens
+        serialStart = System.nanoTime();
+        int[] relexSymbols = new int[0];
+        int total = 0;
+        TokenBuffer tokens = new TokenBuffer(source, 16, names);
+        for (Chunk chunk : chunks) {
+            relexSymbols = mapNames(chunk.relexed, 0, chunk.relexed.size(), relexNames, relexSymbols);
+            for (int e = 0; e < chunk.relexErrorCount; e++) replayError(tokens, chunk.relexErrors[2 * e], chunk.relexErrors[2 * e + 1]);
+
+            chunk.toGlobal = new int[chunk.names.size()];
+            for (int k = 0; k < chunk.nameCount; k++) {
+                chunk.toGlobal[chunk.nameOrder[k]] = names.intern(chunk.names.name(chunk.nameOrder[k]));
+            }
+            if (chunk.kept) {
+                for (int e = 0; e < chunk.errorCount; e++) {
+                    if (chunk.errorOffsets[e] >= chunk.syncOffset) replayError(tokens, chunk.errorOffsets[e], chunk.errorLines[e] + chunk.lineDelta);
+                }
+            }
+            chunk.index = total;
+            total += chunk.relexed.size() + chunk.tokens.size() - chunk.sync;
+        }
+        serialNanos += System.nanoTime() - serialStart;
+        final int[] relexMap = relexSymbols;
+
+        // 4. Copy the tokens into place (in parallel)
+        tokens.reserve(total);
+        runAll(pool, chunks, chunk -> {
+            tokens.copy(chunk.relexed, 0, chunk.relexed.size(), chunk.index, 0, relexMap);
+            tokens.copy(chunk.tokens, chunk.sync, chunk.tokens.size() - chunk.sync,
+                    chunk.index + chunk.relexed.size(), chunk.lineDelta, chunk.toGlobal);
+        });
+
+        tokens.add(TokenType.EOF, length, length, line);
+        if (diagnostics.isTracing()) {
+            diagnostics.trace(Diagnostics.Phase.LEXER, String.format(java.util.Locale.ROOT,
+                    "%d chunks, %.2f ms sequential", chunks.size(), serialNanos / 1e6));
+        }
+        return tokens;
+    }
+
+    private static void runAll(ForkJoinPool pool, List<Chunk> chunks, java.util.function.Consumer<Chunk> work) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks) tasks.add(pool.submit(() -> work.accept(chunk)));
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+
+    // Interns the names of tokens [from, to) of 'tokens' (IDs of 'local') in order of use;
+    // 'toGlobal' maps local IDs to ours and grows with 'local'
+    private int[] mapNames(TokenBuffer tokens, int from, int to, NameTable local, int[] toGlobal) {
+        if (toGlobal.length < local.size()) {
+            int known = toGlobal.length;
+            toGlobal = java.util.Arrays.copyOf(toGlobal, local.size());
+            java.util.Arrays.fill(toGlobal, known, toGlobal.length, -1);
+        }
+        for (int i = from; i < to; i++) {
+            int symbol = tokens.symbol(i);
+            if (symbol >= NameTable.KEYWORD_COUNT && toGlobal[symbol] < 0) toGlobal[symbol] = names.intern(local.name(symbol));
+        }
+        return toGlobal;
+    }
+
+    private void replayError(TokenBuffer tokens, int offset, int line) {
+        char c = tokens.source().charAt(offset);
+        reportError(line, c);
+        tokens.noteLexicalError(offset, c);
+    }
+
+    // One slice of the input, lexed speculatively with chunk-relative lines and its own names
+    private static final class Chunk {
+        final CharSequence source;
+        final int from;
+        final int to;
+        final NameTable names = new NameTable();
+        TokenBuffer tokens;
+        int exit;    // Where the scan stopped (past 'to' if the last token ran over)
+        int endLine; // Chunk-relative line at 'exit'
+        int[] errorOffsets = new int[4];
+        int[] errorLines = new int[4];
+        int errorCount;
+
+        // Set while stitching
+        TokenBuffer relexed; // Tokens the real scan found before it met this chunk's
+        int[] relexErrors = new int[0]; // Offset, line pairs
+        int relexErrorCount;
+        boolean kept;   // The real scan met it: its tokens from 'sync' on are the real ones
+        int sync;       // First token of its own that is kept
+        int syncOffset; // Where that token starts
+        int lineDelta;
+        int[] nameOrder; // IDs of the kept tokens' names, by first use
+        int nameCount;
+        int[] toGlobal;
+        int index;      // Of its first token in the result
+
+        Chunk(CharSequence source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        void lex() {
+            LexicalAnalyzer lexer = new LexicalAnalyzer(names);
+            int length = source.length();
+            tokens = new TokenBuffer(source, (to - from) / 4, names);
+            int pos = from;
+            int line = 0;
+            while (pos < to) {
+                char c = source.charAt(pos);
+                if (isWhitespace(c)) {
+                    if (c == '\n') line++;
+                    pos++;
+                    continue;
+                }
+                if (c == '#') {
+                    while (pos < length && source.charAt(pos) != '\n') pos++;
+                    continue;
+                }
+                int end = lexer.scanToken(source, pos, length, true);
+                if (lexer.scannedType == null) {
+                    if (errorCount == errorOffsets.length) {
+                        errorOffsets = java.util.Arrays.copyOf(errorOffsets, errorCount * 2);
+                        errorLines = java.util.Arrays.copyOf(errorLines, errorCount * 2);
+                    }
+                    errorOffsets[errorCount] = pos;
+                    errorLines[errorCount++] = line;
+                } else {
+                    tokens.add(lexer.scannedType, pos, end, line, lexer.symbolOf(source, pos, end));
+                }
+                pos = end;
+            }
+            exit = pos;
+            endLine = line;
+        }
+
+        void relexError(int offset, int line) {
+            if (2 * relexErrorCount == relexErrors.length) relexErrors = java.util.Arrays.copyOf(relexErrors, Math.max(4, 2 * relexErrors.length));
+            relexErrors[2 * relexErrorCount] = offset;
+            relexErrors[2 * relexErrorCount++ + 1] = line;
+        }
+
+        void listNames() {
+            boolean[] seen = new boolean[names.size()];
+            nameOrder = new int[names.size()];
+            for (int i = sync; i < tokens.size(); i++) {
+                int symbol = tokens.symbol(i);
+                if (symbol >= NameTable.KEYWORD_COUNT && !seen[symbol]) {
+                    seen[symbol] = true;
+                    nameOrder[nameCount++] = symbol;
+                }
+            }
+        }
+    }
+
+    // 4e. Incremental Re-lexing
+    // Applies one edit (replace 'removed' chars at 'offset' by 'inserted') to a buffer from this
+    // lexer, in place, and returns it. Tokens that end (plus the two chars of lookahead the DFA
+    // may use) before the edit are kept, lexing restarts after them, and as soon as the new scan
+    // starts a token where the old scan also started one (past the edit), the old tokens from
+    // there on stay too: the buffer splices the new tokens over the damaged ones and shifts the
+    // rest lazily. The text becomes a GapText edited the same way, so an edit costs the damaged
+    // region plus the distance from the previous edit, not the size of the file (the first edit
+    // also copies the text once). Lexical errors in the kept tail are not reported again.
+    public TokenBuffer relex(TokenBuffer previous, int offset, int removed, String inserted) {
+        if (previous.names() != names) {
+            throw new IllegalArgumentException("Token buffer was lexed with a different NameTable");
+        }
+        GapText text = previous.source() instanceof GapText ? (GapText) previous.source() : new GapText(previous.source());
+        text.replace(offset, removed, inserted);
+        previous.setSource(text);
+        previous.setLineIndex(null);
+        int length = text.length();
+        int delta = inserted.length() - removed;
+        int damageEnd = offset + inserted.length(); // In new offsets
+
+        // 1. Keep the untouched prefix (an unterminated quote depends on everything after it)
+        int keep = previous.firstEndingAfter(offset - 2);
+        int quote = previous.danglingQuote();
+        if (quote >= 0 && quote < offset) keep = Math.min(keep, previous.firstEndingAfter(quote));
+        keep = Math.min(keep, previous.size() - 1); // Never keep EOF
+
+        int pos = keep > 0 ? previous.end(keep - 1) : 0;
+        int line = keep > 0 ? previous.line(keep - 1) : 1;
+        int newQuote = quote >= 0 && quote < pos ? quote : -1;
+        int oldIndex = keep;
+        int oldTokens = previous.size() - 1;
+        TokenBuffer tokens = new TokenBuffer(text, 16 + inserted.length() / 4, names); // The re-lexed ones
+
+        // 2. Re-lex until the two token streams line up again
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (isWhitespace(c)) {
+                if (c == '\n') line++;
+                pos++;
+                continue;
+            }
+            if (c == '#') {
+                while (pos < length && text.charAt(pos) != '\n') pos++;
+                continue;
+            }
+
+            if (pos >= damageEnd) {
+                int oldPos = pos - delta;
+                while (oldIndex < oldTokens && previous.start(oldIndex) < oldPos) oldIndex++;
+                if (oldIndex < oldTokens && previous.start(oldIndex) == oldPos) {
+                    if (quote >= oldPos && newQuote < 0) newQuote = quote + delta;
+                    previous.splice(keep, oldIndex, tokens, delta, line - previous.line(oldIndex));
+                    previous.setDanglingQuote(newQuote);
+                    return previous;
+                }
+            }
+
+            int end = scanToken(text, pos, length, true);
+            if (scannedType == null) {
+                reportError(line, c);
+                if (c == '"' && newQuote < 0) newQuote = pos;
+            } else {
+                tokens.add(scannedType, pos, end, line, symbolOf(text, pos, end));
+            }
+            pos = end;
+        }
+
+        tokens.add(TokenType.EOF, length, length, line);
+        previous.splice(keep, previous.size(), tokens, 0, 0);
+        previous.setDanglingQuote(newQuote);
+        return previous;
+    }
+
+    // 5. Regression Check: the DFA must give exactly what the regex tokenizer gives
+    static boolean sameAsRegex(String source) {
+        LexicalAnalyzer dfa = new LexicalAnalyzer();
+        LexicalAnalyzer regex = new LexicalAnalyzer();
+
+        List<Token> expected = regex.tokenizeRegex(source);
+        List<Token> actual = dfa.tokenize(source);
+        if (expected.size() != actual.size() || !regex.getErrors().equals(dfa.getErrors())) return false;
+        for (int i = 0; i < expected.size(); i++) {
+            Token e = expected.get(i);
+            Token a = actual.get(i);
+            if (e.type != a.type || e.line != a.line || !e.data.equals(a.data)) return false;
+        }
+        return true;
+    }
+
+    // The pull lexer with a tiny window must agree with the in-memory one
+    static boolean sameWhenStreamed(String source) {
+        LexicalAnalyzer lexer = new LexicalAnalyzer();
+        List<Token> expected = lexer.tokenize(source);
+        StreamingLexer stream = new StreamingLexer(new java.io.StringReader(source), 16);
+        for (Token e : expected) {
+            Token a = stream.next();
+            if (e.type != a.type || e.line != a.line || !e.data.equals(a.data) || e.symbol != a.symbol) return false;
+        }
+        return stream.next().line == -1 && lexer.getErrors().equals(stream.getErrors());
+    }
+
+    // Mapping the same text from a file must give the same tokens (and errors)
+    static boolean sameWhenMapped(String source) {
+        LexicalAnalyzer lexer = new LexicalAnalyzer();
+        LexicalAnalyzer mapped = new LexicalAnalyzer();
+        try {
+            Path file = Files.createTempFile("zara", ".zr");
+            try {
+                Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+                TokenBuffer expected = lexer.tokenizeBuffer(source);
+                TokenBuffer actual = mapped.tokenizeFile(file);
+                if (expected.size() != actual.size()) return false;
+                for (int i = 0; i < expected.size(); i++) {
+                    if (expected.type(i) != actual.type(i) || expected.line(i) != actual.line(i)
+                            || !expected.text(i).equals(actual.text(i))) return false;
+                }
+                return lexer.getErrors().equals(mapped.getErrors())
+                        && actual.lineIndex().lineCount() == LineIndex.of(source).lineCount();
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Chunked parallel lexing must agree token for token, including names and errors
+    static boolean sameWhenParallel(String source, ForkJoinPool pool, int minChunk) {
+        LexicalAnalyzer sequential = new LexicalAnalyzer();
+        LexicalAnalyzer parallel = new LexicalAnalyzer();
+        TokenBuffer expected = sequential.tokenizeBuffer(source);
+        TokenBuffer actual = parallel.tokenizeParallel(source, pool, minChunk);
+        if (expected.size() != actual.size()) return false;
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.type(i) != actual.type(i) || expected.start(i) != actual.start(i)
+                    || expected.end(i) != actual.end(i) || expected.line(i) != actual.line(i)
+                    || expected.symbol(i) != actual.symbol(i)) return false;
+        }
+        return sequential.getErrors().equals(parallel.getErrors())
+                && sequential.getNames().size() == parallel.getNames().size();
+    }
+
+    // A chain of random edits re-lexed incrementally must match lexing each new text from scratch
+    static boolean sameWhenRelexed(String source, java.util.Random random, String alphabet) {
+        LexicalAnalyzer incremental = new LexicalAnalyzer();
+        TokenBuffer tokens = incremental.tokenizeBuffer(source);
+        for (int edit = 0; edit < 20; edit++) {
+            String text = tokens.source().toString();
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(8, text.length() - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int k = random.nextInt(6); k > 0; k--) inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            tokens = incremental.relex(tokens, offset, removed, inserted.toString());
+
+            LexicalAnalyzer scratch = new LexicalAnalyzer();
+            TokenBuffer expected = scratch.tokenizeBuffer(tokens.source().toString());
+            if (expected.size() != tokens.size() || expected.danglingQuote() != tokens.danglingQuote()) return false;
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.type(i) != tokens.type(i) || expected.start(i) != tokens.start(i)
+                        || expected.end(i) != tokens.end(i) || expected.line(i) != tokens.line(i)
+                        || !expected.text(i).equals(tokens.text(i))) return false;
+            }
+        }
+        return true;
+    }
+
+    static void regressionCheck() {
+        String[] samples = {
+                "class Dog extends Animal {\n  integer age = 10 # comment\n  void bark() { print(\"Wo\nof\") }\n}",
+                "x+=1 y-=2 z*=3 w/=4 a++ b-- c==d e!=f g<=h i>=j k&&l m||n",
+                "3.14 3. .5 007 1.2.3 x.y.z integerx if_ ifé doé do\u0301 new\tthis",
+                "a ! b & c | d @ $ \"unterminated\n more \u00a0 \u2003 \r\n end",
+                "# only a comment", "", "\"", "print(\"\")", "for(i=0;i<10;i++){}",
+                "x = 1 # caf\u00e9 \u2003\ny = \"a\nb\" z ! w"
+        };
+        int failures = 0;
+        for (String sample : samples) {
+            if (!sameAsRegex(sample) || !sameWhenStreamed(sample) || !sameWhenMapped(sample)) {
+                System.out.println("MISMATCH: " + sample);
+                failures++;
+            }
+        }
+
+        // Random programs over an alphabet full of edge cases
+        String alphabet = "aiefnwdrtx_09.\"#=<>!&|+-*/()[]{},; \n\t\u00e9\u0301\u2003@";
+        String[] words = {"integer", "while", "do", "print", "extends", "this", "float", "end"};
+        java.util.Random random = new java.util.Random(42);
+        for (int run = 0; run < 2000; run++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int k = 0; k < length; k++) {
+                if (random.nextInt(6) == 0) sb.append(words[random.nextInt(words.length)]);
+                else sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String source = sb.toString();
+            if (!sameAsRegex(source) || !sameWhenStreamed(source) || (run % 10 == 0 && !sameWhenMapped(source))) {
+                System.out.println("MISMATCH: " + sb);
+                failures++;
+            }
+        }
+        // Bigger documents cut into many tiny chunks, so strings often straddle chunk borders
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int run = 0; run < 200; run++) {
+            StringBuilder sb = new StringBuilder();
+            int lines = 20 + random.nextInt(200);
+            for (int k = 0; k < lines; k++) {
+                int length = random.nextInt(30);
+                for (int c = 0; c < length; c++) {
+                    if (random.nextInt(5) == 0) sb.append(words[random.nextInt(words.length)]).append(' ');
+                    else sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                sb.append('\n');
+            }
+            if (!sameWhenParallel(sb.toString(), pool, 1 + random.nextInt(64))) {
+                System.out.println("PARALLEL MISMATCH: " + sb);
+                failures++;
+            }
+        }
+        pool.shutdown();
+
+        for (int run = 0; run < 300; run++) {
+            StringBuilder sb = new StringBuilder();
+            for (int k = random.nextInt(120); k > 0; k--) {
+                if (random.nextInt(5) == 0) sb.append(words[random.nextInt(words.length)]).append(' ');
+                else sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (!sameWhenRelexed(sb.toString(), random, alphabet)) {
+                System.out.println("RELEX MISMATCH: " + sb);
+                failures++;
+            }
+        }
+
+        System.out.println(failures == 0 ? "DFA lexer matches regex lexer." : failures + " mismatches!");
+    }
+
+    // 6. Test
     public static void main(String[] args) {
         String code =
                 "integer count = 0\n" +
@@ -126,11 +982,28 @@ public class LexicalAnalyzer {
                         "}";
 
         System.out.println("--- 1. Lexical Analysis ---");
-        LexicalAnalyzer lexer = new LexicalAnalyzer();
+        LexicalAnalyzer lexer = new LexicalAnalyzer(new NameTable(), Diagnostics.console(Diagnostics.Level.ERRORS));
         List<LexicalAnalyzer.Token> tokens = lexer.tokenize(code);
 
         for (LexicalAnalyzer.Token t : tokens) {
             System.out.println(t);
         }
+
+        System.out.println("\n--- 2. DFA vs Regex Regression ---");
+        regressionCheck();
+
+        // Optional: map a real file and report where its last token sits
+        if (args.length > 0) {
+            try {
+                long started = System.nanoTime();
+                TokenBuffer mapped = new LexicalAnalyzer().tokenizeFile(Path.of(args[0]));
+                long micros = (System.nanoTime() - started) / 1000;
+                int last = Math.max(0, mapped.size() - 2);
+                System.out.println("\n--- 3. Mapped " + args[0] + ": " + mapped.size() + " tokens in " + micros + " us, last token at "
+                        + mapped.lineIndex().describe(mapped.start(last)) + " ---");
+            } catch (IOException e) {
+                System.out.println("Cannot read " + args[0] + ": " + e.getMessage());
+            }
+        }
     }
 }
\ No newline at end of file
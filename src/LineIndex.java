@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+/**
+ * Start offset of every physical line of a source, so an offset found by the lexer can be turned
+ * into line/column with a binary search (O(log n)) when a diagnostic needs it.
+ *
+ * Offsets are whatever the scanned input uses: chars for a String, bytes for a mapped file.
+ * Lines and columns are 1-based. Unlike Token.line, newlines inside string constants count.
+ */
+public class LineIndex {
+    private int[] starts = new int[64];
+    private int count;
+
+    public LineIndex() {
+        starts[count++] = 0;
+    }
+
+    public static LineIndex of(CharSequence source) {
+        LineIndex index = new LineIndex();
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') index.addLineStart(i + 1);
+        }
+        return index;
+    }
+
+    // Offsets must be added in increasing order
+    public void addLineStart(int offset) {
+        if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+        starts[count++] = offset;
+    }
+
+    public int lineCount() {
+        return count;
+    }
+
+    public int lineOf(int offset) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo + 1;
+    }
+
+    public int columnOf(int offset) {
+        return offset - starts[lineOf(offset) - 1] + 1;
+    }
+
+    public String describe(int offset) {
+        int line = lineOf(offset);
+        return line + ":" + (offset - starts[line - 1] + 1);
+    }
+}
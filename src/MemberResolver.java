@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Own + inherited member lookup, shared by OOPSymbolTable and ConcurrentSymbolTable.
+ *
+ * Each class remembers the names resolved through it, so once a name was resolved in a class
+ * the lookup is one probe however deep the hierarchy. The first time, the lookup walks up to
+ * the class that declares the name (or to one that resolved it already) and every class it
+ * passed keeps the answer; a subclass member shadows the inherited one. Nothing is copied per
+ * class, so a chain of n classes costs O(n) to resolve, not O(n²).
+ *
+ * A class's memo is tagged with the class's version, which changed() bumps for the class and
+ * its subclasses. A walk reads each version before that class's members, so an answer found
+ * while a class in the chain was being redefined is stored under a version that is already
+ * stale and never used. Threads racing to resolve a name store the same answer.
+ *
+ * Every walk through a class leaves its answer there, so a subclass can only have an answer
+ * through a class that has a memo: changed() does not descend below a class without one (its
+ * direct subclasses are always visited, as they may have walked up to it before it existed).
+ * Declaring the classes of a chain bottom-up therefore costs O(1) each, not O(subclasses).
+ */
+final class MemberResolver {
+
+    // What the resolver needs of a class table
+    interface Classes {
+        Map<String, OOPSymbolTable.Symbol> members(String className); // null: not defined
+        String parent(String className);
+        int size();
+    }
+
+    // Cached answer for a name that neither the class nor any ancestor declares
+    private static final OOPSymbolTable.Symbol NOT_FOUND = new OOPSymbolTable.Symbol("", "", "");
+
+    private static final class Memo {
+        final int version;
+        final ConcurrentHashMap<String, OOPSymbolTable.Symbol> resolved = new ConcurrentHashMap<>();
+
+        Memo(int version) {
+            this.version = version;
+        }
+    }
+
+    // Per class name, defined or not (declaring a missing parent changes its subclasses' chains)
+    private static final class Node {
+        final String name;
+        final AtomicInteger version = new AtomicInteger();
+        final Set<String> subclasses = ConcurrentHashMap.newKeySet();
+        volatile Memo memo;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Classes classes;
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+    MemberResolver(Classes classes) {
+        this.classes = classes;
+    }
+
+    private Node node(String className) {
+        Node node = nodes.get(className);
+        return node != null ? node : nodes.computeIfAbsent(className, Node::new);
+    }
+
+    // Records that 'child' extends 'parent', before either is defined if need be
+    void extend(String parent, String child) {
+        node(parent).subclasses.add(child);
+    }
+
+    // After the members of 'className' changed: its answers and its subclasses' go stale
+    void changed(String className) {
+        Set<String> seen = new HashSet<>();
+        List<String> work = new ArrayList<>();
+        work.add(className);
+        while (!work.isEmpty()) {
+            String name = work.remove(work.size() - 1);
+            if (!seen.add(name)) continue; // A cycle
+            Node node = node(name);
+            node.version.incrementAndGet();
+            Memo memo = node.memo;
+            node.memo = null;
+            if (memo != null || name.equals(className)) work.addAll(node.subclasses);
+        }
+    }
+
+    OOPSymbolTable.Symbol resolve(String className, String name) {
+        Node node = nodes.get(className);
+        Memo memo = node != null ? node.memo : null;
+        OOPSymbolTable.Symbol symbol = memo != null && memo.version == node.version.get() ? memo.resolved.get(name) : null;
+        if (symbol == null) symbol = walk(className, name);
+        return symbol != NOT_FOUND ? symbol : null;
+    }
+
+    // A cycle in 'extends' just ends the walk after every class was seen once
+    private OOPSymbolTable.Symbol walk(String className, String name) {
+        OOPSymbolTable.Symbol symbol = NOT_FOUND;
+        List<Node> passed = new ArrayList<>(); // Classes the answer holds for, from 'className' up
+        int[] versions = new int[8];
+        for (String c = className; c != null && passed.size() <= classes.size(); c = classes.parent(c)) {
+            Node node = node(c);
+            int version = node.version.get();
+            Map<String, OOPSymbolTable.Symbol> members = classes.members(c);
+            if (members == null) break;
+            if (passed.size() == versions.length) versions = Arrays.copyOf(versions, versions.length * 2);
+            versions[passed.size()] = version;
+            passed.add(node);
+
+            OOPSymbolTable.Symbol own = members.get(name);
+            Memo memo = node.memo;
+            OOPSymbolTable.Symbol known = own != null ? own : memo != null && memo.version == version ? memo.resolved.get(name) : null;
+            if (known != null) {
+                symbol = known;
+                break;
+            }
+        }
+        for (int k = 0; k < passed.size(); k++) remember(passed.get(k), versions[k], name, symbol);
+
+        // A class changed meanwhile may have found no memo to descend from: redo its work
+        for (int k = 0; k < passed.size(); k++) {
+            if (passed.get(k).version.get() != versions[k]) {
+                for (Node stale : passed) changed(stale.name);
+                break;
+            }
+        }
+        return symbol;
+    }
+
+    private static void remember(Node node, int version, String name, OOPSymbolTable.Symbol symbol) {
+        Memo memo = node.memo;
+        if (memo == null || memo.version != version) {
+            synchronized (node) {
+                if (node.version.get() != version) return; // Stale already
+                memo = node.memo;
+                if (memo == null || memo.version != version) node.memo = memo = new Memo(version);
+            }
+        }
+        memo.resolved.put(name, symbol);
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Interning table for names: every distinct identifier spelling gets a dense int ID and one
+ * shared String, so later phases can compare IDs (or the Strings with ==) instead of re-running
+ * String.equals. Keywords are pre-seeded, so ID k < KEYWORD_COUNT is LexicalAnalyzer.Keyword k.
+ *
+ * Lookups hash straight from the source chars and allocate nothing when the name is known.
+ * Not thread-safe: one table per compilation (or per lexing task).
+ */
+public class NameTable {
+    public static final int KEYWORD_COUNT = LexicalAnalyzer.Keyword.values().length;
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int[] slots = new int[128]; // ID + 1 per open-addressing slot, 0 = empty
+    private int size;
+
+    public NameTable() {
+        for (LexicalAnalyzer.Keyword keyword : LexicalAnalyzer.Keyword.values()) {
+            intern(keyword.spelling);
+        }
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    public int intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && sameText(names[id], source, start, end)) return id;
+            slot = (slot + 1) & mask;
+        }
+
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = source.subSequence(start, end).toString();
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    // -1 if the name was never interned
+    public int find(String name) {
+        int hash = name.hashCode(); // Same polynomial as intern()
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) return id;
+        }
+        return -1;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static boolean isKeyword(int id) {
+        return id >= 0 && id < KEYWORD_COUNT;
+    }
+
+    private void rehash() {
+        int[] bigger = new int[slots.length * 2];
+        int mask = bigger.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (bigger[slot] != 0) slot = (slot + 1) & mask;
+            bigger[slot] = id + 1;
+        }
+        slots = bigger;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameText(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
@@ -1,5 +1,10 @@
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 public class OOPSymbolTable {
 
@@ -11,6 +16,9 @@ public class OOPSymbolTable {
         public String name;
         public String type;
         public String scope; // "global", "class", "local"
+        public int depth = -1; // Locals: block nesting (0 = method body)
+        public int slot = -1;  // Locals: index in the method frame, see MethodScope
+        public String owner;   // Fields and methods: the class that declares them
 
         public Symbol(String name, String type, String scope) {
             this.name = name;
@@ -46,48 +54,75 @@ public class OOPSymbolTable {
     public Map<String, ClassSymbol> classes = new HashMap<>();
     public ClassSymbol currentClass;
     public MethodSymbol currentMethod;
+    private final Diagnostics diagnostics;
+    private final MemberResolver resolver = new MemberResolver(new MemberResolver.Classes() {
+        public Map<String, Symbol> members(String className) {
+            ClassSymbol cls = classes.get(className);
+            return cls != null ? cls.members : null;
+        }
+
+        public String parent(String className) { return classes.get(className).parentClass; }
+
+        public int size() { return classes.size(); }
+    });
+
+    public OOPSymbolTable() {
+        this(Diagnostics.quiet());
+    }
+
+    public OOPSymbolTable(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
 
-    public void defineClass(String name, String parent) {
+    public void defineClass(String name, String parent, int line) {
         if (classes.containsKey(name)) {
-            System.out.println(" Error: Class '" + name + "' already defined.");
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Class '" + name + "' already defined.");
             return;
         }
         ClassSymbol newClass = new ClassSymbol(name, parent);
         classes.put(name, newClass);
+        if (parent != null) resolver.extend(parent, name);
+        resolver.changed(name); // Completes the chain of the classes declared earlier that extend it
         currentClass = newClass;
         currentMethod = null;
-        System.out.println("Define Class: " + name + (parent != null ? " extends " + parent : ""));
+        if (diagnostics.isTracing()) {
+            diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Define Class: " + name + (parent != null ? " extends " + parent : ""));
+        }
     }
 
-    public void defineField(String name, String type) {
+    public void defineField(String name, String type, int line) {
         if (currentClass == null) {
-            System.out.println("Error: Field '" + name + "' defined outside class.");
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Field '" + name + "' defined outside class.");
             return;
         }
         Symbol field = new Symbol(name, type, "field");
+        field.owner = currentClass.name;
         currentClass.members.put(name, field);
-        System.out.println("  Define Field: " + name + " (" + type + ")");
+        resolver.changed(currentClass.name);
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "  Define Field: " + name + " (" + type + ")");
     }
 
-    public void defineMethod(String name, String returnType) {
+    public void defineMethod(String name, String returnType, int line) {
         if (currentClass == null) {
-            System.out.println(" Error: Method '" + name + "' defined outside class.");
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Method '" + name + "' defined outside class.");
             return;
         }
         MethodSymbol method = new MethodSymbol(name, returnType);
+        method.owner = currentClass.name;
         currentClass.members.put(name, method);
+        resolver.changed(currentClass.name);
         currentMethod = method;
-        System.out.println("  Define Method: " + name + " -> " + returnType);
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "  Define Method: " + name + " -> " + returnType);
     }
 
-    public void defineLocal(String name, String type) {
+    public void defineLocal(String name, String type, int line) {
         if (currentMethod == null) {
-            System.out.println("Error: Local variable '" + name + "' defined outside method.");
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Local variable '" + name + "' defined outside method.");
             return;
         }
         Symbol local = new Symbol(name, type, "local");
         currentMethod.locals.put(name, local);
-        System.out.println("    Define Local: " + name + " (" + type + ")");
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "    Define Local: " + name + " (" + type + ")");
     }
 
     public Symbol resolve(String name) {
@@ -102,11 +137,190 @@ public class OOPSymbolTable {
         return null;
     }
 
+    // One lookup, however deep the hierarchy, once the name was resolved in this class; see
+    // MemberResolver (shared with ConcurrentSymbolTable)
     private Symbol resolveMember(ClassSymbol cls, String name) {
-        if (cls.members.containsKey(name)) return cls.members.get(name);
-        if (cls.parentClass != null && classes.containsKey(cls.parentClass)) {
-            return resolveMember(classes.get(cls.parentClass), name);
+        return resolver.resolve(cls.name, name);
+    }
+
+    // Members of 'cls' and all its ancestors; a subclass member shadows the inherited one.
+    // Built on each call, so prefer resolveMember for single names.
+    public Map<String, Symbol> allMembers(ClassSymbol cls) {
+        Map<String, Symbol> all = new HashMap<>();
+        Set<ClassSymbol> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ClassSymbol c = cls; c != null && seen.add(c); c = parentOf(c)) {
+            for (Map.Entry<String, Symbol> member : c.members.entrySet()) all.putIfAbsent(member.getKey(), member.getValue());
+        }
+        return all;
+    }
+
+    // Class name -> parent name (null for none), e.g. for Type.Hierarchy
+    public Map<String, String> parents() {
+        Map<String, String> parents = new HashMap<>();
+        for (ClassSymbol cls : classes.values()) parents.put(cls.name, cls.parentClass);
+        return parents;
+    }
+
+    private ClassSymbol parentOf(ClassSymbol cls) {
+        return cls.parentClass != null ? classes.get(cls.parentClass) : null;
+    }
+
+    // Reports an error if 'className' (directly or through its ancestors) extends itself.
+    // Iterative, so a long or cyclic chain cannot overflow the stack.
+    public boolean checkInheritance(String className, int line) {
+        ClassSymbol start = classes.get(className);
+        if (start == null) return true;
+
+        Set<ClassSymbol> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        StringBuilder path = new StringBuilder(className);
+        for (ClassSymbol c = parentOf(start); c != null; c = parentOf(c)) {
+            path.append(" -> ").append(c.name);
+            if (c == start) {
+                diagnostics.error(Diagnostics.Phase.SEMANTIC, line, "Inheritance cycle: " + path);
+                return false;
+            }
+            if (!seen.add(c)) return true; // A cycle further up, reported for its own classes
+        }
+        return true;
+    }
+
+    // ==========================================
+    // 3. PER-METHOD SCOPE (concurrent body analysis)
+    // ==========================================
+    // Once every class, field and method is declared, method bodies only write to their own
+    // scope and read 'classes', so scopes of different methods can be used on different
+    // threads. Messages go to the scope's own Diagnostics buffer, replayed in a fixed order.
+    public MethodScope enterMethod(ClassSymbol owner, MethodSymbol method, Diagnostics diagnostics) {
+        return new MethodScope(name -> resolveMember(owner, name), diagnostics);
+    }
+
+    // Block scopes of one method body. Every declaration gets the next dense frame slot, so the
+    // frame needs frameSize() slots and a local's stack offset follows from its slot alone.
+    // Names are NameTable IDs: a small open-addressing map takes each ID to the slot currently
+    // bound to it, and a slot remembers the binding it shadows. Entering a block is O(1);
+    // leaving one pops just that block's declarations off the 'open' stack and restores them.
+    // Also used by ConcurrentSymbolTable: 'members' looks a name up in the owning class.
+    public static class MethodScope {
+        private final Function<String, Symbol> members;
+        private final Diagnostics diagnostics;
+
+        // Frame: one entry per slot
+        private Symbol[] slotSymbols = new Symbol[8];
+        private int[] slotNames = new int[8];
+        private int[] shadowed = new int[8]; // Slot bound to the same name before this one, or -1
+        private int frameSize;
+
+        // Visible bindings: name ID -> slot (-1: none). Keys are never removed, only unbound.
+        private int[] keys = new int[16];
+        private int[] bound = new int[16];
+        private int keyCount;
+
+        // Slots of the declarations currently in scope, innermost block last
+        private int[] open = new int[8];
+        private int openCount;
+
+        // Block stack: frameSize and openCount when each open block was entered
+        private int[] blockSlots = new int[8];
+        private int[] blockOpen = new int[8];
+        private int depth;
+
+        MethodScope(Function<String, Symbol> members, Diagnostics diagnostics) {
+            this.members = members;
+            this.diagnostics = diagnostics;
+            Arrays.fill(keys, -1);
+        }
+
+        public void enterBlock() {
+            if (depth == blockSlots.length) {
+                blockSlots = Arrays.copyOf(blockSlots, depth * 2);
+                blockOpen = Arrays.copyOf(blockOpen, depth * 2);
+            }
+            blockSlots[depth] = frameSize;
+            blockOpen[depth++] = openCount;
+        }
+
+        // Slots are not reused: the frame keeps one per declaration
+        public void exitBlock() {
+            int start = blockOpen[--depth];
+            while (openCount > start) {
+                int slot = open[--openCount];
+                bound[indexOf(slotNames[slot])] = shadowed[slot];
+            }
+        }
+
+        public int depth() { return depth; }
+
+        public int frameSize() { return frameSize; }
+
+        public Symbol symbolAt(int slot) { return slotSymbols[slot]; }
+
+        // Returns the new local, or null if 'name' is already declared in the same block
+        public Symbol defineLocal(String name, int nameId, String type) {
+            int index = indexOf(nameId);
+            int previous = index < 0 ? -1 : bound[index];
+            // Bindings of closed blocks are gone, so a visible slot this new is from this block
+            int blockStart = depth > 0 ? blockSlots[depth - 1] : 0;
+            if (previous >= blockStart) return null;
+
+            Symbol local = new Symbol(name, type, "local");
+            local.depth = depth;
+            local.slot = frameSize;
+            if (frameSize == slotSymbols.length) {
+                slotSymbols = Arrays.copyOf(slotSymbols, frameSize * 2);
+                slotNames = Arrays.copyOf(slotNames, frameSize * 2);
+                shadowed = Arrays.copyOf(shadowed, frameSize * 2);
+            }
+            slotSymbols[frameSize] = local;
+            slotNames[frameSize] = nameId;
+            shadowed[frameSize] = previous;
+            if (openCount == open.length) open = Arrays.copyOf(open, openCount * 2);
+            open[openCount++] = frameSize;
+            if (index < 0) index = insert(nameId);
+            bound[index] = frameSize++;
+
+            if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "    Define Local: " + name + " (" + type + ")");
+            return local;
+        }
+
+        public Symbol resolve(String name, int nameId) {
+            // 1. Local (innermost visible declaration)
+            int index = indexOf(nameId);
+            if (index >= 0 && bound[index] >= 0) return slotSymbols[bound[index]];
+            // 2. Class Field
+            return members.apply(name);
+        }
+
+        private int indexOf(int nameId) {
+            int mask = keys.length - 1;
+            for (int i = (nameId * 0x9E3779B9 >>> 16) & mask; keys[i] != -1; i = (i + 1) & mask) {
+                if (keys[i] == nameId) return i;
+            }
+            return -1;
+        }
+
+        private int insert(int nameId) {
+            if ((keyCount + 1) * 2 > keys.length) {
+                int[] oldKeys = keys;
+                int[] oldBound = bound;
+                keys = new int[oldKeys.length * 2];
+                bound = new int[oldKeys.length * 2];
+                Arrays.fill(keys, -1);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != -1) bound[place(oldKeys[i])] = oldBound[i];
+                }
+            }
+            keyCount++;
+            int index = place(nameId);
+            bound[index] = -1;
+            return index;
+        }
+
+        private int place(int nameId) {
+            int mask = keys.length - 1;
+            int i = (nameId * 0x9E3779B9 >>> 16) & mask;
+            while (keys[i] != -1) i = (i + 1) & mask;
+            keys[i] = nameId;
+            return i;
         }
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+/**
+ * Binary operator table for the expression parsers in ZaraSemanticAnalyzer and
+ * ZaraSemanticAnalyzer2. A higher precedence binds tighter; every operator is left-associative,
+ * so "a - b - c" is "(a - b) - c".
+ */
+public class Operators {
+    // Not a binary operator: ends the expression
+    public static final int NONE = 0;
+    public static final int LEVELS = 6;
+
+    // Deepest '(' nesting an expression may use
+    public static final int MAX_NESTING = 256;
+
+    // Size of the parser stacks. Pending operators strictly increase in precedence between two
+    // '(' markers, so there are at most LEVELS of them plus the marker per nesting level.
+    public static final int MAX_PENDING = (MAX_NESTING + 1) * (LEVELS + 1);
+
+    public static int precedence(String operator) {
+        switch (operator) {
+            case "||": return 1;
+            case "&&": return 2;
+            case "==": case "!=": return 3;
+            case "<": case ">": case "<=": case ">=": return 4;
+            case "+": case "-": return 5;
+            case "*": case "/": return 6;
+            default: return NONE;
+        }
+    }
+}
@@ -0,0 +1,534 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SSA form of a CompactTAC program, for the sparse passes of ZaraOptimizer.
+ *
+ * Construction is the classic one: phis at the iterated dominance frontier of each variable's
+ * definitions ("semi-pruned": only for variables read in a block other than the one that sets
+ * them), then renaming along the dominator tree. Every definition of a local or temp gets a
+ * fresh version operand ("count.12"); fields are memory and keep their name. Phis are not
+ * instructions: they live here, per block, with one argument per CFG predecessor.
+ *
+ * Def-use chains are explicit and kept exact by the mutators (replaceAllUses, rewrite,
+ * remove...): each storage operand has a list of use sites, an instruction index or ~phi.
+ *
+ * destroy() writes the program back into the CompactTAC: phis become copies at the end of
+ * their predecessors (through a split block on a critical edge), each parallel copy set
+ * sequentialised with a swap temp where the copies form a cycle. Versions of a variable go back
+ * to the variable's own name unless a pass merged live ranges (replaceAllUses with another
+ * name); only then do they stay separate operands.
+ */
+public class SsaForm {
+    public static final int NONE = -1;
+
+    public final CompactTAC code;
+    public final ControlFlowGraph cfg;
+
+    // Per operand ID (grown as the passes intern new operands)
+    private int[] original;       // Variable a version belongs to; the operand itself otherwise
+    private int[] defInstruction; // Versions: defining instruction, or NONE
+    private int[] defPhi;         // Versions: defining phi, or NONE
+    private int[][] uses;         // Use sites of storage operands: instruction index, or ~phi
+    private int[] useCount;
+    private boolean[] renamed;    // Locals and temps: the variables that get versions
+    private boolean[] tainted;    // Variables whose versions may now be live at the same time
+    private int versionCounter;
+
+    // Phis, grouped by block: the phis of b are phiOffset[b] .. phiOffset[b+1]-1
+    private int[] phiOffset;
+    private int[] phiBlock;
+    private int[] phiVariable;
+    private int[] phiResult;
+    private int[][] phiArgs; // In the order of cfg.predecessor(block, k); entry block: + the value on entry
+    private boolean[] phiRemoved;
+
+    private final boolean[] removed; // Instructions deleted by a pass; dropped by destroy()
+
+    public SsaForm(CompactTAC code) {
+        this.code = code;
+        this.cfg = new ControlFlowGraph(code);
+        this.removed = new boolean[code.size()];
+
+        int operands = code.operandCount();
+        original = new int[operands];
+        for (int op = 0; op < operands; op++) original[op] = op;
+        defInstruction = new int[operands];
+        defPhi = new int[operands];
+        Arrays.fill(defInstruction, NONE);
+        Arrays.fill(defPhi, NONE);
+        uses = new int[operands][];
+        useCount = new int[operands];
+        tainted = new boolean[operands];
+        renamed = new boolean[operands];
+        for (int op = 0; op < operands; op++) {
+            renamed[op] = code.isStorage(op) && (code.slot(op) >= 0 || code.kind(op) == CompactTAC.Kind.TEMP);
+        }
+
+        placePhis();
+        rename();
+        collectUses();
+    }
+
+    // ==========================================
+    // 1. PHI PLACEMENT
+    // ==========================================
+    private void placePhis() {
+        int operands = renamed.length;
+        int blocks = cfg.blockCount();
+
+        // Definition blocks per variable, and which variables are read before being set in a block
+        boolean[] global = new boolean[operands];
+        int[] setIn = new int[operands];
+        Arrays.fill(setIn, NONE);
+        int[] defCount = new int[operands + 1];
+        int[] siteVariable = new int[64], siteBlock = new int[64]; // (variable, block) with a definition
+        int sites = 0;
+        for (int b : cfg.reversePostorder()) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int a = code.a(i), c = code.b(i);
+                if (a != NONE && renamed[a] && setIn[a] != b) global[a] = true;
+                if (c != NONE && renamed[c] && setIn[c] != b) global[c] = true;
+                if (code.opcode(i).hasResult() && renamed[code.result(i)]) {
+                    int r = code.result(i);
+                    if (setIn[r] != b) {
+                        setIn[r] = b;
+                        if (sites == siteVariable.length) {
+                            siteVariable = Arrays.copyOf(siteVariable, sites * 2);
+                            siteBlock = Arrays.copyOf(siteBlock, sites * 2);
+                        }
+                        siteVariable[sites] = r;
+                        siteBlock[sites++] = b;
+                        defCount[r + 1]++;
+                    }
+                }
+            }
+        }
+        for (int op = 0; op < operands; op++) defCount[op + 1] += defCount[op];
+        int[] defBlocks = new int[sites];
+        int[] fill = Arrays.copyOf(defCount, operands);
+        for (int k = 0; k < sites; k++) defBlocks[fill[siteVariable[k]]++] = siteBlock[k];
+
+        // Iterated dominance frontier of each global variable's definitions
+        int[][] frontiers = cfg.dominanceFrontiers();
+        int[] hasPhi = new int[blocks];
+        int[] queued = new int[blocks];
+        Arrays.fill(hasPhi, NONE);
+        Arrays.fill(queued, NONE);
+        int[] work = new int[blocks];
+        int[] placedBlock = new int[64], placedVariable = new int[64];
+        int count = 0;
+        for (int v = 0; v < operands; v++) {
+            if (!global[v] || defCount[v] == defCount[v + 1]) continue;
+            int top = 0;
+            for (int d = defCount[v]; d < defCount[v + 1]; d++) {
+                queued[defBlocks[d]] = v;
+                work[top++] = defBlocks[d];
+            }
+            while (top > 0) {
+                int x = work[--top];
+                for (int y : frontiers[x]) {
+                    if (hasPhi[y] == v) continue;
+                    hasPhi[y] = v;
+                    if (count == placedBlock.length) {
+                        placedBlock = Arrays.copyOf(placedBlock, count * 2);
+                        placedVariable = Arrays.copyOf(placedVariable, count * 2);
+                    }
+                    placedBlock[count] = y;
+                    placedVariable[count++] = v;
+                    if (queued[y] != v) {
+                        queued[y] = v;
+                        work[top++] = y;
+                    }
+                }
+            }
+        }
+
+        // Group by block
+        phiOffset = new int[blocks + 1];
+        for (int k = 0; k < count; k++) phiOffset[placedBlock[k] + 1]++;
+        for (int b = 0; b < blocks; b++) phiOffset[b + 1] += phiOffset[b];
+        phiBlock = new int[count];
+        phiVariable = new int[count];
+        phiResult = new int[count];
+        phiArgs = new int[count][];
+        phiRemoved = new boolean[count];
+        fill = Arrays.copyOf(phiOffset, blocks);
+        for (int k = 0; k < count; k++) {
+            int b = placedBlock[k], p = fill[b]++;
+            phiBlock[p] = b;
+            phiVariable[p] = placedVariable[k];
+            // The entry block may be a loop header: its phis take the value on entry as a last argument
+            phiArgs[p] = new int[cfg.predecessorCount(b) + (b == 0 ? 1 : 0)];
+            Arrays.fill(phiArgs[p], placedVariable[k]); // The value on entry, until renaming says otherwise
+        }
+    }
+
+    // ==========================================
+    // 2. RENAMING (dominator tree preorder, explicit stack)
+    // ==========================================
+    private void rename() {
+        if (cfg.blockCount() == 0) return;
+        int variables = renamed.length;
+        int[] current = new int[variables]; // Version of each variable at this point; the variable itself on entry
+        for (int v = 0; v < variables; v++) current[v] = v;
+        int[] undoVariable = new int[64], undoVersion = new int[64]; // Log of (variable, previous version)
+        int undoSize = 0;
+
+        int blocks = cfg.blockCount();
+        int[] stack = new int[blocks];
+        int[] nextChild = new int[blocks];
+        int[] undoMark = new int[blocks];
+        int top = 0;
+        stack[0] = 0;
+        boolean entering = true;
+
+        while (top >= 0) {
+            int b = stack[top];
+            if (entering) {
+                undoMark[b] = undoSize;
+                nextChild[b] = 0;
+
+                for (int p = phiOffset[b]; p < phiOffset[b + 1]; p++) {
+                    int v = phiVariable[p];
+                    if (undoSize == undoVariable.length) {
+                        undoVariable = Arrays.copyOf(undoVariable, undoSize * 2);
+                        undoVersion = Arrays.copyOf(undoVersion, undoSize * 2);
+                    }
+                    undoVariable[undoSize] = v;
+                    undoVersion[undoSize++] = current[v];
+                    current[v] = phiResult[p] = newVersion(v);
+                    defPhi[current[v]] = p;
+                }
+
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    int a = code.a(i), c = code.b(i), r = code.result(i);
+                    if (a != NONE && renamed[a]) a = current[a];
+                    if (c != NONE && renamed[c]) c = current[c];
+                    if (code.opcode(i).hasResult() && renamed[r]) {
+                        if (undoSize == undoVariable.length) {
+                            undoVariable = Arrays.copyOf(undoVariable, undoSize * 2);
+                            undoVersion = Arrays.copyOf(undoVersion, undoSize * 2);
+                        }
+                        undoVariable[undoSize] = r;
+                        undoVersion[undoSize++] = current[r];
+                        int version = newVersion(r);
+                        current[r] = version;
+                        defInstruction[version] = i;
+                        r = version;
+                    }
+                    code.set(i, code.opcode(i), r, a, c);
+                }
+
+                for (int k = 0; k < cfg.successorCount(b); k++) {
+                    int s = cfg.successor(b, k);
+                    int position = cfg.predecessorIndex(s, b);
+                    for (int p = phiOffset[s]; p < phiOffset[s + 1]; p++) phiArgs[p][position] = current[phiVariable[p]];
+                }
+            }
+
+            if (nextChild[b] < cfg.dominatorChildCount(b)) {
+                stack[++top] = cfg.dominatorChild(b, nextChild[b]++);
+                entering = true;
+            } else {
+                while (undoSize > undoMark[b]) {
+                    undoSize--;
+                    current[undoVariable[undoSize]] = undoVersion[undoSize];
+                }
+                top--;
+                entering = false;
+            }
+        }
+    }
+
+    private int newVersion(int variable) {
+        int version = code.intern(code.kind(variable), code.text(variable) + "." + (++versionCounter), NONE);
+        fit();
+        original[version] = variable;
+        return version;
+    }
+
+    // Makes room for operands interned since the arrays were sized
+    private void fit() {
+        int operands = code.operandCount();
+        if (operands <= original.length) return;
+        int old = original.length;
+        int capacity = Math.max(operands, old * 2);
+        original = Arrays.copyOf(original, capacity);
+        for (int op = old; op < capacity; op++) original[op] = op;
+        defInstruction = Arrays.copyOf(defInstruction, capacity);
+        defPhi = Arrays.copyOf(defPhi, capacity);
+        Arrays.fill(defInstruction, old, capacity, NONE);
+        Arrays.fill(defPhi, old, capacity, NONE);
+        uses = Arrays.copyOf(uses, capacity);
+        useCount = Arrays.copyOf(useCount, capacity);
+        renamed = Arrays.copyOf(renamed, capacity);
+        tainted = Arrays.copyOf(tainted, capacity);
+    }
+
+    private void collectUses() {
+        // Exact-size lists first; addUse only grows them when a pass adds uses
+        for (int i = 0; i < code.size(); i++) {
+            if (code.isStorage(code.a(i))) useCount[code.a(i)]++;
+            if (code.isStorage(code.b(i))) useCount[code.b(i)]++;
+        }
+        for (int[] args : phiArgs) for (int arg : args) useCount[arg]++;
+        for (int op = 0; op < useCount.length; op++) {
+            if (useCount[op] > 0) uses[op] = new int[useCount[op]];
+            useCount[op] = 0;
+        }
+
+        for (int i = 0; i < code.size(); i++) {
+            if (code.isStorage(code.a(i))) addUse(code.a(i), i);
+            if (code.isStorage(code.b(i))) addUse(code.b(i), i);
+        }
+        for (int p = 0; p < phiResult.length; p++) {
+            for (int arg : phiArgs[p]) addUse(arg, ~p);
+        }
+    }
+
+    private void addUse(int operand, int site) {
+        int[] list = uses[operand];
+        if (list == null) list = uses[operand] = new int[2];
+        else if (useCount[operand] == list.length) list = uses[operand] = Arrays.copyOf(list, list.length * 2);
+        list[useCount[operand]++] = site;
+    }
+
+    private void removeUse(int operand, int site) {
+        int[] list = uses[operand];
+        for (int k = 0; k < useCount[operand]; k++) {
+            if (list[k] == site) {
+                list[k] = list[--useCount[operand]];
+                return;
+            }
+        }
+    }
+
+    // ==========================================
+    // QUERIES
+    // ==========================================
+    public int phiCount() { return phiResult.length; }
+
+    public int firstPhi(int block) { return phiOffset[block]; }
+
+    public int endPhi(int block) { return phiOffset[block + 1]; }
+
+    public int phiBlock(int phi) { return phiBlock[phi]; }
+
+    public int phiResult(int phi) { return phiResult[phi]; }
+
+    public int phiArgCount(int phi) { return phiArgs[phi].length; }
+
+    public int phiArg(int phi, int k) { return phiArgs[phi][k]; }
+
+    public boolean isPhiRemoved(int phi) { return phiRemoved[phi]; }
+
+    public boolean isRemoved(int instruction) { return removed[instruction]; }
+
+    // A version made by renaming: exactly one definition, an instruction or a phi
+    public boolean isVersion(int operand) { return operand < original.length && original[operand] != operand; }
+
+    // A version, or a variable that has versions: used as an operand, the variable itself is its
+    // value on entry. Either way the value never changes once defined (fields do).
+    public boolean isRenamed(int operand) { return isVersion(operand) || (operand >= 0 && operand < renamed.length && renamed[operand]); }
+
+    public int variableOf(int operand) { return operand < original.length ? original[operand] : operand; }
+
+    public int definingInstruction(int version) { return version < defInstruction.length ? defInstruction[version] : NONE; }
+
+    public int definingPhi(int version) { return version < defPhi.length ? defPhi[version] : NONE; }
+
+    public int useCount(int operand) { return operand < useCount.length ? useCount[operand] : 0; }
+
+    // Use site k of 'operand': an instruction index, or ~phi (negative) for a phi argument
+    public int use(int operand, int k) { return uses[operand][k]; }
+
+    public static boolean isPhiUse(int site) { return site < 0; }
+
+    // "x.3 = phi(x.1, x.2)"
+    public String phiToString(int phi) {
+        StringBuilder sb = new StringBuilder(code.text(phiResult[phi])).append(" = phi(");
+        for (int k = 0; k < phiArgs[phi].length; k++) sb.append(k > 0 ? ", " : "").append(code.text(phiArgs[phi][k]));
+        return sb.append(')').toString();
+    }
+
+    // ==========================================
+    // MUTATORS (keep the def-use chains exact)
+    // ==========================================
+    // Every use of 'operand' now reads 'replacement' (a constant, or another name: that merges
+    // live ranges, so the replacement's variable keeps its versions apart in destroy())
+    public void replaceAllUses(int operand, int replacement) {
+        fit();
+        boolean storage = code.isStorage(replacement);
+        if (storage) tainted[variableOf(replacement)] = true;
+        for (int k = 0; k < useCount(operand); k++) {
+            int site = uses[operand][k];
+            if (isPhiUse(site)) {
+                int[] args = phiArgs[~site];
+                for (int j = 0; j < args.length; j++) if (args[j] == operand) args[j] = replacement;
+            } else {
+                int i = site;
+                code.set(i, code.opcode(i), code.result(i),
+                        code.a(i) == operand ? replacement : code.a(i),
+                        code.b(i) == operand ? replacement : code.b(i));
+            }
+            if (storage) addUse(replacement, site);
+        }
+        useCount[operand] = 0;
+    }
+
+    // Gives instruction i new operands (same result)
+    public void rewrite(int i, CompactTAC.Opcode opcode, int a, int b) {
+        fit();
+        if (code.isStorage(code.a(i))) removeUse(code.a(i), i);
+        if (code.isStorage(code.b(i))) removeUse(code.b(i), i);
+        code.set(i, opcode, code.result(i), a, b);
+        if (code.isStorage(a)) addUse(a, i);
+        if (code.isStorage(b)) addUse(b, i);
+    }
+
+    public void removeInstruction(int i) {
+        if (removed[i]) return;
+        removed[i] = true;
+        if (code.isStorage(code.a(i))) removeUse(code.a(i), i);
+        if (code.isStorage(code.b(i))) removeUse(code.b(i), i);
+    }
+
+    public void removePhi(int phi) {
+        if (phiRemoved[phi]) return;
+        phiRemoved[phi] = true;
+        for (int arg : phiArgs[phi]) removeUse(arg, ~phi);
+    }
+
+    // ==========================================
+    // 3. OUT OF SSA
+    // ==========================================
+    // Rewrites the CompactTAC without phis and removed instructions. This SsaForm is spent afterwards.
+    public void destroy() {
+        fit();
+        int operands = code.operandCount();
+        // A tainted variable still gets its name back if only one of its values is left
+        int[] liveVersions = new int[operands];
+        for (int op = 0; op < operands; op++) {
+            if (!isVersion(op)) continue;
+            boolean live = defInstruction[op] != NONE ? !removed[defInstruction[op]] : defPhi[op] != NONE && !phiRemoved[defPhi[op]];
+            if (live) liveVersions[original[op]]++;
+        }
+        int[] name = new int[operands]; // Final operand for every operand
+        for (int op = 0; op < operands; op++) {
+            int v = variableOf(op);
+            boolean alone = liveVersions[v] == 1 && useCount[v] == 0;
+            name[op] = v != op && (!tainted[v] || alone) ? v : op;
+        }
+
+        // Phi copies per CFG edge: at the end of a block with one successor, or on its own edge
+        int blocks = cfg.blockCount();
+        List<List<int[]>> atEnd = new ArrayList<>(), onFallthrough = new ArrayList<>(), onJump = new ArrayList<>();
+        List<int[]> onEntry = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            atEnd.add(null);
+            onFallthrough.add(null);
+            onJump.add(null);
+        }
+        for (int p = 0; p < phiResult.length; p++) {
+            if (phiRemoved[p]) continue;
+            int y = phiBlock[p];
+            for (int k = 0; k < phiArgs[p].length; k++) {
+                int dst = name[phiResult[p]], src = name[phiArgs[p][k]];
+                if (dst == src) continue;
+                if (k == cfg.predecessorCount(y)) {
+                    onEntry.add(new int[] { dst, src });
+                    continue;
+                }
+                int x = cfg.predecessor(y, k);
+                if (!cfg.isReachable(x)) continue;
+                List<List<int[]>> edge = cfg.successorCount(x) == 1 ? atEnd : (y == x + 1 ? onFallthrough : onJump);
+                if (edge.get(x) == null) edge.set(x, new ArrayList<>());
+                edge.get(x).add(new int[] { dst, src });
+            }
+        }
+
+        // Jump edges that need a split block (a new label), by target block
+        List<List<Integer>> splitsInto = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) splitsInto.add(null);
+        int[] retarget = new int[blocks]; // Split label for the if_false ending a block, or NONE
+        Arrays.fill(retarget, NONE);
+        int[] labelAt = null;
+        for (int x = 0; x < blocks; x++) {
+            if (onJump.get(x) == null) continue;
+            if (labelAt == null) labelAt = code.labelPositions();
+            int label = code.b(cfg.end(x) - 1);
+            int target = cfg.blockOf(labelAt[label]);
+            if (splitsInto.get(target) == null) splitsInto.set(target, new ArrayList<>());
+            splitsInto.get(target).add(x);
+            retarget[x] = code.intern(CompactTAC.Kind.LABEL, code.text(label) + ".split" + (++versionCounter), NONE);
+        }
+
+        List<int[]> out = new ArrayList<>(code.size() + phiResult.length);
+        emitCopies(onEntry, out);
+        for (int b = 0; b < blocks; b++) {
+            List<Integer> splits = splitsInto.get(b);
+            if (splits != null) {
+                int label = code.a(cfg.start(b));
+                if (b > 0 && code.opcode(cfg.end(b - 1) - 1) != CompactTAC.Opcode.GOTO) {
+                    out.add(new int[] { CompactTAC.Opcode.GOTO.ordinal(), NONE, label, NONE }); // Fall past the split blocks
+                }
+                for (int s = 0; s < splits.size(); s++) {
+                    int x = splits.get(s);
+                    out.add(new int[] { CompactTAC.Opcode.LABEL.ordinal(), NONE, retarget[x], NONE });
+                    emitCopies(onJump.get(x), out);
+                    if (s < splits.size() - 1) out.add(new int[] { CompactTAC.Opcode.GOTO.ordinal(), NONE, label, NONE });
+                }
+            }
+
+            int last = cfg.end(b) - 1;
+            for (int i = cfg.start(b); i <= last; i++) {
+                CompactTAC.Opcode op = code.opcode(i);
+                if (i == last && atEnd.get(b) != null && (op == CompactTAC.Opcode.GOTO || op == CompactTAC.Opcode.IF_FALSE)) {
+                    emitCopies(atEnd.get(b), out); // Before the jump
+                }
+                if (removed[i]) continue;
+                int r = code.result(i), a = code.a(i), c = code.b(i);
+                r = r == NONE ? NONE : name[r];
+                a = a == NONE ? NONE : name[a];
+                c = c == NONE ? NONE : name[c];
+                if (op == CompactTAC.Opcode.IF_FALSE && retarget[b] != NONE) c = retarget[b];
+                out.add(new int[] { op.ordinal(), r, a, c });
+            }
+            CompactTAC.Opcode lastOp = code.opcode(last);
+            if (atEnd.get(b) != null && lastOp != CompactTAC.Opcode.GOTO && lastOp != CompactTAC.Opcode.IF_FALSE) {
+                emitCopies(atEnd.get(b), out);
+            }
+            if (onFallthrough.get(b) != null) emitCopies(onFallthrough.get(b), out);
+        }
+
+        CompactTAC.Opcode[] opcodes = CompactTAC.Opcode.values();
+        code.clear();
+        for (int[] instruction : out) code.add(opcodes[instruction[0]], instruction[1], instruction[2], instruction[3]);
+    }
+
+    // Sequentialises one parallel copy set (all sources read before any destination is written)
+    private void emitCopies(List<int[]> parallel, List<int[]> out) {
+        List<int[]> pending = new ArrayList<>();
+        for (int[] copy : parallel) pending.add(new int[] { copy[0], copy[1] });
+        while (!pending.isEmpty()) {
+            int ready = -1;
+            for (int k = 0; k < pending.size() && ready < 0; k++) {
+                boolean read = false;
+                for (int[] other : pending) if (other != pending.get(k) && other[1] == pending.get(k)[0]) read = true;
+                if (!read) ready = k;
+            }
+            if (ready >= 0) {
+                int[] copy = pending.remove(ready);
+                out.add(new int[] { CompactTAC.Opcode.COPY.ordinal(), copy[0], copy[1], NONE });
+            } else {
+                // Only cycles left: save one destination's old value, then its copy is free to go
+                int saved = pending.get(0)[0];
+                int swap = code.intern(CompactTAC.Kind.TEMP, "swap." + (++versionCounter), NONE);
+                out.add(new int[] { CompactTAC.Opcode.COPY.ordinal(), swap, saved, NONE });
+                for (int[] copy : pending) if (copy[1] == saved) copy[1] = swap;
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Pull-based lexer: reads the source through a fixed-size char window and produces tokens only
+ * when the parser asks for them with next() / peek(k). Memory is the window plus the tokens
+ * currently being looked ahead at, whatever the size of the file. The window only grows when a
+ * single token (a long string constant) does not fit in it.
+ *
+ * Uses the same DFA as LexicalAnalyzer.tokenize, so the tokens are identical.
+ */
+public class StreamingLexer implements TokenStream, AutoCloseable {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final LexicalAnalyzer.Token PAST_END =
+            new LexicalAnalyzer.Token(LexicalAnalyzer.TokenType.EOF, "", -1);
+
+    private final Reader reader;
+    private final LexicalAnalyzer scanner;
+
+    // Char window: [pos, limit) is read but not yet lexed
+    private char[] buffer;
+    private CharBuffer view;
+    private int pos;
+    private int limit;
+    private boolean atEnd;
+    private boolean inComment;
+    private int line = 1;
+
+    // Lookahead ring (capacity is a power of two)
+    private LexicalAnalyzer.Token[] ring = new LexicalAnalyzer.Token[4];
+    private int head;
+    private int count;
+    private boolean eofProduced;
+
+    public StreamingLexer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingLexer(Reader reader, int bufferSize) {
+        this(reader, bufferSize, new NameTable());
+    }
+
+    public StreamingLexer(Reader reader, int bufferSize, NameTable names) {
+        this(reader, bufferSize, names, Diagnostics.quiet());
+    }
+
+    public StreamingLexer(Reader reader, int bufferSize, NameTable names, Diagnostics diagnostics) {
+        this.reader = reader;
+        this.scanner = new LexicalAnalyzer(names, diagnostics);
+        this.buffer = new char[Math.max(16, bufferSize)];
+        this.view = CharBuffer.wrap(buffer);
+    }
+
+    public static StreamingLexer fromChannel(ReadableByteChannel channel, Charset charset) {
+        return fromChannel(channel, charset, Diagnostics.quiet());
+    }
+
+    public static StreamingLexer fromChannel(ReadableByteChannel channel, Charset charset, Diagnostics diagnostics) {
+        return new StreamingLexer(Channels.newReader(channel, charset), DEFAULT_BUFFER_SIZE, new NameTable(), diagnostics);
+    }
+
+    // --- Pull API ---
+
+    // k-th token ahead without consuming it (0 = the next token next() returns)
+    public LexicalAnalyzer.Token peek(int k) {
+        while (count <= k) {
+            if (!produce()) return PAST_END;
+        }
+        return ring[(head + k) & (ring.length - 1)];
+    }
+
+    public LexicalAnalyzer.Token next() {
+        LexicalAnalyzer.Token token = peek(0);
+        if (count > 0) {
+            ring[head] = null;
+            head = (head + 1) & (ring.length - 1);
+            count--;
+        }
+        return token;
+    }
+
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return scanner.getErrors();
+    }
+
+    // --- TokenStream ---
+
+    public LexicalAnalyzer.TokenType peekType(int k) { return peek(k).type; }
+
+    public String peekText(int k) { return peek(k).data; }
+
+    public boolean peekIs(int k, String text) { return peek(k).data.equals(text); }
+
+    public int peekLine(int k) { return peek(k).line; }
+
+    public int peekSymbol(int k) { return peek(k).symbol; }
+
+    public void advance() { next(); }
+
+    public NameTable names() { return scanner.getNames(); }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // --- Lexing ---
+
+    // Lex one more token into the ring; false once EOF has already been produced
+    private boolean produce() {
+        if (eofProduced) return false;
+
+        while (true) {
+            if (pos == limit) {
+                if (atEnd) {
+                    push(new LexicalAnalyzer.Token(LexicalAnalyzer.TokenType.EOF, "", line));
+                    eofProduced = true;
+                    return true;
+                }
+                fill();
+                continue;
+            }
+
+            // Skip Comments (# to end of line), possibly across refills
+            if (inComment) {
+                while (pos < limit && buffer[pos] != '\n') pos++;
+                if (pos < limit) inComment = false;
+                continue;
+            }
+
+            char c = buffer[pos];
+
+            // Skip Whitespace & Count Newlines
+            if (LexicalAnalyzer.isWhitespace(c)) {
+                if (c == '\n') line++;
+                pos++;
+                continue;
+            }
+            if (c == '#') {
+                inComment = true;
+                continue;
+            }
+
+            int end = scanner.scanToken(view, pos, limit, atEnd);
+            if (end == LexicalAnalyzer.NEED_MORE) {
+                fill();
+                continue;
+            }
+
+            LexicalAnalyzer.TokenType type = scanner.scannedType;
+            if (type == null) {
+                scanner.reportError(line, c);
+                pos = end;
+                continue;
+            }
+            int symbol = scanner.symbolOf(view, pos, end);
+            String text = symbol >= 0 ? scanner.getNames().name(symbol) : new String(buffer, pos, end - pos);
+            push(new LexicalAnalyzer.Token(type, text, line, symbol));
+            pos = end;
+            return true;
+        }
+    }
+
+    // Move the unlexed tail to the front of the window and read more behind it
+    private void fill() {
+        int pending = limit - pos;
+        if (pending == buffer.length) {
+            // One token is larger than the whole window
+            char[] bigger = new char[buffer.length * 2];
+            System.arraycopy(buffer, pos, bigger, 0, pending);
+            buffer = bigger;
+            view = CharBuffer.wrap(buffer);
+        } else if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, pending);
+        }
+        pos = 0;
+        limit = pending;
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                atEnd = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void push(LexicalAnalyzer.Token token) {
+        if (count == ring.length) {
+            LexicalAnalyzer.Token[] bigger = new LexicalAnalyzer.Token[ring.length * 2];
+            for (int i = 0; i < count; i++) {
+                bigger[i] = ring[(head + i) & (ring.length - 1)];
+            }
+            ring = bigger;
+            head = 0;
+        }
+        ring[(head + count) & (ring.length - 1)] = token;
+        count++;
+    }
+}
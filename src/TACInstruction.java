@@ -1,5 +1,7 @@
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class TACInstruction {
         String result;    // e.g., "t1"
@@ -7,6 +9,16 @@ public class TACInstruction {
         String operator;  // e.g., "*"
         String operand2;  // e.g., "c" (can be null for simple assignments)
 
+        // Frame slots of result/operands that are locals or temps (-1: constant, field, label...)
+        int resultSlot = -1;
+        int operand1Slot = -1;
+        int operand2Slot = -1;
+
+        // Which of result/operands are temps from CodeGenerator.newTemp (never guessed from the
+        // spelling: a field may well be called "t1")
+        static final int RESULT_TEMP = 1, OPERAND1_TEMP = 2, OPERAND2_TEMP = 4;
+        int temps;
+
         public TACInstruction(String result, String operand1, String operator, String operand2) {
             this.result = result;
             this.operand1 = operand1;
@@ -14,6 +26,18 @@ public class TACInstruction {
             this.operand2 = operand2;
         }
 
+    public TACInstruction slots(int result, int operand1, int operand2) {
+        this.resultSlot = result;
+        this.operand1Slot = operand1;
+        this.operand2Slot = operand2;
+        return this;
+    }
+
+    public TACInstruction temps(int temps) {
+        this.temps = temps;
+        return this;
+    }
+
     @Override
     public String toString() {
         // Format: L1:
@@ -40,26 +64,61 @@ public class TACInstruction {
         List<TACInstruction> instructions = new ArrayList<>();
         int tempCounter = 0;
         int labelCounter = 0;
+        int slotCount = 0; // Frame slots used: the method's locals first, then its temps
+        final String namespace; // Prefix for temps and labels, e.g. "Dog.bark." (one per method body)
+        private final Set<String> temps = new HashSet<>(); // Names newTemp() gave out
+
+        public CodeGenerator() {
+            this("");
+        }
+
+        public CodeGenerator(String namespace) {
+            this.namespace = namespace;
+        }
 
         public List<TACInstruction> getInstructions() {
             return instructions;
         }
-        public String newTemp() { return "t" + (tempCounter++); }
+        public String newTemp() {
+            String temp = namespace + "t" + (tempCounter++);
+            temps.add(temp);
+            return temp;
+        }
+
+        public int newSlot() { return slotCount++; }
 
         // NEW: Generate Labels (L1, L2...)
-        public String newLabel() { return "L" + (labelCounter++); }
+        public String newLabel() { return namespace + "L" + (labelCounter++); }
 
-        public void emit(String res, String op1, String op, String op2) {
-            instructions.add(new TACInstruction(res, op1, op, op2));
+        public TACInstruction emit(String res, String op1, String op, String op2) {
+            TACInstruction instruction = new TACInstruction(res, op1, op, op2);
+            if (!temps.isEmpty()) {
+                instruction.temps = (temps.contains(res) ? TACInstruction.RESULT_TEMP : 0)
+                        | (temps.contains(op1) ? TACInstruction.OPERAND1_TEMP : 0)
+                        | (op2 != null && temps.contains(op2) ? TACInstruction.OPERAND2_TEMP : 0);
+            }
+            instructions.add(instruction);
+            return instruction;
         }
 
         // NEW: Helper methods for Control Flow
         public void emitLabel(String label) { emit(label, "", ":", ""); }
         public void emitJump(String label) { emit("goto", label, "", ""); }
-        public void emitIfFalse(String condition, String label) { emit("if_false", condition, "goto", label); }
-        public void emitParam(String param) { emit("param", param, "", ""); }
+        public TACInstruction emitIfFalse(String condition, String label) { return emit("if_false", condition, "goto", label); }
+        public TACInstruction emitParam(String param) { return emit("param", param, "", ""); }
         public void emitCall(String func, String count) { emit("call", func, "", count); }
 
+        // Appends another method's code, moving its slots after the ones used here so far
+        public void append(CodeGenerator other) {
+            for (TACInstruction i : other.instructions) {
+                if (i.resultSlot >= 0) i.resultSlot += slotCount;
+                if (i.operand1Slot >= 0) i.operand1Slot += slotCount;
+                if (i.operand2Slot >= 0) i.operand2Slot += slotCount;
+                instructions.add(i);
+            }
+            slotCount += other.slotCount;
+        }
+
         public void printCode() {
             System.out.println("\n--- Generated Three-Address Code ---");
             for (TACInstruction i : instructions) System.out.println(i);
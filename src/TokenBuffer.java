@@ -0,0 +1,281 @@
+import java.util.Arrays;
+
+/**
+ * Compact token storage: one slot per token in parallel primitive arrays (kind, start offset,
+ * length, line) over the shared source text. Token text is only turned into a String when a
+ * consumer calls text(); comparisons with is() read straight from the source.
+ *
+ * Reading past the last token behaves like the old current() helpers: EOF with line -1.
+ *
+ * LexicalAnalyzer.relex edits a buffer in place. The arrays then keep a gap at the last edit,
+ * and the tokens after it store offsets and lines that are off by a pending shift (tailStart,
+ * tailLine), so an edit near the previous one costs the tokens it replaces, not the file.
+ */
+public class TokenBuffer {
+    private static final LexicalAnalyzer.TokenType[] TYPES = LexicalAnalyzer.TokenType.values();
+
+    private CharSequence source; // A GapText once the buffer has been edited
+    private final NameTable names;
+    private byte[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] symbols; // NameTable ID (keywords, identifiers) or -1
+    private int size;
+    private int gapStart = Integer.MAX_VALUE; // Tokens from here on sit gapLength slots further
+    private int gapLength;
+    private int tailStart; // Added to the stored offset of every token after the gap
+    private int tailLine;  // ... and to its stored line
+    private LineIndex lineIndex; // Optional: physical line starts, for line/column diagnostics
+    private int danglingQuote = -1; // Offset of an unterminated '"' (its error depends on all text after it)
+
+    public TokenBuffer(CharSequence source, NameTable names) {
+        this(source, 16, names);
+    }
+
+    public TokenBuffer(CharSequence source, int expectedTokens, NameTable names) {
+        int capacity = Math.max(16, expectedTokens);
+        this.source = source;
+        this.names = names;
+        this.kinds = new byte[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+        this.symbols = new int[capacity];
+    }
+
+    public void add(LexicalAnalyzer.TokenType type, int start, int end, int line) {
+        add(type, start, end, line, -1);
+    }
+
+    public void add(LexicalAnalyzer.TokenType type, int start, int end, int line, int symbol) {
+        if (size + gapLength == kinds.length) grow();
+        int p = size + gapLength;
+        boolean tail = size >= gapStart;
+        kinds[p] = (byte) type.ordinal();
+        starts[p] = tail ? start - tailStart : start;
+        lengths[p] = end - start;
+        lines[p] = tail ? line - tailLine : line;
+        symbols[p] = symbol;
+        size++;
+    }
+
+    // Parallel lexing: appends 'count' empty slots for copy() to fill, so threads can each fill
+    // their own range. Only for a buffer that was never edited.
+    void reserve(int count) {
+        int capacity = size + count;
+        if (capacity > kinds.length) {
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+        }
+        size = capacity;
+    }
+
+    // Copies tokens [from, from + count) of 'other' into slots [to, to + count), adding 'lineDelta'
+    // to their lines and mapping names through 'toSymbol' (keywords keep their IDs). Neither
+    // buffer may have been edited.
+    void copy(TokenBuffer other, int from, int count, int to, int lineDelta, int[] toSymbol) {
+        System.arraycopy(other.kinds, from, kinds, to, count);
+        System.arraycopy(other.starts, from, starts, to, count);
+        System.arraycopy(other.lengths, from, lengths, to, count);
+        for (int k = 0; k < count; k++) {
+            lines[to + k] = other.lines[from + k] + lineDelta;
+            int symbol = other.symbols[from + k];
+            symbols[to + k] = symbol >= NameTable.KEYWORD_COUNT ? toSymbol[symbol] : symbol;
+        }
+    }
+
+    // Physical slot of token i
+    private int at(int i) { return i < gapStart ? i : i + gapLength; }
+
+    // Replaces tokens [from, to) by all tokens of 'replacement' (offsets and lines already in
+    // the edited text) and shifts the tokens after them by 'startDelta' chars and 'lineDelta'
+    // lines. Costs the tokens replaced and the distance from the previous splice.
+    void splice(int from, int to, TokenBuffer replacement, int startDelta, int lineDelta) {
+        moveGap(from);
+        gapLength += to - from;
+        size -= to - from;
+        tailStart += startDelta;
+        tailLine += lineDelta;
+
+        int count = replacement.size;
+        if (gapLength < count) growGap(count);
+        for (int k = 0; k < count; k++) {
+            int r = replacement.at(k);
+            kinds[gapStart] = replacement.kinds[r];
+            starts[gapStart] = replacement.start(k);
+            lengths[gapStart] = replacement.lengths[r];
+            lines[gapStart] = replacement.line(k);
+            symbols[gapStart] = replacement.symbols[r];
+            gapStart++;
+            gapLength--;
+        }
+        size += count;
+    }
+
+    // Gap before token 'index': tokens crossing it switch between plain and shifted storage
+    private void moveGap(int index) {
+        if (gapLength == 0 && tailStart == 0 && tailLine == 0) { // No gap and nothing shifted yet
+            gapStart = index;
+            return;
+        }
+        if (index < gapStart) {
+            for (int i = gapStart - 1; i >= index; i--) {
+                int to = i + gapLength;
+                kinds[to] = kinds[i];
+                starts[to] = starts[i] - tailStart;
+                lengths[to] = lengths[i];
+                lines[to] = lines[i] - tailLine;
+                symbols[to] = symbols[i];
+            }
+        } else {
+            for (int i = gapStart; i < index; i++) {
+                int from = i + gapLength;
+                kinds[i] = kinds[from];
+                starts[i] = starts[from] + tailStart;
+                lengths[i] = lengths[from];
+                lines[i] = lines[from] + tailLine;
+                symbols[i] = symbols[from];
+            }
+        }
+        gapStart = index;
+    }
+
+    // The tail moves to the end of the new arrays, so all free room becomes gap
+    private void growGap(int needed) {
+        int tail = size - gapStart;
+        int capacity = Math.max(kinds.length + (kinds.length >> 1), size + needed + 16);
+        int from = gapStart + gapLength, to = capacity - tail;
+        kinds = regap(kinds, new byte[capacity], from, to, tail);
+        starts = regap(starts, new int[capacity], from, to, tail);
+        lengths = regap(lengths, new int[capacity], from, to, tail);
+        lines = regap(lines, new int[capacity], from, to, tail);
+        symbols = regap(symbols, new int[capacity], from, to, tail);
+        gapLength = to - gapStart;
+    }
+
+    private <T> T regap(T array, T grown, int from, int to, int tail) {
+        System.arraycopy(array, 0, grown, 0, gapStart);
+        System.arraycopy(array, from, grown, to, tail);
+        return grown;
+    }
+
+    void setSource(CharSequence source) { this.source = source; }
+
+    public void noteLexicalError(int offset, char c) {
+        if (c == '"' && danglingQuote < 0) danglingQuote = offset;
+    }
+
+    public int danglingQuote() { return danglingQuote; }
+
+    public void setDanglingQuote(int offset) { danglingQuote = offset; }
+
+    // Index of the first token whose end lies after 'offset' (binary search; ends are sorted)
+    public int firstEndingAfter(int offset) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (end(mid) > offset) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    private void grow() {
+        int capacity = kinds.length + (kinds.length >> 1);
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    // --- Accessors ---
+
+    public int size() { return size; }
+
+    public CharSequence source() { return source; }
+
+    public NameTable names() { return names; }
+
+    public LineIndex lineIndex() { return lineIndex; }
+
+    public void setLineIndex(LineIndex lineIndex) { this.lineIndex = lineIndex; }
+
+    public LexicalAnalyzer.TokenType type(int i) {
+        return i < size ? TYPES[kinds[at(i)]] : LexicalAnalyzer.TokenType.EOF;
+    }
+
+    public int line(int i) {
+        if (i >= size) return -1;
+        return i < gapStart ? lines[i] : lines[i + gapLength] + tailLine;
+    }
+
+    public int symbol(int i) {
+        return i < size ? symbols[at(i)] : -1;
+    }
+
+    public boolean isKeyword(int i, LexicalAnalyzer.Keyword keyword) {
+        return i < size && symbols[at(i)] == keyword.ordinal();
+    }
+
+    public int start(int i) { return i < gapStart ? starts[i] : starts[i + gapLength] + tailStart; }
+
+    public int length(int i) { return i < size ? lengths[at(i)] : 0; }
+
+    public int end(int i) { return start(i) + lengths[at(i)]; }
+
+    // Lazily materialise the text of token i (names come back interned)
+    public String text(int i) {
+        if (i >= size) return "";
+        int p = at(i);
+        if (symbols[p] >= 0) return names.name(symbols[p]);
+        int start = start(i);
+        return source.subSequence(start, start + lengths[p]).toString();
+    }
+
+    // Does token i spell exactly 'text'? (no allocation)
+    public boolean is(int i, String text) {
+        if (i >= size || lengths[at(i)] != text.length()) return false;
+        int start = start(i);
+        for (int k = 0; k < text.length(); k++) {
+            if (source.charAt(start + k) != text.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    public LexicalAnalyzer.Token toToken(int i) {
+        return new LexicalAnalyzer.Token(type(i), text(i), line(i), symbol(i));
+    }
+
+    public TokenStream cursor() {
+        return new Cursor();
+    }
+
+    private class Cursor implements TokenStream {
+        private int pos;
+
+        public LexicalAnalyzer.TokenType peekType(int k) { return type(pos + k); }
+
+        public String peekText(int k) { return text(pos + k); }
+
+        public boolean peekIs(int k, String text) { return is(pos + k, text); }
+
+        public int peekLine(int k) { return line(pos + k); }
+
+        public int peekSymbol(int k) { return symbol(pos + k); }
+
+        public void advance() { pos++; }
+
+        public NameTable names() { return names; }
+    }
+
+    // Approximate heap cost of the token arrays (headers ignored)
+    public long footprintBytes() {
+        return (long) kinds.length * (1 + 4 + 4 + 4 + 4);
+    }
+}
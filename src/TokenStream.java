@@ -0,0 +1,28 @@
+/**
+ * Pull-based view of a token sequence: the parser looks ahead with peek*(k) (0 = current token)
+ * and consumes with advance(). Past the end every peek answers EOF with line -1.
+ *
+ * Implemented over a fully lexed TokenBuffer (TokenBuffer.cursor()) and by StreamingLexer,
+ * which lexes on demand and only keeps the tokens that are being looked at.
+ */
+public interface TokenStream {
+    LexicalAnalyzer.TokenType peekType(int k);
+
+    String peekText(int k);
+
+    boolean peekIs(int k, String text);
+
+    int peekLine(int k);
+
+    // NameTable ID of a keyword or identifier, -1 for anything else
+    int peekSymbol(int k);
+
+    default boolean peekKeyword(int k, LexicalAnalyzer.Keyword keyword) {
+        return peekSymbol(k) == keyword.ordinal();
+    }
+
+    void advance();
+
+    // Table that peekSymbol IDs index into
+    NameTable names();
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Types for the semantic passes. Every type is one shared instance, so types compare with ==.
+ * The primitives are constants. Class types come from a Hierarchy built once every class is
+ * declared, which numbers the class forest in pre- and post-order (Schubert numbering): A is a
+ * subtype of B exactly when B's [pre, post] interval contains A's, i.e. two int comparisons.
+ *
+ * Instances never change after construction and can be shared between threads.
+ */
+public final class Type {
+    public static final Type INTEGER = new Type("integer");
+    public static final Type FLOAT = new Type("float");
+    public static final Type STRING = new Type("string");
+    public static final Type BOOLEAN = new Type("boolean"); // Result of comparisons
+    public static final Type VOID = new Type("void");
+
+    // Type of anything already reported as an error: compatible with everything, so one mistake
+    // is not reported again by every expression that uses it
+    public static final Type ERROR = new Type("<error>");
+
+    public final String name;
+    private final int pre;  // Class types: interval in the hierarchy numbering, -1 otherwise
+    private final int post;
+
+    private Type(String name) {
+        this(name, -1, -1);
+    }
+
+    private Type(String name, int pre, int post) {
+        this.name = name;
+        this.pre = pre;
+        this.post = post;
+    }
+
+    // Built-in type for a type name, or null
+    public static Type primitive(String name) {
+        switch (name) {
+            case "integer": return INTEGER;
+            case "float": return FLOAT;
+            case "string": return STRING;
+            case "boolean": return BOOLEAN;
+            case "void": return VOID;
+            default: return null;
+        }
+    }
+
+    // Type of a CONSTANT token: "..." is a string, a number with a '.' a float
+    public static Type ofConstant(String text) {
+        if (text.startsWith("\"")) return STRING;
+        return text.indexOf('.') >= 0 ? FLOAT : INTEGER;
+    }
+
+    public boolean isClass() { return pre >= 0; }
+
+    public boolean isNumeric() { return this == INTEGER || this == FLOAT; }
+
+    public boolean isSubtypeOf(Type other) {
+        if (this == other) return true;
+        return pre >= 0 && other.pre <= pre && post <= other.post;
+    }
+
+    // Can a value of this type be stored in a 'target' variable? (integer widens to float)
+    public boolean isAssignableTo(Type target) {
+        return this == ERROR || target == ERROR || isSubtypeOf(target) || (this == INTEGER && target == FLOAT);
+    }
+
+    // Result of 'left operator right', or null if the operator does not apply to these types
+    public static Type binary(String operator, Type left, Type right) {
+        if (left == ERROR || right == ERROR) return ERROR;
+        switch (Operators.precedence(operator)) {
+            case 1: case 2: // || &&
+                return left == BOOLEAN && right == BOOLEAN ? BOOLEAN : null;
+            case 3: // == !=
+                return left.isAssignableTo(right) || right.isAssignableTo(left) ? BOOLEAN : null;
+            case 4: // < > <= >=
+                return left.isNumeric() && right.isNumeric() ? BOOLEAN : null;
+            case 5: case 6: // + - * /
+                if (!left.isNumeric() || !right.isNumeric()) return null;
+                return left == FLOAT || right == FLOAT ? FLOAT : INTEGER;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    // ==========================================
+    // CLASS HIERARCHY
+    // ==========================================
+    // One class type per declared class, numbered by an iterative depth-first walk from every
+    // root (no parent, or a parent that was never declared). Classes caught in an inheritance
+    // cycle are reached from the first of them as if it were a root; the cycle itself is reported
+    // by checkInheritance of the symbol table.
+    public static final class Hierarchy {
+        private final Map<String, Type> classes = new HashMap<>();
+
+        public Hierarchy(OOPSymbolTable table) {
+            this(table.parents());
+        }
+
+        public Hierarchy(ConcurrentSymbolTable table) {
+            this(table.parents());
+        }
+
+        // 'parents': every class name -> its parent's name (null for none)
+        public Hierarchy(Map<String, String> parents) {
+            Map<String, List<String>> children = new HashMap<>();
+            List<String> names = new ArrayList<>(parents.keySet());
+            Collections.sort(names); // Same numbering on every run
+            for (String name : names) {
+                String parent = parents.get(name);
+                if (parent != null && parents.containsKey(parent)) {
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(name);
+                }
+            }
+
+            Map<String, Integer> pre = new HashMap<>();
+            int clock = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                for (String root : names) {
+                    if (pre.containsKey(root)) continue;
+                    String parent = parents.get(root);
+                    if (pass == 0 && parent != null && parents.containsKey(parent)) continue;
+                    clock = number(root, children, pre, clock);
+                }
+            }
+        }
+
+        // Explicit stack, so a deep hierarchy cannot overflow the Java stack
+        private int number(String root, Map<String, List<String>> children, Map<String, Integer> pre, int clock) {
+            List<String> stack = new ArrayList<>();
+            List<Integer> next = new ArrayList<>(); // Index of the next child to visit per stack entry
+            pre.put(root, clock++);
+            stack.add(root);
+            next.add(0);
+
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                String name = stack.get(top);
+                List<String> kids = children.getOrDefault(name, Collections.emptyList());
+                int k = next.get(top);
+                if (k < kids.size()) {
+                    next.set(top, k + 1);
+                    String child = kids.get(k);
+                    if (!pre.containsKey(child)) {
+                        pre.put(child, clock++);
+                        stack.add(child);
+                        next.add(0);
+                    }
+                } else {
+                    classes.put(name, new Type(name, pre.get(name), clock++));
+                    stack.remove(top);
+                    next.remove(top);
+                }
+            }
+            return clock;
+        }
+
+        // Type for a type name: a primitive, a declared class, or null if there is no such type
+        public Type of(String name) {
+            Type primitive = primitive(name);
+            return primitive != null ? primitive : classes.get(name);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arena-backed syntax tree built by ZaraSemanticAnalyzer2 and walked by its semantic and TAC
+ * passes. A node is an int handle into parallel primitive arrays (kind, line, two payload ints,
+ * first child, next sibling) instead of one object per node. Names are NameTable IDs; constants
+ * and operators live in a small de-duplicated literal pool.
+ *
+ * The semantic pass annotates NAME, ASSIGN and LOCAL nodes with the frame slot of the local
+ * they refer to (NONE for fields), which the TAC pass reads instead of looking names up again.
+ *
+ * Nodes are only appended, and an expression is built operands first, so it occupies the
+ * contiguous index range [expressionStart(root), root] in postfix order. Passes walk that range
+ * instead of recursing. reset() empties the arena but keeps its arrays for the next compile.
+ */
+public class ZaraAst {
+
+    public enum Kind {
+        PROGRAM,  // children: CLASS*
+        CLASS,    // value: name, extra: parent name or -1; children: FIELD | METHOD
+        FIELD,    // value: name, extra: type; child: optional literal initialiser
+        METHOD,   // value: name, extra: return type; child: BLOCK
+        LOCAL,    // value: name, extra: type; child: optional initialiser
+        ASSIGN,   // value: target name; child: expression
+        CALL,     // value: object name, extra: method name
+        PRINT,    // child: expression
+        IF,       // children: condition, BLOCK, optional else BLOCK
+        WHILE,    // children: condition, BLOCK
+        BLOCK,    // children: statements
+        BINARY,   // value: operator (literal); children: left, right
+        NAME,     // value: name
+        LITERAL,  // value: constant text (literal), extra: 1 for a string constant
+        NEW,      // value: class name
+        ERROR     // placeholder where an expression could not be parsed
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    public static final int NONE = -1;
+
+    private byte[] kinds;
+    private int[] lines;
+    private int[] values;
+    private int[] extras;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] slots;
+    private int size;
+
+    private NameTable names;
+    private final List<String> literals = new ArrayList<>();
+    private final Map<String, Integer> literalIds = new HashMap<>();
+
+    public ZaraAst(NameTable names) {
+        this(names, 64);
+    }
+
+    public ZaraAst(NameTable names, int expectedNodes) {
+        int capacity = Math.max(16, expectedNodes);
+        this.names = names;
+        kinds = new byte[capacity];
+        lines = new int[capacity];
+        values = new int[capacity];
+        extras = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        slots = new int[capacity];
+    }
+
+    // Forget all nodes; the arrays are kept and reused by the next parse
+    public void reset(NameTable names) {
+        this.names = names;
+        size = 0;
+        literals.clear();
+        literalIds.clear();
+    }
+
+    // --- Building ---
+
+    public int add(Kind kind, int line, int value, int extra) {
+        if (size == kinds.length) grow();
+        kinds[size] = (byte) kind.ordinal();
+        lines[size] = line;
+        values[size] = value;
+        extras[size] = extra;
+        firstChildren[size] = NONE;
+        nextSiblings[size] = NONE;
+        slots[size] = NONE;
+        return size++;
+    }
+
+    public int add(Kind kind, int line, int value, int extra, int firstChild) {
+        int node = add(kind, line, value, extra);
+        firstChildren[node] = firstChild;
+        return node;
+    }
+
+    // Append 'child' after 'previous' (or as first child when previous is NONE); returns child
+    public int link(int parent, int previous, int child) {
+        if (previous == NONE) firstChildren[parent] = child;
+        else nextSiblings[previous] = child;
+        return child;
+    }
+
+    public void setNextSibling(int node, int next) {
+        nextSiblings[node] = next;
+    }
+
+    public int literal(String text) {
+        Integer id = literalIds.get(text);
+        if (id == null) {
+            id = literals.size();
+            literals.add(text);
+            literalIds.put(text, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = kinds.length + (kinds.length >> 1);
+        kinds = Arrays.copyOf(kinds, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+        extras = Arrays.copyOf(extras, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+    }
+
+    // --- Accessors ---
+
+    public int size() { return size; }
+
+    public NameTable names() { return names; }
+
+    public Kind kind(int node) { return KINDS[kinds[node]]; }
+
+    public int line(int node) { return lines[node]; }
+
+    public int value(int node) { return values[node]; }
+
+    public int extra(int node) { return extras[node]; }
+
+    public int firstChild(int node) { return firstChildren[node]; }
+
+    public int nextSibling(int node) { return nextSiblings[node]; }
+
+    // Frame slot of the local this node names, or NONE
+    public int slot(int node) { return slots[node]; }
+
+    public void setSlot(int node, int slot) { slots[node] = slot; }
+
+    // k-th child, or NONE
+    public int child(int node, int k) {
+        int child = firstChildren[node];
+        while (child != NONE && k-- > 0) child = nextSiblings[child];
+        return child;
+    }
+
+    // First node of the postfix range holding the expression rooted at 'node' (its leftmost leaf)
+    public int expressionStart(int node) {
+        while (kinds[node] == Kind.BINARY.ordinal()) node = firstChildren[node];
+        return node;
+    }
+
+    // Name stored in the value / extra slot (null for -1)
+    public String valueName(int node) {
+        return values[node] < 0 ? null : names.name(values[node]);
+    }
+
+    public String extraName(int node) {
+        return extras[node] < 0 ? null : names.name(extras[node]);
+    }
+
+    public String literalText(int node) {
+        return literals.get(values[node]);
+    }
+
+    // Approximate heap cost of the node arrays (headers and literal pool ignored)
+    public long footprintBytes() {
+        return (long) kinds.length * (1 + 4 + 4 + 4 + 4 + 4 + 4);
+    }
+
+    // ==========================================
+    // VISITOR
+    // ==========================================
+    public interface Visitor<R> {
+        R visitProgram(ZaraAst ast, int node);
+        R visitClass(ZaraAst ast, int node);
+        R visitField(ZaraAst ast, int node);
+        R visitMethod(ZaraAst ast, int node);
+        R visitLocal(ZaraAst ast, int node);
+        R visitAssign(ZaraAst ast, int node);
+        R visitCall(ZaraAst ast, int node);
+        R visitPrint(ZaraAst ast, int node);
+        R visitIf(ZaraAst ast, int node);
+        R visitWhile(ZaraAst ast, int node);
+        R visitBlock(ZaraAst ast, int node);
+        R visitBinary(ZaraAst ast, int node);
+        R visitName(ZaraAst ast, int node);
+        R visitLiteral(ZaraAst ast, int node);
+        R visitNew(ZaraAst ast, int node);
+        R visitError(ZaraAst ast, int node);
+    }
+
+    public <R> R accept(int node, Visitor<R> visitor) {
+        switch (kind(node)) {
+            case PROGRAM: return visitor.visitProgram(this, node);
+            case CLASS: return visitor.visitClass(this, node);
+            case FIELD: return visitor.visitField(this, node);
+            case METHOD: return visitor.visitMethod(this, node);
+            case LOCAL: return visitor.visitLocal(this, node);
+            case ASSIGN: return visitor.visitAssign(this, node);
+            case CALL: return visitor.visitCall(this, node);
+            case PRINT: return visitor.visitPrint(this, node);
+            case IF: return visitor.visitIf(this, node);
+            case WHILE: return visitor.visitWhile(this, node);
+            case BLOCK: return visitor.visitBlock(this, node);
+            case BINARY: return visitor.visitBinary(this, node);
+            case NAME: return visitor.visitName(this, node);
+            case LITERAL: return visitor.visitLiteral(this, node);
+            case NEW: return visitor.visitNew(this, node);
+            default: return visitor.visitError(this, node);
+        }
+    }
+
+    // Visit every child of 'node' in order
+    public <R> void acceptChildren(int node, Visitor<R> visitor) {
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            accept(child, visitor);
+        }
+    }
+
+    // S-expression dump for debugging, e.g. (ASSIGN x (BINARY + a b))
+    public String format(int node) {
+        StringBuilder sb = new StringBuilder();
+        format(node, sb);
+        return sb.toString();
+    }
+
+    private void format(int node, StringBuilder sb) {
+        Kind kind = kind(node);
+        switch (kind) {
+            case NAME: sb.append(valueName(node)); return;
+            case LITERAL: sb.append(literalText(node)); return;
+            default: break;
+        }
+        sb.append('(').append(kind);
+        if (kind == Kind.BINARY) sb.append(' ').append(literalText(node));
+        else if (kind != Kind.PROGRAM && kind != Kind.BLOCK && kind != Kind.IF && kind != Kind.WHILE
+                && kind != Kind.PRINT && kind != Kind.ERROR) {
+            sb.append(' ').append(valueName(node));
+            if (extras[node] >= 0) sb.append(' ').append(extraName(node));
+        }
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            sb.append(' ');
+            format(child, sb);
+        }
+        sb.append(')');
+    }
+}
@@ -1,135 +1,237 @@
 import java.util.*;
 
 public class ZaraBackend {
-    private List<TACInstruction> instructions;
-    private Map<String, Integer> stackMap = new HashMap<>();
-    private int stackOffset = -8; // Start below RBP
+    private final CompactTAC code;
+    // Locals and temps carry frame slots from the semantic pass and live at -8*(slot+1)(%rbp).
+    // Only operands without one get a place here, after them: fields of whole-program code and
+    // names from the old analyzer. (A module function addresses fields by their data symbol.)
+    private int[] namedIndex; // Operand ID -> index after the frame slots, or -1
+    private int namedCount;
+    private int frameSlots; // Highest slot + 1
+    private final ZaraModule.Function function; // null: whole-program code, run as one main
+    private final Diagnostics diagnostics;
+    private StringBuilder out; // Assembly text being generated
 
     public ZaraBackend(List<TACInstruction> instructions) {
-        this.instructions = instructions;
+        this(instructions, Diagnostics.quiet());
     }
 
+    public ZaraBackend(List<TACInstruction> instructions, Diagnostics diagnostics) {
+        this(CompactTAC.from(instructions), diagnostics);
+    }
+
+    public ZaraBackend(CompactTAC code, Diagnostics diagnostics) {
+        this.code = code;
+        this.function = null;
+        this.diagnostics = diagnostics;
+    }
+
+    // One function of a module: its fields are the data symbols generateProgram() declares
+    public ZaraBackend(ZaraModule.Function function, Diagnostics diagnostics) {
+        this.code = function.code();
+        this.function = function;
+        this.diagnostics = diagnostics;
+    }
+
+    public static void generate(List<ZaraModule> modules) {
+        System.out.println("\n--- 📟 Generated x86-64 Assembly 📟 ---");
+        System.out.print(generateProgram(modules));
+    }
+
+    // Links compiled modules (see ZaraModule.compile) into a program: the fields, every function,
+    // and a main that calls the constructors and then the methods in source order, as the
+    // single-list code ran them
+    public static String generateProgram(List<ZaraModule> modules) {
+        StringBuilder program = new StringBuilder();
+        program.append(".global main\n");
+        program.append(".data\n");
+        for (ZaraModule module : modules) {
+            for (String field : module.fields()) program.append(module.name).append('.').append(field).append(":\n    .quad 0\n");
+        }
+        program.append(".text\n");
+        for (ZaraModule module : modules) {
+            for (ZaraModule.Function function : module.functions()) program.append('\n').append(function.assembly());
+        }
+
+        program.append("\nmain:\n    pushq %rbp\n    movq %rsp, %rbp\n");
+        for (ZaraModule.Function.Kind kind : ZaraModule.Function.Kind.values()) {
+            for (ZaraModule module : modules) {
+                for (ZaraModule.Function function : module.functions()) {
+                    if (function.kind == kind) program.append("    call ").append(function.label()).append('\n');
+                }
+            }
+        }
+        program.append("exit_label:\n    popq %rbp\n    ret\n");
+        return program.toString();
+    }
+
+    // Prints the assembly (the demo drivers); use generateAssembly() to keep it off the console
     public void generate() {
         System.out.println("\n--- 📟 Generated x86-64 Assembly 📟 ---");
+        System.out.print(generateAssembly());
+    }
+
+    public String generateAssembly() {
+        out = new StringBuilder(code.size() * 64);
 
         // 1. Header (Standard Linux/Mac Setup)
-        System.out.println(".global main");
-        System.out.println(".text");
-        System.out.println("main:");
+        emit(".global main");
+        emit(".text");
+        emit("main:");
+
+        body();
 
+        // 5. Epilogue (Clean up and Exit)
+        emit("exit_label:");
+        emit("    movq %rbp, %rsp");   // Restore stack pointer
+        emit("    popq %rbp");         // Restore base pointer
+        emit("    ret");               // Return from main
+        return out.toString();
+    }
+
+    // Assembly of one function of a module, from its label to its ret
+    public String generateFunction() {
+        out = new StringBuilder(code.size() * 64);
+        emit(function.label() + ":");
+        body();
+        emit("    movq %rbp, %rsp");
+        emit("    popq %rbp");
+        emit("    ret");
+        return out.toString();
+    }
+
+    private void body() {
         // 2. Prologue (Setup Stack Frame)
-        System.out.println("    pushq %rbp");        // Save old base pointer
-        System.out.println("    movq %rsp, %rbp");   // Set new base pointer
+        emit("    pushq %rbp");        // Save old base pointer
+        emit("    movq %rsp, %rbp");   // Set new base pointer
 
         // 3. Map Variables to Memory
         // We scan the code to find all variables (x, y, t0...) and give them space.
         mapVariablesToStack();
-        int totalStackSize = Math.abs(stackOffset);
-        System.out.println("    subq $" + totalStackSize + ", %rsp"); // Allocate space
+        int totalStackSize = 8 * (frameSlots + namedCount + 1);
+        if (diagnostics.isTracing()) {
+            diagnostics.trace(Diagnostics.Phase.BACKEND, "   [Stack] " + frameSlots + " frame slots + "
+                    + namedCount + " named, " + totalStackSize + " bytes");
+        }
+        emit("    subq $" + totalStackSize + ", %rsp"); // Allocate space
 
         // 4. Translate Instructions
-        for (TACInstruction instr : instructions) {
-            translate(instr);
+        for (int i = 0; i < code.size(); i++) {
+            translate(i);
         }
+    }
 
-        // 5. Epilogue (Clean up and Exit)
-        System.out.println("exit_label:");
-        System.out.println("    movq %rbp, %rsp");   // Restore stack pointer
-        System.out.println("    popq %rbp");         // Restore base pointer
-        System.out.println("    ret");               // Return from main
+    private void emit(String line) {
+        out.append(line).append('\n');
     }
 
+    // Temps and variables in order of first appearance; constants, labels and names need no storage
     private void mapVariablesToStack() {
-        for (TACInstruction i : instructions) {
-            // Check result variable (e.g., "t0" in t0 = a + b)
-            if (i.result != null && !isKeyword(i.result) && !stackMap.containsKey(i.result)) {
-                stackMap.put(i.result, stackOffset);
-                stackOffset -= 8; // Move down 8 bytes (size of 64-bit integer)
-            }
-            // Check operand 1 (e.g., "x" in t0 = x + 1)
-            if (i.operand1 != null && !isNumeric(i.operand1) && !isKeyword(i.operand1) && !stackMap.containsKey(i.operand1)) {
-                stackMap.put(i.operand1, stackOffset);
-                stackOffset -= 8;
-            }
+        namedIndex = new int[code.operandCount()];
+        Arrays.fill(namedIndex, -1);
+        namedCount = 0;
+        frameSlots = 0;
+        for (int i = 0; i < code.size(); i++) {
+            place(code.result(i));
+            place(code.a(i));
+            place(code.b(i));
         }
     }
 
-    private void translate(TACInstruction i) {
-        // Comment showing the original TAC line
-        System.out.println("\n    # " + i.toString());
-
-        // --- CASE 1: LABEL (L0:) ---
-        if (i.operator.equals(":")) {
-            System.out.println(i.result + ":");
-            return;
-        }
-
-        // --- CASE 2: UNCONDITIONAL JUMP (goto L0) ---
-        if (i.result.equals("goto")) {
-            System.out.println("    jmp " + i.operand1);
-            return;
-        }
-
-        // --- CASE 3: CONDITIONAL JUMP (if_false t0 goto L1) ---
-        // In x86, false is 0. So we compare t0 with 0.
-        if (i.result.equals("if_false")) {
-            String loc = getLoc(i.operand1);
-            System.out.println("    cmpq $0, " + loc); // Compare var with 0
-            System.out.println("    je " + i.operand2);  // Jump if Equal (Zero)
-            return;
-        }
+    private void place(int operand) {
+        if (!code.isStorage(operand) || fieldSymbol(operand) != null) return;
+        int slot = code.slot(operand);
+        if (slot >= 0) frameSlots = Math.max(frameSlots, slot + 1);
+        else if (namedIndex[operand] < 0) namedIndex[operand] = namedCount++;
+    }
 
-        // --- CASE 4: PRINT (Custom implementation) ---
-        if (i.result.equals("print")) {
-            // For simplicity, we just move value to RDI (argument register)
-            // Real compiler would call printf
-            System.out.println("    # (Printing not fully implemented in bare asm)");
-            System.out.println("    movq " + getLoc(i.operand1) + ", %rdi");
-            return;
+    private void translate(int i) {
+        // Comment showing the original TAC line
+        emit("\n    # " + code.toString(i));
+        int a = code.a(i), b = code.b(i);
+
+        switch (code.opcode(i)) {
+            // --- CASE 1: LABEL (L0:) ---
+            case LABEL:
+                emit(code.text(a) + ":");
+                return;
+
+            // --- CASE 2: UNCONDITIONAL JUMP (goto L0) ---
+            case GOTO:
+                emit("    jmp " + code.text(a));
+                return;
+
+            // --- CASE 3: CONDITIONAL JUMP (if_false t0 goto L1) ---
+            // In x86, false is 0. So we compare t0 with 0.
+            case IF_FALSE:
+                emit("    cmpq $0, " + getLoc(a)); // Compare var with 0
+                emit("    je " + code.text(b));     // Jump if Equal (Zero)
+                return;
+
+            // --- CASE 4: PRINT (Custom implementation) ---
+            case PRINT:
+                // For simplicity, we just move value to RDI (argument register)
+                // Real compiler would call printf
+                emit("    # (Printing not fully implemented in bare asm)");
+                emit("    movq " + getLoc(a) + ", %rdi");
+                return;
+
+            case PARAM:
+            case CALL:
+                emit("    # (Calls not implemented in bare asm)");
+                return;
+
+            case NEW:
+                emit("    # (Objects not implemented in bare asm)");
+                emit("    movq $0, " + getLoc(code.result(i)));
+                return;
+
+            default:
+                break;
         }
 
         // --- CASE 5: ASSIGNMENT / ARITHMETIC (t0 = a + b) ---
         // 1. Load Operand 1 into RAX (Accumulator)
-        if (i.operand1 != null) {
-            String source = getLoc(i.operand1);
-            System.out.println("    movq " + source + ", %rax");
-        }
+        emit("    movq " + getLoc(a) + ", %rax");
 
         // 2. Perform Operation with Operand 2
-        if (i.operand2 != null) {
-            String source2 = getLoc(i.operand2);
-            switch (i.operator) {
-                case "+": System.out.println("    addq " + source2 + ", %rax"); break;
-                case "-": System.out.println("    subq " + source2 + ", %rax"); break;
-                case "*": System.out.println("    imulq " + source2 + ", %rax"); break; // Signed multiply
-                case "<":
+        if (b != CompactTAC.NONE) {
+            String source2 = getLoc(b);
+            switch (code.opcode(i)) {
+                case ADD: emit("    addq " + source2 + ", %rax"); break;
+                case SUB: emit("    subq " + source2 + ", %rax"); break;
+                case MUL: emit("    imulq " + source2 + ", %rax"); break; // Signed multiply
+                case LT:
                     // Compare logic: cmp b, a -> setl (set if less) -> move to rax
-                    System.out.println("    cmpq " + source2 + ", %rax");
-                    System.out.println("    setl %al");         // Set low byte to 1 if Less
-                    System.out.println("    movzbq %al, %rax"); // Zero-extend byte to 64-bit
+                    emit("    cmpq " + source2 + ", %rax");
+                    emit("    setl %al");         // Set low byte to 1 if Less
+                    emit("    movzbq %al, %rax"); // Zero-extend byte to 64-bit
                     break;
+                default: break;
             }
         }
 
         // 3. Store Result (RAX) into Destination
-        if (i.result != null) {
-            String dest = getLoc(i.result);
-            System.out.println("    movq %rax, " + dest);
-        }
+        emit("    movq %rax, " + getLoc(code.result(i)));
     }
 
     // Helper: Get location string. Either "$5" (Literal) or "-8(%rbp)" (Variable)
-    private String getLoc(String val) {
-        if (isNumeric(val)) return "$" + val;
-        if (stackMap.containsKey(val)) return stackMap.get(val) + "(%rbp)";
-        return "$" + val; // Fallback for labels or unknown
+    private String getLoc(int operand) {
+        if (code.isStorage(operand)) {
+            String field = fieldSymbol(operand);
+            if (field != null) return field + "(%rip)";
+            int slot = code.slot(operand);
+            return frameOffset(slot >= 0 ? slot : frameSlots + namedIndex[operand]);
+        }
+        return "$" + code.text(operand); // Constants (and the fallback for anything else)
     }
 
-    private boolean isNumeric(String str) {
-        return str.matches("-?\\d+");
+    // Data symbol of a field operand; null for everything else and for whole-program code
+    private String fieldSymbol(int operand) {
+        return function != null && code.slot(operand) < 0 ? function.fieldSymbol(code.text(operand)) : null;
     }
 
-    private boolean isKeyword(String str) {
-        return str.matches("goto|if_false|param|call|return");
+    private static String frameOffset(int slot) {
+        return -8 * (slot + 1) + "(%rbp)";
     }
-}
\ No newline at end of file
+}
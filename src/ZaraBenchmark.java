@@ -0,0 +1,592 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+// Micro-benchmarks for the compiler phases. Run: java ZaraBenchmark [parser|ast|expr|analysis|members|shared|tac|cfg|modules|dce|copies|relex|lex] [statements]
+public class ZaraBenchmark {
+
+    // Synthetic program using every construct the bottom-up grammar accepts
+    static String generateProgram(int statements) {
+        StringBuilder sb = new StringBuilder(statements * 40);
+        for (int i = 0; i < statements; i++) {
+            switch (i % 6) {
+                case 0: sb.append("integer v").append(i).append(" = ").append(i).append(" * ( a + b ) - c / 2\n"); break;
+                case 1: sb.append("x = x + v").append(i - 1).append(" * 3\n"); break;
+                case 2: sb.append("if ( x < ").append(i).append(" && y >= 2 ) { x = x + 1 } else { y = y - 1 }\n"); break;
+                case 3: sb.append("while ( x != 0 || y == 1 ) { x = x - 1 y = y * 2 }\n"); break;
+                case 4: sb.append("do { z = z + x } while ( z <= 100 ) ;\n"); break;
+                default: sb.append("for ( i = 0 ; i > 10 ; i = i + 1 ) { s = s + i }\n"); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    static void benchmarkParser(int statements) {
+        String code = generateProgram(statements);
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(code);
+        System.out.println("Parser: " + tokens.size() + " tokens, " + ZaraBottomUpParser.stateCount() + " LALR(1) states");
+
+        for (int run = 0; run < 10; run++) {
+            ZaraBottomUpParser parser = new ZaraBottomUpParser(tokens);
+            long start = System.nanoTime();
+            boolean accepted = parser.parse();
+            long nanos = System.nanoTime() - start;
+            if (!accepted) throw new IllegalStateException("Benchmark program was rejected");
+            System.out.printf(Locale.ROOT, "  run %d: %.2f ms, %.1f M tokens/s%n",
+                    run, nanos / 1e6, tokens.size() * 1e3 / nanos);
+        }
+    }
+
+    // Keystrokes (type a char, delete it) at a cursor drifting through files of 1x, 4x, 16x the
+    // size: the time per edit should stay flat
+    static void benchmarkRelex(int statements) {
+        for (int scale = 1; scale <= 16; scale *= 4) {
+            String code = generateProgram(statements * scale);
+            LexicalAnalyzer lexer = new LexicalAnalyzer(new NameTable(), Diagnostics.quiet());
+            TokenBuffer tokens = lexer.tokenizeBuffer(code);
+            java.util.Random random = new java.util.Random(7);
+            int cursor = code.length() / 2;
+            int edits = 20_000;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                for (int e = 0; e < edits; e++) {
+                    cursor = Math.max(0, Math.min(tokens.source().length() - 1, cursor + random.nextInt(41) - 20));
+                    tokens = lexer.relex(tokens, cursor, 0, "x");
+                    tokens = lexer.relex(tokens, cursor, 1, "");
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "Relex: %d tokens, run %d: %.2f us/edit%n",
+                        tokens.size(), run, nanos / 1e3 / (2 * edits));
+            }
+        }
+    }
+
+    // Whole-file lexing: tokenizeBuffer vs tokenizeParallel on 1..8 threads. Threads beyond the
+    // machine's processors only show the cost of chunking; the trace gives the serial share.
+    static void benchmarkLex(int statements) {
+        String code = generateProgram(statements);
+        TokenBuffer expected = new LexicalAnalyzer().tokenizeBuffer(code);
+        System.out.printf(Locale.ROOT, "Lex: %.1f MB, %d tokens, %d processor(s)%n",
+                code.length() / 1e6, expected.size(), Runtime.getRuntime().availableProcessors());
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            new LexicalAnalyzer().tokenizeBuffer(code);
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "  tokenizeBuffer, run %d: %.2f ms, %.0f MB/s%n", run, nanos / 1e6, code.length() * 1e3 / nanos);
+        }
+
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            for (int run = 0; run < 3; run++) {
+                StringBuilder trace = new StringBuilder();
+                Diagnostics diagnostics = new Diagnostics(Diagnostics.Level.TRACE, new Diagnostics.DiagnosticListener() {
+                    public void report(Diagnostics.Diagnostic diagnostic) { }
+
+                    public void trace(Diagnostics.Phase phase, String message) { trace.append(message); }
+                });
+                LexicalAnalyzer lexer = new LexicalAnalyzer(new NameTable(), diagnostics);
+                long start = System.nanoTime();
+                TokenBuffer tokens = lexer.tokenizeParallel(code, pool, LexicalAnalyzer.MIN_PARALLEL_CHUNK);
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "  tokenizeParallel, %d thread(s), run %d: %.2f ms, %.0f MB/s, %s (%s)%n",
+                        threads, run, nanos / 1e6, code.length() * 1e3 / nanos,
+                        sameTokens(expected, tokens) ? "identical" : "DIFFERENT", trace);
+            }
+            pool.shutdown();
+        }
+    }
+
+    static boolean sameTokens(TokenBuffer a, TokenBuffer b) {
+        if (a.size() != b.size() || a.names().size() != b.names().size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.type(i) != b.type(i) || a.start(i) != b.start(i) || a.end(i) != b.end(i)
+                    || a.line(i) != b.line(i) || a.symbol(i) != b.symbol(i)) return false;
+        }
+        return true;
+    }
+
+    // Class-based program for ZaraSemanticAnalyzer2: 10 statements per method, 10 methods per class
+    static String generateClasses(int statements) {
+        StringBuilder sb = new StringBuilder(statements * 30);
+        int methods = Math.max(1, statements / 10);
+        for (int m = 0; m < methods; m++) {
+            if (m % 10 == 0) sb.append("class C").append(m / 10).append(" {\n  integer count = 0\n");
+            sb.append("  void m").append(m).append("() {\n")
+                    .append("    integer a = 1\n    integer b = a * 2 + 3\n")
+                    .append("    while (a < b) {\n      a = a + 1\n      count = count + a\n    }\n")
+                    .append("    if (b < 10) {\n      print(b)\n    }\n    b = a - b\n  }\n");
+            if (m % 10 == 9 || m == methods - 1) sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    // What the tree would cost as one object per node
+    static final class NaiveNode {
+        ZaraAst.Kind kind;
+        int line;
+        String value;
+        String extra;
+        List<NaiveNode> children = new ArrayList<>();
+    }
+
+    static NaiveNode toNaive(ZaraAst ast, int node) {
+        NaiveNode naive = new NaiveNode();
+        naive.kind = ast.kind(node);
+        naive.line = ast.line(node);
+        naive.value = ast.kind(node) == ZaraAst.Kind.LITERAL || ast.kind(node) == ZaraAst.Kind.BINARY
+                ? ast.literalText(node) : ast.valueName(node);
+        naive.extra = ast.extraName(node);
+        for (int child = ast.firstChild(node); child != ZaraAst.NONE; child = ast.nextSibling(child)) {
+            naive.children.add(toNaive(ast, child));
+        }
+        return naive;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static void benchmarkAst(int statements) {
+        String code = generateClasses(statements);
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(code);
+
+        long before = usedHeap();
+        ZaraAst arena = new ZaraAst(tokens.names());
+        long start = System.nanoTime();
+        int root = new ZaraSemanticAnalyzer2(tokens.cursor(), arena).parse();
+        long nanos = System.nanoTime() - start;
+        long arenaBytes = usedHeap() - before;
+        int nodes = arena.size();
+
+        before = usedHeap();
+        NaiveNode naive = toNaive(arena, root);
+        long naiveBytes = usedHeap() - before;
+
+        System.out.println("AST: " + tokens.size() + " tokens -> " + nodes + " nodes, " + naive.children.size() + " classes");
+        System.out.printf(Locale.ROOT, "  parse: %.2f ms%n", nanos / 1e6);
+        System.out.printf(Locale.ROOT, "  arena:       %.1f bytes/node (%d KB)%n", (double) arenaBytes / nodes, arenaBytes / 1024);
+        System.out.printf(Locale.ROOT, "  object tree: %.1f bytes/node (%d KB)%n", (double) naiveBytes / nodes, naiveBytes / 1024);
+
+        // Reuse: the second parse into the same arena allocates no new node arrays
+        long footprint = arena.footprintBytes();
+        new ZaraSemanticAnalyzer2(tokens.cursor(), arena).parse();
+        System.out.println("  reused arena: " + arena.size() + " nodes, arrays "
+                + (arena.footprintBytes() == footprint ? "kept" : "regrown"));
+    }
+
+    // One expression of 'terms' operands mixing precedence levels: a - a * a - a ...
+    static void benchmarkExpression(int terms) {
+        StringBuilder sb = new StringBuilder("class M {\n  void run() {\n    integer a = 1\n    integer x = a");
+        for (int i = 1; i < terms; i++) sb.append(i % 3 == 0 ? " * a" : " - a");
+        sb.append("\n  }\n}\n");
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(sb.toString());
+
+        long start = System.nanoTime();
+        List<TACInstruction> code = new ZaraSemanticAnalyzer2(tokens).analyze();
+        long nanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Expression: %d terms -> %d TAC instructions in %.2f ms (%.0f ns/term)%n",
+                terms, code.size(), nanos / 1e6, (double) nanos / terms);
+    }
+
+    // Trace, errors + TAC of one analysis run, as the text a user would see
+    static String analyzeCaptured(TokenBuffer tokens, ForkJoinPool pool) {
+        StringBuilder captured = new StringBuilder();
+        Diagnostics diagnostics = new Diagnostics(Diagnostics.Level.TRACE, new Diagnostics.DiagnosticListener() {
+            public void report(Diagnostics.Diagnostic diagnostic) { captured.append(diagnostic).append('\n'); }
+
+            public void trace(Diagnostics.Phase phase, String message) { captured.append(message).append('\n'); }
+        });
+        List<TACInstruction> code = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()), diagnostics).analyze(pool);
+        if (code != null) for (TACInstruction instruction : code) captured.append(instruction).append('\n');
+        return captured.toString();
+    }
+
+    // Per-method analysis on 1..8 threads: timing, and the output must not change
+    static void benchmarkAnalysis(int statements) {
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(generateClasses(statements));
+        String expected = analyzeCaptured(tokens, null);
+        System.out.println("Analysis: " + tokens.size() + " tokens, " + expected.length() + " chars of output");
+
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                String actual = analyzeCaptured(tokens, pool);
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "  %d thread(s), run %d: %.2f ms, output %s%n",
+                        threads, run, nanos / 1e6, actual.equals(expected) ? "identical" : "DIFFERENT");
+            }
+            pool.shutdown();
+        }
+    }
+
+    // Field lookups from the bottom of a 'depth'-class inheritance chain, plus a cyclic chain
+    static void benchmarkMembers(int depth) {
+        OOPSymbolTable table = new OOPSymbolTable();
+        for (int i = 0; i < depth; i++) {
+            table.defineClass("C" + i, i > 0 ? "C" + (i - 1) : null, i + 1);
+            table.defineField("f" + i, "integer", i + 1);
+        }
+        table.defineMethod("run", "void", depth);
+        String[] names = {"f0", "f" + (depth / 2), "f" + (depth - 1), "missing"};
+
+        int lookups = 1_000_000;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (table.resolve(names[i & 3]) != null) found++;
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "Members: depth %d, run %d: %.1f ns/lookup (%d found)%n",
+                    depth, run, (double) nanos / lookups, found);
+        }
+
+        // The compile path: the analyzer's ConcurrentSymbolTable resolves through the same MemberResolver
+        int chain = Math.min(depth, 16_000);
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(generateChain(chain));
+        ConcurrentSymbolTable shared = new ConcurrentSymbolTable();
+        ZaraSemanticAnalyzer2 analyzer = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()), Diagnostics.quiet(), shared);
+        long start = System.nanoTime();
+        analyzer.analyze(null);
+        System.out.printf(Locale.ROOT, "Members: analyzer, chain of %d classes: %.2f ms, %d error(s)%n",
+                chain, (System.nanoTime() - start) / 1e6, analyzer.getErrors().size());
+        String bottom = "D" + (chain - 1);
+        String[] chainNames = {"d0", "d" + (chain / 2), "d" + (chain - 1), "missing"};
+        for (int run = 0; run < 5; run++) {
+            start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (shared.resolveMember(bottom, chainNames[i & 3]) != null) found++;
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "Members: analyzer table, run %d: %.1f ns/lookup (%d found)%n",
+                    run, (double) nanos / lookups, found);
+        }
+
+        Diagnostics diagnostics = Diagnostics.quiet();
+        OOPSymbolTable cyclic = new OOPSymbolTable(diagnostics);
+        for (int i = 0; i < depth; i++) {
+            cyclic.defineClass("K" + i, "K" + ((i + 1) % depth), i + 1);
+            cyclic.defineField("k" + i, "integer", i + 1);
+        }
+        boolean ok = cyclic.checkInheritance("K0", 1);
+        System.out.println("  cycle of " + depth + " classes: " + (ok ? "not detected" : "detected")
+                + ", 'k" + (depth - 1) + "' " + (cyclic.resolve("k" + (depth - 1)) != null ? "resolved" : "missing")
+                + ", " + diagnostics.errorCount() + " error(s)");
+    }
+
+    // 'files' analyses on their own threads, all declaring into one ConcurrentSymbolTable
+    static void benchmarkShared(int statements) {
+        int files = 8;
+        TokenBuffer base = new LexicalAnalyzer().tokenizeBuffer("class Base {\n  integer shared = 1\n}\n");
+        List<TokenBuffer> sources = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            String code = generateClasses(statements / files).replaceAll("class C(\\d+) \\{", "class F" + f + "C$1 extends Base {");
+            sources.add(new LexicalAnalyzer().tokenizeBuffer(code));
+        }
+
+        for (int run = 0; run < 5; run++) {
+            ConcurrentSymbolTable table = new ConcurrentSymbolTable();
+            new ZaraSemanticAnalyzer2(base.cursor(), new ZaraAst(base.names()), Diagnostics.quiet(), table).analyze(null);
+
+            List<ZaraSemanticAnalyzer2> analyzers = new ArrayList<>();
+            for (TokenBuffer tokens : sources) {
+                analyzers.add(new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()), Diagnostics.quiet(), table));
+            }
+            long start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>();
+            for (ZaraSemanticAnalyzer2 analyzer : analyzers) {
+                Thread thread = new Thread(() -> analyzer.analyze(null));
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            int errors = 0;
+            for (ZaraSemanticAnalyzer2 analyzer : analyzers) errors += analyzer.getErrors().size();
+            System.out.printf(Locale.ROOT, "Shared table: %d files, run %d: %.2f ms, %d classes, %d error(s), inherited 'shared' %s%n",
+                    files, run, nanos / 1e6, table.classCount(), errors,
+                    table.resolveMember("F" + (files - 1) + "C0", "shared") != null ? "visible" : "MISSING");
+        }
+
+        // One long inheritance chain: every class reads its own field and the root's
+        for (int depth = 1_000; depth <= 16_000; depth *= 4) {
+            TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(generateChain(depth));
+            ConcurrentSymbolTable table = new ConcurrentSymbolTable();
+            ZaraSemanticAnalyzer2 analyzer = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()), Diagnostics.quiet(), table);
+            long start = System.nanoTime();
+            analyzer.analyze(null);
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "Shared table: chain of %d classes: %.2f ms (%.1f us/class), %d error(s), inherited 'd0' %s%n",
+                    depth, nanos / 1e6, nanos / 1e3 / depth, analyzer.getErrors().size(),
+                    table.resolveMember("D" + (depth - 1), "d0") != null ? "visible" : "MISSING");
+        }
+    }
+
+    // class D0 { integer d0 = 0 void run() { d0 = d0 + d0 } } and D1 extends D0 ... each reading d0
+    static String generateChain(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("class D").append(i);
+            if (i > 0) sb.append(" extends D").append(i - 1);
+            sb.append(" {\n  integer d").append(i).append(" = ").append(i).append('\n');
+            sb.append("  void run() {\n    d").append(i).append(" = d").append(i).append(" + d0\n  }\n}\n");
+        }
+        return sb.toString();
+    }
+
+    // One scan of the kind every optimizer round makes: which operands are read, which are constants.
+    // String form as the passes did it before CompactTAC: a regex per operand, a set of names.
+    static int scanStrings(List<TACInstruction> code) {
+        Set<String> used = new HashSet<>();
+        int constants = 0;
+        for (TACInstruction i : code) {
+            if (i.operand1 != null && used.add(i.operand1) && i.operand1.matches("-?\\d+(\\.\\d+)?")) constants++;
+            if (i.operand2 != null && used.add(i.operand2) && i.operand2.matches("-?\\d+(\\.\\d+)?")) constants++;
+        }
+        return constants;
+    }
+
+    static int scanCompact(CompactTAC code) {
+        boolean[] used = new boolean[code.operandCount()];
+        int constants = 0;
+        for (int i = 0; i < code.size(); i++) {
+            int a = code.a(i), b = code.b(i);
+            if (a != CompactTAC.NONE && !used[a]) { used[a] = true; if (code.isConstant(a)) constants++; }
+            if (b != CompactTAC.NONE && !used[b]) { used[b] = true; if (code.isConstant(b)) constants++; }
+        }
+        return constants;
+    }
+
+    // TACInstruction list vs CompactTAC: retained memory, operand scans, optimizer + backend
+    static void benchmarkTac(int statements) {
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(generateClasses(statements));
+
+        long before = usedHeap();
+        List<TACInstruction> list = new ZaraSemanticAnalyzer2(tokens).analyze();
+        long listBytes = usedHeap() - before;
+        int size = list.size();
+
+        long start = System.nanoTime();
+        CompactTAC code = CompactTAC.from(list);
+        long convertNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<TACInstruction> back = code.toInstructions();
+        long backNanos = System.nanoTime() - start;
+        boolean roundTrip = back.toString().equals(list.toString());
+        back = null;
+        list = null; // Keep only the compact form (and the operand Strings it interned)
+        long compactBytes = usedHeap() - before;
+        list = code.toInstructions();
+
+        System.out.println("TAC: " + size + " instructions, " + code.operandCount() + " distinct operands");
+        System.out.printf(Locale.ROOT, "  TACInstruction list: %.1f bytes/instruction (%d KB)%n", (double) listBytes / size, listBytes / 1024);
+        System.out.printf(Locale.ROOT, "  CompactTAC:          %.1f bytes/instruction (%d KB, %d KB of it arrays)%n",
+                (double) compactBytes / size, compactBytes / 1024, code.footprintBytes() / 1024);
+        System.out.printf(Locale.ROOT, "  convert: %.2f ms, back: %.2f ms, round trip %s%n",
+                convertNanos / 1e6, backNanos / 1e6, roundTrip ? "identical" : "DIFFERENT");
+
+        for (int run = 0; run < 3; run++) {
+            start = System.nanoTime();
+            int stringConstants = scanStrings(list);
+            long stringNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            int compactConstants = scanCompact(code);
+            long compactNanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "  operand scan, run %d: strings %.1f ns/instr, compact %.1f ns/instr (%s)%n", run,
+                    (double) stringNanos / size, (double) compactNanos / size,
+                    stringConstants == compactConstants ? "same constants" : "DIFFERENT constants");
+        }
+
+        start = System.nanoTime();
+        new ZaraOptimizer(code, Diagnostics.quiet()).optimize();
+        long optimizeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        String assembly = new ZaraBackend(code, Diagnostics.quiet()).generateAssembly();
+        long backendNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "  optimize: %.2f ms (%d left), backend: %.2f ms (%d KB of assembly)%n",
+                optimizeNanos / 1e6, code.size(), backendNanos / 1e6, assembly.length() / 1024);
+    }
+
+    // CFG + dominators + loops at 1x, 2x, 4x the size: the time per instruction should stay flat
+    static void benchmarkCfg(int statements) {
+        for (int scale = 1; scale <= 4; scale *= 2) {
+            TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(generateClasses(statements * scale));
+            CompactTAC code = CompactTAC.from(new ZaraSemanticAnalyzer2(tokens).analyze());
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                ControlFlowGraph cfg = new ControlFlowGraph(code);
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "CFG: %d instructions, run %d: %.2f ms (%.0f ns/instr), %d blocks, %d loops%n",
+                        code.size(), run, nanos / 1e6, (double) nanos / code.size(), cfg.blockCount(), cfg.loopCount());
+            }
+        }
+    }
+
+    // One straight-line method, half of it dead stores, at 1x, 2x, 4x the size: the optimiser
+    // (liveness DCE included) should take the same time per instruction
+    static void benchmarkDce(int statements) {
+        for (int scale = 1; scale <= 4; scale *= 2) {
+            StringBuilder sb = new StringBuilder("class S {\n  integer total = 0\n  void run() {\n    integer x = 0\n");
+            for (int i = 0; i < statements * scale; i++) {
+                sb.append(i % 2 == 0 ? "    x = total * " + i + "\n" : "    total = total + x\n");
+                if (i % 4 == 1) sb.append("    integer d").append(i).append(" = x + ").append(i).append('\n');
+            }
+            sb.append("  }\n}\n");
+            for (int run = 0; run < 3; run++) {
+                ZaraModule.Function function = analyzeModules(sb.toString()).get(0).functions().get(1);
+                int before = function.code().size();
+                long start = System.nanoTime();
+                new ZaraOptimizer(function, Diagnostics.quiet()).optimize();
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "DCE: %d instructions, run %d: %.2f ms (%.0f ns/instr), %d removed%n",
+                        before, run, nanos / 1e6, (double) nanos / before, before - function.code().size());
+            }
+        }
+    }
+
+    // Methods the way people write them: inputs from fields (so nothing folds away), locals
+    // declared with initialisers, assignments, a branch and a loop
+    static String generateMethods(int statements) {
+        StringBuilder sb = new StringBuilder(statements * 40);
+        int methods = Math.max(1, statements / 10);
+        for (int m = 0; m < methods; m++) {
+            if (m % 10 == 0) sb.append("class M").append(m / 10).append(" {\n  integer w = 3\n  integer h = 4\n  integer area = 0\n  integer total = 0\n");
+            sb.append("  void m").append(m).append("() {\n")
+                    .append("    integer x = w * h\n    integer y = x + ").append(m).append('\n')
+                    .append("    if (y > h) {\n      area = x * 2\n    } else {\n      area = y - h\n    }\n")
+                    .append("    integer k = 0\n    while (k < w) {\n      total = total + x * k\n      k = k + 1\n    }\n")
+                    .append("    integer z = h * w\n    print(z + y)\n  }\n");
+            if (m % 10 == 9 || m == methods - 1) sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    // TAC instructions before optimising, optimised without and with copy propagation and temp coalescing
+    static void benchmarkCopies(int statements) {
+        String[] names = { "methods", "classes" };
+        String[] corpus = { generateMethods(statements), generateClasses(statements) };
+        for (int c = 0; c < corpus.length; c++) {
+            int before = 0, without = 0, with = 0;
+            for (ZaraModule module : analyzeModules(corpus[c])) before += module.instructionCount();
+            for (ZaraModule module : analyzeModules(corpus[c])) {
+                for (ZaraModule.Function function : module.functions()) {
+                    new ZaraOptimizer(function, Diagnostics.quiet()).withoutCopyPropagation().optimize();
+                    without += function.code().size();
+                }
+            }
+            long start = System.nanoTime();
+            for (ZaraModule module : analyzeModules(corpus[c])) {
+                for (ZaraModule.Function function : module.functions()) {
+                    new ZaraOptimizer(function, Diagnostics.quiet()).optimize();
+                    with += function.code().size();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            double saved = 100.0 * (before - with) / before;
+            System.out.printf(Locale.ROOT, "Copies, %s: %d instructions, %d optimised without copy propagation (-%.1f%%), %d with (-%.1f%%, -%.1f%% more), %.2f ms%n",
+                    names[c], before, without, 100.0 * (before - without) / before, with, saved,
+                    100.0 * (without - with) / without, nanos / 1e6);
+            System.out.printf(Locale.ROOT, "  30%% reduction target: %s%n",
+                    saved >= 30 ? "met" : String.format(Locale.ROOT, "NOT met, %.1f points short", 30 - saved));
+        }
+    }
+
+    static List<ZaraModule> analyzeModules(String source) {
+        TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(source);
+        return new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()), Diagnostics.quiet()).analyzeModules(null);
+    }
+
+    // One global list vs a function per method: optimise + codegen time, on 1..8 threads, and
+    // recompiling after one method changed (everything else comes from the cache)
+    static void benchmarkModules(int statements) {
+        String source = generateClasses(statements);
+        CompactTAC whole = CompactTAC.from(ZaraModule.flatten(analyzeModules(source)));
+        long start = System.nanoTime();
+        new ZaraOptimizer(whole, Diagnostics.quiet()).optimize();
+        new ZaraBackend(whole, Diagnostics.quiet()).generateAssembly();
+        System.out.printf(Locale.ROOT, "Whole program: %d instructions, optimize + backend %.2f ms%n",
+                whole.size(), (System.nanoTime() - start) / 1e6);
+
+        String expected = null;
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ForkJoinPool pool = threads == 1 ? null : new ForkJoinPool(threads);
+            for (int run = 0; run < 3; run++) {
+                List<ZaraModule> modules = analyzeModules(source);
+                start = System.nanoTime();
+                ZaraModule.compile(modules, pool, null, Diagnostics.quiet());
+                long nanos = System.nanoTime() - start;
+                String program = ZaraBackend.generateProgram(modules);
+                if (expected == null) expected = program;
+                System.out.printf(Locale.ROOT, "  modules, %d thread(s), run %d: %.2f ms, assembly %s%n",
+                        threads, run, nanos / 1e6, program.equals(expected) ? "identical" : "DIFFERENT");
+            }
+            if (pool != null) pool.shutdown();
+        }
+
+        ZaraModule.Cache cache = new ZaraModule.Cache();
+        ZaraModule.compile(analyzeModules(source), null, cache, Diagnostics.quiet());
+        String edited = source.replaceFirst("b = a - b", "b = a + b");
+        for (int run = 0; run < 3; run++) {
+            List<ZaraModule> modules = analyzeModules(edited);
+            int hits = cache.hits(), misses = cache.misses();
+            start = System.nanoTime();
+            ZaraModule.compile(modules, null, cache, Diagnostics.quiet());
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "  one method edited, run %d: %.2f ms, %d cached, %d compiled%n",
+                    run, nanos / 1e6, cache.hits() - hits, cache.misses() - misses);
+        }
+
+        // A cache just big enough for the program: the edit evicts the stale version of the method
+        int functions = 0;
+        for (ZaraModule module : analyzeModules(source)) functions += module.functions().size();
+        ZaraModule.Cache small = new ZaraModule.Cache(functions);
+        for (int run = 0; run < 2; run++) ZaraModule.compile(analyzeModules(run == 0 ? source : edited), null, small, Diagnostics.quiet());
+        System.out.printf(Locale.ROOT, "  cache of %d for %d functions: %d entries, %d hits, %d evicted%n",
+                small.capacity(), functions, small.size(), small.hits(), small.evictions());
+    }
+
+    public static void main(String[] args) {
+        String which = args.length > 0 ? args[0] : "parser";
+        int statements = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        if (which.equals("parser")) benchmarkParser(statements);
+        else if (which.equals("ast")) benchmarkAst(statements);
+        else if (which.equals("analysis")) benchmarkAnalysis(statements);
+        else if (which.equals("members")) benchmarkMembers(statements);
+        else if (which.equals("shared")) benchmarkShared(statements);
+        else if (which.equals("tac")) benchmarkTac(statements);
+        else if (which.equals("cfg")) benchmarkCfg(statements);
+        else if (which.equals("modules")) benchmarkModules(statements);
+        else if (which.equals("dce")) benchmarkDce(statements);
+        else if (which.equals("copies")) benchmarkCopies(statements);
+        else if (which.equals("relex")) benchmarkRelex(statements);
+        else if (which.equals("lex")) benchmarkLex(statements);
+        else if (which.equals("expr")) {
+            // Run on a small thread stack: the parser and TAC pass must not recurse per operator
+            Thread thread = new Thread(null, () -> {
+                for (int terms = 1_000; terms <= statements; terms *= 10) benchmarkExpression(terms);
+            }, "expr", 256 * 1024);
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else System.out.println("Unknown benchmark: " + which);
+    }
+}
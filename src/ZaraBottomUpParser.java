@@ -1,281 +1,437 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 
 public class ZaraBottomUpParser {
-    private List<LexicalAnalyzer.Token> tokens;
-    private Stack<String> stack;
+
+    // ==========================================
+    // 1. GRAMMAR DESCRIPTION
+    // ==========================================
+    // UPPERCASE names are terminals (see terminalOf), lowercase names are non-terminals.
+    // The first rule is the start symbol. The ACTION/GOTO tables are generated from this once.
+    private static final String[] GRAMMAR = {
+            "program  : stmts",
+            "stmts    : stmts stmt | stmt",
+            "stmt     : TYPE ID ASSIGN expr",
+            "stmt     : assign",
+            "stmt     : IF LPAREN cond RPAREN block",
+            "stmt     : IF LPAREN cond RPAREN block ELSE block",
+            "stmt     : WHILE LPAREN cond RPAREN block",
+            "stmt     : DO block WHILE LPAREN cond RPAREN SEMI",
+            "stmt     : FOR LPAREN assign SEMI cond SEMI assign RPAREN block",
+            "block    : LBRACE stmts RBRACE | LBRACE RBRACE",
+            "assign   : ID ASSIGN expr",
+            "cond     : cond OR andcond | andcond",
+            "andcond  : andcond AND relation | relation",
+            "relation : expr LT expr | expr GT expr | expr LE expr | expr GE expr | expr EQ expr | expr NE expr",
+            "expr     : expr PLUS term | expr MINUS term | term",
+            "term     : term STAR factor | term SLASH factor | factor",
+            "factor   : ID | CONST | LPAREN expr RPAREN",
+    };
+
+    // Terminal numbering (EOF must be 0)
+    private static final String[] TERMINALS = {
+            "EOF", "TYPE", "ID", "CONST", "IF", "ELSE", "WHILE", "DO", "FOR",
+            "ASSIGN", "PLUS", "MINUS", "STAR", "SLASH", "LT", "GT", "LE", "GE", "EQ", "NE", "AND", "OR",
+            "LPAREN", "RPAREN", "LBRACE", "RBRACE", "SEMI", "UNKNOWN"
+    };
+    private static final int T_EOF = 0, T_TYPE = 1, T_ID = 2, T_CONST = 3, T_IF = 4, T_ELSE = 5, T_WHILE = 6,
+            T_DO = 7, T_FOR = 8, T_UNKNOWN = TERMINALS.length - 1;
+
+    // Terminal for an operator spelled (c0, c1), indexed c0 * 128 + c1 (c1 = 0 for one char)
+    private static final byte[] OPERATOR_TABLE = new byte[128 * 128];
+
+    static {
+        String[][] spellings = {
+                {"=", "ASSIGN"}, {"+", "PLUS"}, {"-", "MINUS"}, {"*", "STAR"}, {"/", "SLASH"},
+                {"<", "LT"}, {">", "GT"}, {"<=", "LE"}, {">=", "GE"}, {"==", "EQ"}, {"!=", "NE"},
+                {"&&", "AND"}, {"||", "OR"}, {"(", "LPAREN"}, {")", "RPAREN"}, {"{", "LBRACE"},
+                {"}", "RBRACE"}, {";", "SEMI"}
+        };
+        Arrays.fill(OPERATOR_TABLE, (byte) T_UNKNOWN);
+        for (String[] s : spellings) {
+            int index = s[0].charAt(0) * 128 + (s[0].length() == 2 ? s[0].charAt(1) : 0);
+            OPERATOR_TABLE[index] = (byte) Arrays.asList(TERMINALS).indexOf(s[1]);
+        }
+    }
+
+    // ==========================================
+    // 2. GENERATED TABLES
+    // ==========================================
+    // ACTION[state][terminal]: 0 = error, > 0 = shift to state (value - 1),
+    // < 0 = reduce by production (-value - 1), ACCEPT = accept.
+    private static final int ACCEPT = Integer.MAX_VALUE;
+    private static final Grammar G = new Grammar(GRAMMAR, TERMINALS);
+    private static final int[][] ACTION;
+    private static final int[][] GOTO;
+
+    static {
+        LalrTables tables = new LalrTables(G);
+        ACTION = tables.action;
+        GOTO = tables.gotoTable;
+    }
+
+    // ==========================================
+    // 3. PARSER STATE
+    // ==========================================
+    private TokenBuffer tokens;
     private int currentPosition;
+    private int[] stack = new int[64]; // State stack
+    private int top;
+    private final Diagnostics diagnostics;
+
+    public ZaraBottomUpParser(TokenBuffer tokens) {
+        this(tokens, Diagnostics.quiet());
+    }
 
-    public ZaraBottomUpParser(List<LexicalAnalyzer.Token> tokens) {
+    public ZaraBottomUpParser(TokenBuffer tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
-        this.stack = new Stack<>();
         this.currentPosition = 0;
+        this.diagnostics = diagnostics;
     }
 
-    public void parse() {
-        System.out.println("Stack\t\t\tInput\t\t\tAction");
-        System.out.println("-----\t\t\t-----\t\t\t------");
-
-        while (currentPosition < tokens.size() || stack.size() > 1) {
-            // Simple Logic: Try to Reduce first; if we can't, then Shift.
-            if (tryReduce()) {
-                continue;
-            }
-
-            // If we are out of tokens and can't reduce, we are done (or stuck)
-            if (currentPosition >= tokens.size()) {
-                break;
-            }
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return diagnostics.getErrors();
+    }
 
-            // SHIFT ACTION
-            shift();
-        }
+    public static int stateCount() {
+        return ACTION.length;
+    }
 
-        // Final check
-        if (stack.size() == 1 && stack.peek().equals("STATEMENT")) {
-            System.out.println("✅ Accepted!");
-        } else {
-            System.out.println("❌ Syntax Error: Stack not empty or root not reached.");
+    // Map the current token to its grammar terminal
+    private int terminalOf(int i) {
+        switch (tokens.type(i)) {
+            case EOF: return T_EOF;
+            case IDENTIFIER: return T_ID;
+            case CONSTANT: return T_CONST;
+            case KEYWORD:
+                LexicalAnalyzer.Keyword keyword = LexicalAnalyzer.Keyword.of(tokens.symbol(i));
+                if (keyword.isPrimitiveType()) return T_TYPE;
+                switch (keyword) {
+                    case IF: return T_IF;
+                    case ELSE: return T_ELSE;
+                    case WHILE: return T_WHILE;
+                    case DO: return T_DO;
+                    case FOR: return T_FOR;
+                    default: return T_UNKNOWN;
+                }
+            default:
+                // Operators/punctuators are 1-2 ASCII chars: index by (first, second) without building a String
+                int length = tokens.length(i);
+                if (length > 2) return T_UNKNOWN;
+                CharSequence source = tokens.source();
+                char c0 = source.charAt(tokens.start(i));
+                char c1 = length == 2 ? source.charAt(tokens.start(i) + 1) : 0;
+                if (c0 >= 128 || c1 >= 128) return T_UNKNOWN;
+                return OPERATOR_TABLE[c0 * 128 + c1];
         }
     }
 
-    private void shift() {
-        LexicalAnalyzer.Token token = tokens.get(currentPosition);
-        // 2. Push the TYPE (e.g., "KEYWORD", "IDENTIFIER") onto the stack
-        stack.push(token.type.toString()+ ":" + token.data);
+    // Shift/reduce loop over the generated tables; returns true if the input is accepted
+    public boolean parse() {
+        boolean trace = diagnostics.isTracing();
+        if (trace) {
+            diagnostics.trace(Diagnostics.Phase.PARSER, "Stack\t\t\tInput\t\t\tAction");
+            diagnostics.trace(Diagnostics.Phase.PARSER, "-----\t\t\t-----\t\t\t------");
+        }
+        top = 0;
+        stack[0] = 0;
+        int terminal = terminalOf(currentPosition);
 
-        currentPosition++;
+        while (true) {
+            int action = ACTION[stack[top]][terminal];
 
-        System.out.println("SHIFT: " + token.type + " (\"" + token.data + "\")");
-    }
+            if (action == ACCEPT) {
+                if (trace) diagnostics.trace(Diagnostics.Phase.PARSER, "✅ Accepted!");
+                return true;
+            }
 
-    // We will implement this next!
-    private boolean tryReduce() {
-        // 0. Identifier Rule: IDENTIFIER -> EXPRESSION (only if not assigning!)
-        if (stack.size() > 0 && stack.peek().startsWith("IDENTIFIER")) {
-            // Lookahead: Only reduce if the NEXT token is NOT "="
-            boolean isAssignment = false;
-            if (currentPosition < tokens.size()) {
-                if (tokens.get(currentPosition).data.equals("=")) {
-                    isAssignment = true;
+            // SHIFT ACTION
+            if (action > 0) {
+                if (trace) {
+                    diagnostics.trace(Diagnostics.Phase.PARSER, "SHIFT: " + tokens.type(currentPosition) + " (\"" + tokens.text(currentPosition) + "\")");
                 }
+                push(action - 1);
+                currentPosition++;
+                terminal = terminalOf(currentPosition);
+                continue;
             }
 
-            if (!isAssignment) {
-                System.out.println("REDUCE: IDENTIFIER -> EXPRESSION");
-                stack.pop();
-                stack.push("EXPRESSION");
-                return true;
+            // REDUCE ACTION
+            if (action < 0) {
+                int production = -action - 1;
+                top -= G.rhs[production].length;
+                push(GOTO[stack[top]][G.lhs[production] - G.terminalCount]);
+                if (trace) diagnostics.trace(Diagnostics.Phase.PARSER, "REDUCE: " + G.describe(production));
+                continue;
             }
-        }
-        if (stack.size() > 0 && stack.peek().startsWith("CONSTANT")) {
-            System.out.println("REDUCE: CONSTANT -> EXPRESSION");
-            stack.pop();
-            stack.push("EXPRESSION");
-            return true;
-        }
 
+            diagnostics.error(Diagnostics.Phase.PARSER, tokens.line(currentPosition), "unexpected "
+                    + tokens.type(currentPosition) + " (\"" + tokens.text(currentPosition) + "\")");
+            return false;
+        }
+    }
 
-        if (stack.size() >= 3) {
-            String t1 = stack.get(stack.size() - 3);
-            String t2 = stack.get(stack.size() - 2);
-            String t3 = stack.peek();
+    private void push(int state) {
+        if (++top == stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[top] = state;
+    }
 
-            // Check if it is a boolean operator (starts with OPERATOR and contains <, >, or =)
-            if (t1.equals("EXPRESSION") &&
-                    t2.startsWith("OPERATOR") && (t2.contains("<") || t2.contains(">") || t2.contains("==")) &&
-                    t3.equals("EXPRESSION")) {
+    // ==========================================
+    // 4. GRAMMAR + LALR(1) TABLE GENERATION
+    // ==========================================
+    // Symbols are ints: terminals first (0 = EOF), then non-terminals. Production 0 is the
+    // augmented rule "start' : <first lhs>".
+    static final class Grammar {
+        final int terminalCount;
+        final List<String> symbolNames = new ArrayList<>();
+        int[] lhs;
+        int[][] rhs;
+
+        Grammar(String[] rules, String[] terminals) {
+            terminalCount = terminals.length;
+            symbolNames.addAll(Arrays.asList(terminals));
+            symbolNames.add("start'");
+
+            // Non-terminals in order of first definition
+            for (String rule : rules) {
+                String name = rule.substring(0, rule.indexOf(':')).trim();
+                if (!symbolNames.contains(name)) symbolNames.add(name);
+            }
 
-                System.out.println("REDUCE: " + t1 + " " + t2 + " " + t3 + " -> CONDITION");
-                stack.pop(); stack.pop(); stack.pop();
-                stack.push("CONDITION");
-                return true;
+            List<int[]> productions = new ArrayList<>();
+            productions.add(new int[]{terminalCount, terminalCount + 1}); // start' -> first rule's lhs
+            for (String rule : rules) {
+                int left = symbol(rule.substring(0, rule.indexOf(':')).trim());
+                for (String alternative : rule.substring(rule.indexOf(':') + 1).split("\\|")) {
+                    String[] parts = alternative.trim().split("\\s+");
+                    int[] production = new int[parts.length + 1];
+                    production[0] = left;
+                    for (int i = 0; i < parts.length; i++) production[i + 1] = symbol(parts[i]);
+                    productions.add(production);
+                }
             }
-        }
-        if (stack.size() >= 3) {
-            String t8 = stack.get(stack.size() - 3);
-            String t9 = stack.get(stack.size() - 2); // Now looks like "OPERATOR:+"
-            String t10 = stack.peek();
-
-            // Check for EXPRESSION and valid MATH operators
-            if (t8.equals("EXPRESSION") &&
-                    t9.startsWith("OPERATOR") &&
-                    (t9.contains("+") || t9.contains("-") || t9.contains("*") || t9.contains("/")) &&
-                    t10.equals("EXPRESSION")) {
-
-                System.out.println("REDUCE: " + t8 + " " + t9 + " " + t10 + " -> EXPRESSION");
-                stack.pop(); stack.pop(); stack.pop();
-                stack.push("EXPRESSION");
-                return true;
+
+            lhs = new int[productions.size()];
+            rhs = new int[productions.size()][];
+            for (int p = 0; p < productions.size(); p++) {
+                lhs[p] = productions.get(p)[0];
+                rhs[p] = Arrays.copyOfRange(productions.get(p), 1, productions.get(p).length);
             }
         }
 
-        if (stack.size() >= 4) {
-            String t4 = stack.get(stack.size() - 4); // KEYWORD
-            String t5 = stack.get(stack.size() - 3); // IDENTIFIER
-            String t6 = stack.get(stack.size() - 2); // OPERATOR
-            String t7= stack.peek();                // CONSTANT
-
-            if (t4.startsWith("KEYWORD") && t5.startsWith("IDENTIFIER") &&
-                    t6.startsWith("OPERATOR") && t7.equals("EXPRESSION")) {
-
-                // If the NEXT token is an operator (like +), do NOT reduce yet!
-                if (currentPosition < tokens.size()) {
-                    LexicalAnalyzer.Token nextToken = tokens.get(currentPosition);
-                    if (nextToken.type == LexicalAnalyzer.TokenType.OPERATOR) {
-                        return false;
-                    }
-                }
+        private int symbol(String name) {
+            int index = symbolNames.indexOf(name);
+            if (index < 0) throw new IllegalStateException("Unknown grammar symbol: " + name);
+            return index;
+        }
 
-                System.out.println("REDUCE: " + t4 + " " + t5 + " " + t6 + " " + t7 + " -> STATEMENT");
+        int symbolCount() {
+            return symbolNames.size();
+        }
 
+        boolean isTerminal(int symbol) {
+            return symbol < terminalCount;
+        }
 
-                stack.pop();
-                stack.pop();
-                stack.pop();
-                stack.pop();
+        String describe(int production) {
+            StringBuilder sb = new StringBuilder(symbolNames.get(lhs[production])).append(" ->");
+            for (int s : rhs[production]) sb.append(' ').append(symbolNames.get(s));
+            return sb.toString();
+        }
+    }
 
-                // 2. Push "STATEMENT" onto the stack
-                stack.push("STATEMENT");
+    // LALR(1) by lookahead merging: LR(0) cores are built once, and LR(1) lookaheads are pushed
+    // through goto edges into the state with the same core until nothing changes.
+    static final class LalrTables {
+        final int[][] action;
+        final int[][] gotoTable;
+
+        private final Grammar g;
+        private final BitSet[] first;
+        private final boolean[] nullable;
+
+        // Items are (production, dot) pairs packed as production * 64 + dot
+        private final List<int[]> kernels = new ArrayList<>();
+        private final List<BitSet[]> lookaheads = new ArrayList<>();
+        private final Map<String, Integer> stateByKernel = new HashMap<>();
+        private final List<int[]> transitions = new ArrayList<>(); // per state: goto by symbol, -1 = none
+
+        LalrTables(Grammar grammar) {
+            this.g = grammar;
+            int symbols = g.symbolCount();
+            nullable = new boolean[symbols];
+            first = new BitSet[symbols];
+            computeFirstSets();
+
+            BitSet eof = new BitSet();
+            eof.set(0);
+            addState(new int[]{0}, new BitSet[]{eof});
+
+            // Propagate until no lookahead set grows
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int s = 0; s < kernels.size(); s++) {
+                    if (expand(s)) changed = true;
+                }
+            }
 
+            int states = kernels.size();
+            action = new int[states][g.terminalCount];
+            gotoTable = new int[states][symbols - g.terminalCount];
+            for (int s = 0; s < states; s++) fillTables(s);
+        }
 
-                return true;
+        private void computeFirstSets() {
+            for (int s = 0; s < g.symbolCount(); s++) {
+                first[s] = new BitSet();
+                if (g.isTerminal(s)) first[s].set(s);
             }
-        }
-        // Assignment Rule: IDENTIFIER = EXPRESSION -> STATEMENT
-        if (stack.size() >= 3) {
-            String t11 = stack.get(stack.size() - 3); // IDENTIFIER
-            String t12 = stack.get(stack.size() - 2); // OPERATOR:=
-            String t13 = stack.peek();                // EXPRESSION
-
-            if (t11.startsWith("IDENTIFIER") && t12.contains("=") && t13.equals("EXPRESSION")) {
-                // Lookahead: Don't reduce if math is coming (x = 10 + 5)
-                if (currentPosition < tokens.size()) {
-                    if (tokens.get(currentPosition).type == LexicalAnalyzer.TokenType.OPERATOR) {
-                        return false;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int p = 0; p < g.lhs.length; p++) {
+                    BitSet target = first[g.lhs[p]];
+                    int before = target.cardinality();
+                    boolean allNullable = true;
+                    for (int s : g.rhs[p]) {
+                        target.or(first[s]);
+                        if (!nullable[s]) {
+                            allNullable = false;
+                            break;
+                        }
+                    }
+                    if (allNullable && !nullable[g.lhs[p]]) {
+                        nullable[g.lhs[p]] = true;
+                        changed = true;
                     }
+                    if (target.cardinality() != before) changed = true;
                 }
-
-                System.out.println("REDUCE: " + t11 + " " + t12 + " " + t13 + " -> STATEMENT");
-                stack.pop(); stack.pop(); stack.pop();
-                stack.push("STATEMENT");
-                return true;
             }
         }
 
-        if (stack.size() >= 7) {
-            // We need to check indices from [size-7] to [size-1]
-            String kwd  = stack.get(stack.size() - 7); // KEYWORD:if
-            String p1   = stack.get(stack.size() - 6); // (
-            String cond = stack.get(stack.size() - 5); // CONDITION
-            String p2   = stack.get(stack.size() - 4); // )
-            String p3   = stack.get(stack.size() - 3); // {
-            String stmt = stack.get(stack.size() - 2); // STATEMENT
-            String p4   = stack.peek();                // }
-
-            if (kwd.contains("if") && p1.contains("(") && cond.equals("CONDITION") &&
-                    p2.contains(")") && p3.contains("{") && stmt.equals("STATEMENT") &&
-                    p4.contains("}")) {
-
-                System.out.println("REDUCE: if ( CONDITION ) { STATEMENT } -> STATEMENT");
-
-                // Pop all 7 items!
-                for (int i = 0; i < 7; i++) { stack.pop(); }
+        private int addState(int[] kernel, BitSet[] looks) {
+            String key = Arrays.toString(kernel);
+            Integer existing = stateByKernel.get(key);
+            if (existing != null) return existing;
+            int id = kernels.size();
+            kernels.add(kernel);
+            lookaheads.add(looks);
+            stateByKernel.put(key, id);
+            int[] edges = new int[g.symbolCount()];
+            Arrays.fill(edges, -1);
+            transitions.add(edges);
+            return id;
+        }
 
-                stack.push("STATEMENT");
-                return true;
+        // LR(1) closure of a state's kernel: item -> lookahead set
+        private Map<Integer, BitSet> closure(int state) {
+            Map<Integer, BitSet> items = new HashMap<>();
+            List<Integer> work = new ArrayList<>();
+            int[] kernel = kernels.get(state);
+            for (int k = 0; k < kernel.length; k++) {
+                items.put(kernel[k], (BitSet) lookaheads.get(state)[k].clone());
+                work.add(kernel[k]);
             }
-        }
-        // 5. Sequence Rule: STATEMENT STATEMENT -> STATEMENT
-        if (stack.size() >= 2) {
-            String t1 = stack.get(stack.size() - 2);
-            String t2 = stack.peek();
-
-            if (t1.equals("STATEMENT") && t2.equals("STATEMENT")) {
-                System.out.println("REDUCE: STATEMENT STATEMENT -> STATEMENT");
-                stack.pop();
-                stack.pop();
-                stack.push("STATEMENT");
-                return true;
+            while (!work.isEmpty()) {
+                int item = work.remove(work.size() - 1);
+                int p = item / 64;
+                int dot = item % 64;
+                if (dot == g.rhs[p].length || g.isTerminal(g.rhs[p][dot])) continue;
+
+                // Lookahead for B in "A -> a . B c, L" is FIRST(c L)
+                BitSet look = new BitSet();
+                boolean restNullable = true;
+                for (int i = dot + 1; i < g.rhs[p].length; i++) {
+                    look.or(first[g.rhs[p][i]]);
+                    if (!nullable[g.rhs[p][i]]) {
+                        restNullable = false;
+                        break;
+                    }
+                }
+                if (restNullable) look.or(items.get(item));
+
+                int b = g.rhs[p][dot];
+                for (int q = 0; q < g.lhs.length; q++) {
+                    if (g.lhs[q] != b) continue;
+                    int newItem = q * 64;
+                    BitSet existing = items.get(newItem);
+                    if (existing == null) {
+                        items.put(newItem, (BitSet) look.clone());
+                        work.add(newItem);
+                    } else {
+                        int before = existing.cardinality();
+                        existing.or(look);
+                        if (existing.cardinality() != before) work.add(newItem);
+                    }
+                }
             }
+            return items;
         }
-        // 6. FOR Loop Rule
-        // Pattern: for ( STATEMENT ; CONDITION ; STATEMENT ) { STATEMENT }
-        if (stack.size() >= 11) {
-            // Grab all 11 items (Reverse index from -11 to -1)
-            String kwd   = stack.get(stack.size() - 11); // KEYWORD:for
-            String p1    = stack.get(stack.size() - 10); // (
-            String init  = stack.get(stack.size() - 9);  // STATEMENT (init)
-            String semi1 = stack.get(stack.size() - 8);  // ;
-            String cond  = stack.get(stack.size() - 7);  // CONDITION
-            String semi2 = stack.get(stack.size() - 6);  // ;
-            String updat = stack.get(stack.size() - 5);  // STATEMENT (update)
-            String p2    = stack.get(stack.size() - 4);  // )
-            String p3    = stack.get(stack.size() - 3);  // {
-            String body  = stack.get(stack.size() - 2);  // STATEMENT (body)
-            String p4    = stack.peek();                 // }
-
-            if (kwd.contains("for") && p1.contains("(") && init.equals("STATEMENT") &&
-                    semi1.contains(";") && cond.equals("CONDITION") && semi2.contains(";") &&
-                    updat.equals("STATEMENT") && p2.contains(")") && p3.contains("{") &&
-                    body.equals("STATEMENT") && p4.contains("}")) {
-
-                System.out.println("REDUCE: for ( ... ) { ... } -> STATEMENT");
-
-                // Pop all 11 items
-                for (int i = 0; i < 11; i++) { stack.pop(); }
-
-                stack.push("STATEMENT");
-                return true;
+
+        // Build/refresh the goto targets of one state; true if any target's lookaheads grew
+        private boolean expand(int state) {
+            Map<Integer, BitSet> items = closure(state);
+            Map<Integer, Map<Integer, BitSet>> bySymbol = new HashMap<>();
+            for (Map.Entry<Integer, BitSet> e : items.entrySet()) {
+                int p = e.getKey() / 64;
+                int dot = e.getKey() % 64;
+                if (dot == g.rhs[p].length) continue;
+                bySymbol.computeIfAbsent(g.rhs[p][dot], x -> new HashMap<>()).put(e.getKey() + 1, e.getValue());
             }
-        }
-        // 7. WHILE Loop Rule
-        // Pattern: while ( CONDITION ) { STATEMENT }
-        if (stack.size() >= 7) {
-            String kwd  = stack.get(stack.size() - 7); // KEYWORD:while
-            String p1   = stack.get(stack.size() - 6); // (
-            String cond = stack.get(stack.size() - 5); // CONDITION
-            String p2   = stack.get(stack.size() - 4); // )
-            String p3   = stack.get(stack.size() - 3); // {
-            String stmt = stack.get(stack.size() - 2); // STATEMENT
-            String p4   = stack.peek();                // }
-
-            if (kwd.contains("while") && p1.contains("(") && cond.equals("CONDITION") &&
-                    p2.contains(")") && p3.contains("{") && stmt.equals("STATEMENT") &&
-                    p4.contains("}")) {
-
-                System.out.println("REDUCE: while ( CONDITION ) { STATEMENT } -> STATEMENT");
-                for (int i = 0; i < 7; i++) { stack.pop(); } // Pop 7 items
-                stack.push("STATEMENT");
-                return true;
+
+            boolean changed = false;
+            for (Map.Entry<Integer, Map<Integer, BitSet>> e : bySymbol.entrySet()) {
+                int[] kernel = e.getValue().keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                BitSet[] looks = new BitSet[kernel.length];
+                for (int k = 0; k < kernel.length; k++) looks[k] = (BitSet) e.getValue().get(kernel[k]).clone();
+
+                int before = kernels.size();
+                int target = addState(kernel, looks);
+                if (target == before) {
+                    changed = true;
+                } else {
+                    BitSet[] existing = lookaheads.get(target);
+                    for (int k = 0; k < kernel.length; k++) {
+                        int size = existing[k].cardinality();
+                        existing[k].or(looks[k]);
+                        if (existing[k].cardinality() != size) changed = true;
+                    }
+                }
+                transitions.get(state)[e.getKey()] = target;
             }
+            return changed;
         }
-        // 8. DO-WHILE Loop Rule
-        // Pattern: do { STATEMENT } while ( CONDITION ) ;
-        if (stack.size() >= 9) {
-            String kwdDo = stack.get(stack.size() - 9); // KEYWORD:do
-            String p1    = stack.get(stack.size() - 8); // {
-            String stmt  = stack.get(stack.size() - 7); // STATEMENT
-            String p2    = stack.get(stack.size() - 6); // }
-            String kwdWh = stack.get(stack.size() - 5); // KEYWORD:while
-            String p3    = stack.get(stack.size() - 4); // (
-            String cond  = stack.get(stack.size() - 3); // CONDITION
-            String p4    = stack.get(stack.size() - 2); // )
-            String semi  = stack.peek();                // ;
-
-            if (kwdDo.contains("do") && p1.contains("{") && stmt.equals("STATEMENT") &&
-                    p2.contains("}") && kwdWh.contains("while") && p3.contains("(") &&
-                    cond.equals("CONDITION") && p4.contains(")") && semi.contains(";")) {
-
-                System.out.println("REDUCE: do { STATEMENT } while ( CONDITION ) ; -> STATEMENT");
-                for (int i = 0; i < 9; i++) { stack.pop(); } // Pop 9 items
-                stack.push("STATEMENT");
-                return true;
+
+        private void fillTables(int state) {
+            int[] edges = transitions.get(state);
+            for (int symbol = 0; symbol < edges.length; symbol++) {
+                if (edges[symbol] < 0) continue;
+                if (g.isTerminal(symbol)) setAction(state, symbol, edges[symbol] + 1);
+                else gotoTable[state][symbol - g.terminalCount] = edges[symbol];
+            }
+            for (Map.Entry<Integer, BitSet> e : closure(state).entrySet()) {
+                int p = e.getKey() / 64;
+                if (e.getKey() % 64 != g.rhs[p].length) continue;
+                BitSet look = e.getValue();
+                for (int t = look.nextSetBit(0); t >= 0; t = look.nextSetBit(t + 1)) {
+                    setAction(state, t, p == 0 ? ACCEPT : -(p + 1));
+                }
             }
         }
 
-
-        return false; // No pattern matched
+        private void setAction(int state, int terminal, int value) {
+            int old = action[state][terminal];
+            if (old != 0 && old != value) {
+                throw new IllegalStateException("Grammar is not LALR(1): conflict in state " + state
+                        + " on " + g.symbolNames.get(terminal));
+            }
+            action[state][terminal] = value;
+        }
     }
 
     public static void main(String[] args) {
@@ -298,16 +454,16 @@ public class ZaraBottomUpParser {
 
         System.out.println("--- 1. Lexical Analysis ---");
         LexicalAnalyzer lexer = new LexicalAnalyzer();
-        List<LexicalAnalyzer.Token> tokens = lexer.tokenize(code);
+        TokenBuffer tokens = lexer.tokenizeBuffer(code);
 
         // Optional: Print tokens to verify
-        for (LexicalAnalyzer.Token t : tokens) {
-            System.out.println(t);
+        for (int i = 0; i < tokens.size(); i++) {
+            System.out.println(tokens.toToken(i));
         }
 
-        System.out.println("\n--- 2. Bottom-Up Parsing ---");
+        System.out.println("\n--- 2. Bottom-Up Parsing (LALR(1), " + stateCount() + " states) ---");
         // 2. Initialize the Parser with the tokens
-        ZaraBottomUpParser parser = new ZaraBottomUpParser(tokens);
+        ZaraBottomUpParser parser = new ZaraBottomUpParser(tokens, Diagnostics.console(Diagnostics.Level.TRACE));
 
         // 3. Start Parsing
         parser.parse();
@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The IR of one class: a Function per method body, plus a constructor holding the field
+// initialisers. Every function owns its CompactTAC, frame and temp/label namespace, so functions
+// are optimised and compiled one at a time -- in parallel, and only when their code changed.
+// Fields are the only storage functions share; in assembly they are data symbols "Class.field".
+public class ZaraModule {
+    public final String name;
+    public final String parent; // null: no superclass
+    private final List<String> fields = new ArrayList<>(); // Declared here; inherited ones are the parent's
+    private final List<Function> functions = new ArrayList<>();
+
+    public ZaraModule(String name, String parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public List<String> fields() { return Collections.unmodifiableList(fields); }
+
+    public List<Function> functions() { return Collections.unmodifiableList(functions); }
+
+    void addField(String field) { fields.add(field); }
+
+    void addFunction(Function function) {
+        // The constructor runs before the methods, so it goes first
+        if (function.kind == Function.Kind.CONSTRUCTOR) functions.add(0, function);
+        else functions.add(function);
+    }
+
+    public static class Function {
+        public enum Kind { CONSTRUCTOR, METHOD }
+
+        public final String name; // "Dog.bark" ("Dog.bark.2" for a repeated name); constructors are "Dog.<init>"
+        public final Kind kind;
+        public final List<String> params; // Empty until the grammar has parameters
+        private final String[] locals; // Name of the local in each frame slot; temps come after them
+        private final int frameSize; // Slots for the locals and temps
+        private final Map<String, String> fieldSymbols; // Field name -> "DeclaringClass.field"
+        private CompactTAC code; // Optimised in place by compile()
+        private String assembly; // null until compiled
+
+        public Function(String name, Kind kind, List<String> params, String[] locals, int frameSize,
+                        Map<String, String> fieldSymbols, CompactTAC code) {
+            this.name = name;
+            this.kind = kind;
+            this.params = params;
+            this.locals = locals;
+            this.frameSize = frameSize;
+            this.fieldSymbols = fieldSymbols;
+            this.code = code;
+        }
+
+        public CompactTAC code() { return code; }
+
+        public int frameSize() { return frameSize; }
+
+        public int localCount() { return locals.length; }
+
+        public String local(int slot) { return locals[slot]; }
+
+        // Data symbol of a field this function reads or writes, or null if 'name' is not a field
+        public String fieldSymbol(String name) { return fieldSymbols.get(name); }
+
+        // Assembly symbol: the name, with "<init>" spelled ".init" (no method can have an empty name)
+        public String label() { return kind == Kind.CONSTRUCTOR ? name.replace("<init>", ".init") : name; }
+
+        public boolean isCompiled() { return assembly != null; }
+
+        public String assembly() { return assembly; }
+
+        // Everything the optimiser and backend read: a function with the same key compiles to the
+        // same code. The text alone is not enough: a shadowing local has its outer one's name but
+        // its own frame slot, so every operand's slot is part of the key too.
+        String cacheKey() {
+            StringBuilder sb = new StringBuilder(code.size() * 24).append(name).append(' ').append(fieldSymbols)
+                    .append(' ').append(frameSize).append(' ').append(Arrays.toString(locals)).append('\n');
+            for (int i = 0; i < code.size(); i++) {
+                sb.append(code.toString(i));
+                appendSlot(sb, code.result(i));
+                appendSlot(sb, code.a(i));
+                appendSlot(sb, code.b(i));
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        private void appendSlot(StringBuilder sb, int operand) {
+            sb.append(' ').append(operand == CompactTAC.NONE ? CompactTAC.NONE : code.slot(operand));
+        }
+    }
+
+    // Optimised code and assembly of recently compiled functions, keyed by their unoptimised
+    // code. The caller owns it (e.g. one per build or editor session) and bounds it: beyond
+    // 'capacity' functions the least recently used one is dropped. Safe to share between threads
+    // and between analyses: entries are never changed, and two threads compiling the same
+    // function at once just store equal results.
+    public static final class Cache {
+        public static final int DEFAULT_CAPACITY = 4096;
+
+        private static final class Entry {
+            final CompactTAC code;
+            final String assembly;
+
+            Entry(CompactTAC code, String assembly) {
+                this.code = code;
+                this.assembly = assembly;
+            }
+        }
+
+        private final int capacity;
+        private final Map<String, Entry> entries; // Access order: least recently used first
+        private final AtomicInteger hits = new AtomicInteger();
+        private final AtomicInteger misses = new AtomicInteger();
+        private final AtomicInteger evictions = new AtomicInteger();
+
+        public Cache() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        public Cache(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+            this.capacity = capacity;
+            this.entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() <= Cache.this.capacity) return false;
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            });
+        }
+
+        public int capacity() { return capacity; }
+
+        public int size() { return entries.size(); }
+
+        public int evictions() { return evictions.get(); }
+
+        public int hits() { return hits.get(); }
+
+        public int misses() { return misses.get(); }
+
+        public void clear() { entries.clear(); }
+    }
+
+    // Optimises and generates assembly for every function not compiled yet, on 'pool' (null: one
+    // after another on this thread). Each function traces into its own buffer and the buffers are
+    // replayed in module order, so the output is the same for any pool. 'cache' may be null.
+    public static void compile(List<ZaraModule> modules, ForkJoinPool pool, Cache cache, Diagnostics diagnostics) {
+        List<Function> pending = new ArrayList<>();
+        for (ZaraModule module : modules) {
+            for (Function function : module.functions) {
+                if (!function.isCompiled()) pending.add(function);
+            }
+        }
+
+        Diagnostics[] traces = new Diagnostics[pending.size()];
+        for (int k = 0; k < traces.length; k++) traces[k] = diagnostics.buffer();
+
+        if (pool == null || pending.size() < 2) {
+            for (int k = 0; k < traces.length; k++) compile(pending.get(k), cache, traces[k]);
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int k = 0; k < traces.length; k++) {
+                Function function = pending.get(k);
+                Diagnostics trace = traces[k];
+                tasks.add(pool.submit(() -> compile(function, cache, trace)));
+            }
+            for (ForkJoinTask<?> task : tasks) task.join();
+        }
+
+        for (Diagnostics trace : traces) diagnostics.replay(trace);
+    }
+
+    private static void compile(Function function, Cache cache, Diagnostics diagnostics) {
+        String key = cache != null ? function.cacheKey() : null;
+        Cache.Entry cached = key != null ? cache.entries.get(key) : null;
+        if (cached != null) {
+            cache.hits.incrementAndGet();
+            diagnostics.trace(Diagnostics.Phase.OPTIMIZER, "\n   [Cache] " + function.name + ": unchanged, reusing its code");
+            function.code = cached.code; // Never changed after it was cached
+            function.assembly = cached.assembly;
+            return;
+        }
+
+        diagnostics.trace(Diagnostics.Phase.OPTIMIZER, "\n--- " + function.name + " ---");
+        new ZaraOptimizer(function, diagnostics).optimize();
+        function.assembly = new ZaraBackend(function, diagnostics).generateFunction();
+        if (cache != null) {
+            cache.misses.incrementAndGet();
+            cache.entries.put(key, new Cache.Entry(function.code, function.assembly));
+        }
+    }
+
+    public static void printCode(List<ZaraModule> modules) {
+        System.out.println("\n--- Generated Three-Address Code ---");
+        for (ZaraModule module : modules) {
+            for (Function function : module.functions) {
+                System.out.println("function " + function.name + "():");
+                for (int i = 0; i < function.code.size(); i++) System.out.println("    " + function.code.toString(i));
+            }
+        }
+    }
+
+    // The whole program as one list, functions in module order (frame slots moved apart as the
+    // single-list generator did), e.g. for tools that still read a TACInstruction list
+    public static List<TACInstruction> flatten(List<ZaraModule> modules) {
+        TACInstruction.CodeGenerator program = new TACInstruction.CodeGenerator();
+        for (ZaraModule module : modules) {
+            for (Function function : module.functions) {
+                TACInstruction.CodeGenerator body = new TACInstruction.CodeGenerator(function.name + ".");
+                body.instructions.addAll(function.code.toInstructions());
+                body.slotCount = function.frameSize;
+                program.append(body);
+            }
+        }
+        return program.getInstructions();
+    }
+
+    public int instructionCount() {
+        int count = 0;
+        for (Function function : functions) count += function.code.size();
+        return count;
+    }
+}
@@ -1,146 +1,862 @@
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+// Works on CompactTAC: operands are interned IDs with a kind, so "is it a constant?" and
+// "is it used?" are array lookups instead of regex matches and list scans over Strings.
 public class ZaraOptimizer {
-    private List<TACInstruction> instructions;
+    private final CompactTAC code;
+    private final List<TACInstruction> instructions; // List given to the adapter constructor, or null
+    private final Diagnostics diagnostics;
+    // One function of a module: fields are read by the other functions too, so an assignment to
+    // one is never dead. (Whole-program code may drop assignments to names nothing reads.)
+    private final boolean fieldsEscape;
+    private boolean coalesce = true;
 
+    // Adapter for callers that still hold a TACInstruction list: the list is replaced by the
+    // optimized code when optimize() finishes
     public ZaraOptimizer(List<TACInstruction> instructions) {
+        this(instructions, Diagnostics.quiet());
+    }
+
+    public ZaraOptimizer(List<TACInstruction> instructions, Diagnostics diagnostics) {
+        this.code = CompactTAC.from(instructions);
         this.instructions = instructions;
+        this.diagnostics = diagnostics;
+        this.fieldsEscape = false;
+    }
+
+    public ZaraOptimizer(CompactTAC code, Diagnostics diagnostics) {
+        this.code = code;
+        this.instructions = null;
+        this.diagnostics = diagnostics;
+        this.fieldsEscape = false;
+    }
+
+    // Optimises one function of a module, in place
+    public ZaraOptimizer(ZaraModule.Function function, Diagnostics diagnostics) {
+        this.code = function.code();
+        this.instructions = null;
+        this.diagnostics = diagnostics;
+        this.fieldsEscape = true;
+    }
+
+    // Off: keep the copies the frontend emits (for comparing instruction counts)
+    public ZaraOptimizer withoutCopyPropagation() {
+        coalesce = false;
+        return this;
+    }
+
+    private void trace(String message) {
+        diagnostics.trace(Diagnostics.Phase.OPTIMIZER, message);
     }
 
-    public void optimize() {
-        System.out.println("\n--- ⚡ Running Optimizations ⚡ ---");
-        boolean changed;
-        // Loop passes 1 & 2 until code stabilizes
-        do {
-            changed = false;
-            if (constantFolding()) changed = true;
-            if (deadCodeElimination()) changed = true;
-        } while (changed);
+    public CompactTAC optimize() {
+        trace("\n--- ⚡ Running Optimizations ⚡ ---");
+        // Passes 1-2 run once each over SSA def-use chains, then the code leaves SSA form
+        SsaForm ssa = new SsaForm(code);
+        conditionalConstantPropagation(ssa);
+        valueNumbering(ssa);
+        if (coalesce) propagateCopies(ssa);
+        ssa.destroy();
+        foldConstantBranches();
+        deadCodeElimination();
 
         loopInvariantCodeMotion();
+        if (coalesce) coalesceTemps();
+
+        if (instructions != null) {
+            instructions.clear();
+            instructions.addAll(code.toInstructions());
+        }
+        return code;
+    }
+
+    // Pass 1: Sparse Conditional Constant Propagation (Wegman-Zadeck)
+    // Every version starts UNKNOWN and can only go down: to one typed constant, then to
+    // OVERDEFINED. Blocks become executable only along edges a branch can take, so the far side
+    // of a constant condition, and the phi arguments coming from it, never count. Two worklists:
+    // CFG edges that just became executable, and SSA sites (~phi or instruction) whose operands
+    // went down. Integers fold in 64-bit two's complement, the way addq/imulq compute them.
+    private static final class Constant {
+        static final byte UNKNOWN = 0, INTEGER = 1, FLOAT = 2, BOOLEAN = 3, OVERDEFINED = 4;
+        static final Constant TOP = new Constant(UNKNOWN, 0), BOTTOM = new Constant(OVERDEFINED, 0);
+
+        final byte kind;
+        final long bits; // INTEGER: the value; BOOLEAN: 0 or 1; FLOAT: Double.doubleToLongBits
+
+        Constant(byte kind, long bits) {
+            this.kind = kind;
+            this.bits = bits;
+        }
+
+        static Constant integer(long value) { return new Constant(INTEGER, value); }
+
+        static Constant bool(boolean value) { return new Constant(BOOLEAN, value ? 1 : 0); }
+
+        static Constant floating(double value) {
+            // Infinity and NaN have no literal; leave those to run time
+            return Double.isFinite(value) ? new Constant(FLOAT, Double.doubleToLongBits(value)) : BOTTOM;
+        }
+
+        boolean isConstant() { return kind != UNKNOWN && kind != OVERDEFINED; }
+
+        double asDouble() { return kind == FLOAT ? Double.longBitsToDouble(bits) : bits; }
+
+        boolean isTrue() { return kind == FLOAT ? asDouble() != 0 : bits != 0; }
+
+        Constant meet(Constant other) {
+            if (kind == UNKNOWN) return other;
+            if (other.kind == UNKNOWN) return this;
+            return kind == other.kind && bits == other.bits ? this : BOTTOM;
+        }
+
+        boolean sameAs(Constant other) { return kind == other.kind && bits == other.bits; }
     }
 
-    // Pass 1: Constant Folding
-    private boolean constantFolding() {
-        boolean changed = false;
-        for (TACInstruction instr : instructions) {
-            if (instr.operand2 != null && isNumeric(instr.operand1) && isNumeric(instr.operand2)) {
-                try {
-                    double v1 = Double.parseDouble(instr.operand1);
-                    double v2 = Double.parseDouble(instr.operand2);
-                    double result = 0;
-
-                    switch (instr.operator) {
-                        case "+": result = v1 + v2; break;
-                        case "-": result = v1 - v2; break;
-                        case "*": result = v1 * v2; break;
-                        case "/": if(v2!=0) result = v1/v2; else return false; break;
-                        default: return false;
+    private Constant[] lattice; // Per version operand; null: not looked at yet (UNKNOWN)
+
+    private void conditionalConstantPropagation(SsaForm ssa) {
+        ControlFlowGraph cfg = ssa.cfg;
+        int blocks = cfg.blockCount();
+        if (blocks == 0) return;
+        lattice = new Constant[code.operandCount()];
+        int[] labelAt = code.labelPositions();
+
+        // Edge x -> y is edgeBase[y] + (index of x among y's predecessors)
+        int[] edgeBase = new int[blocks + 1];
+        for (int b = 0; b < blocks; b++) edgeBase[b + 1] = edgeBase[b] + cfg.predecessorCount(b);
+        boolean[] edgeExecutable = new boolean[edgeBase[blocks]];
+        boolean[] blockExecutable = new boolean[blocks];
+
+        int[] blockWork = new int[blocks];
+        int blockTop = 0;
+        int[] siteWork = new int[code.size() + ssa.phiCount()];
+        boolean[] siteQueued = new boolean[siteWork.length];
+        int siteTop = 0;
+
+        blockExecutable[0] = true;
+        blockWork[blockTop++] = 0;
+        while (blockTop > 0 || siteTop > 0) {
+            int b;
+            int from = CompactTAC.NONE, to = CompactTAC.NONE; // Branch of the block just visited
+            if (blockTop > 0) {
+                // A block reached for the first time: all of its phis and instructions
+                b = blockWork[--blockTop];
+                for (int p = ssa.firstPhi(b); p < ssa.endPhi(b); p++) siteTop = visitPhi(ssa, p, edgeBase, edgeExecutable, siteWork, siteQueued, siteTop);
+                for (int i = cfg.start(b); i < cfg.end(b); i++) siteTop = visitInstruction(ssa, i, siteWork, siteQueued, siteTop);
+            } else {
+                int site = siteWork[--siteTop];
+                siteQueued[site >= 0 ? site : code.size() + ~site] = false;
+                b = site >= 0 ? cfg.blockOf(site) : ssa.phiBlock(~site);
+                if (!blockExecutable[b]) continue; // Looked at when (if ever) its block is reached
+                if (site < 0) {
+                    siteTop = visitPhi(ssa, ~site, edgeBase, edgeExecutable, siteWork, siteQueued, siteTop);
+                    continue;
+                }
+                siteTop = visitInstruction(ssa, site, siteWork, siteQueued, siteTop);
+                if (site != cfg.end(b) - 1) continue; // Only a block's last instruction can branch
+            }
+
+            // Successors this block can reach, given what is known about its branch
+            int last = cfg.end(b) - 1;
+            if (code.opcode(last) == CompactTAC.Opcode.IF_FALSE) {
+                Constant condition = valueOf(ssa, code.a(last));
+                int target = labelAt[code.b(last)] >= 0 ? cfg.blockOf(labelAt[code.b(last)]) : CompactTAC.NONE;
+                int next = b + 1 < blocks ? b + 1 : CompactTAC.NONE;
+                if (condition.kind == Constant.UNKNOWN) continue;
+                if (condition.kind == Constant.OVERDEFINED) {
+                    from = next;
+                    to = target;
+                } else {
+                    from = condition.isTrue() ? next : target;
+                }
+            }
+
+            for (int k = 0; k < cfg.successorCount(b); k++) {
+                int y = cfg.successor(b, k);
+                if (code.opcode(last) == CompactTAC.Opcode.IF_FALSE && y != from && y != to) continue;
+                int edge = edgeBase[y] + cfg.predecessorIndex(y, b);
+                if (edgeExecutable[edge]) continue;
+                edgeExecutable[edge] = true;
+                if (!blockExecutable[y]) {
+                    blockExecutable[y] = true;
+                    blockWork[blockTop++] = y;
+                } else {
+                    // A new way into a block already visited: only its phis can change
+                    for (int p = ssa.firstPhi(y); p < ssa.endPhi(y); p++) siteTop = queue(~p, siteWork, siteQueued, siteTop);
+                }
+            }
+        }
+
+        // Rewrite: constant versions become their literal in every use
+        for (int b = 0; b < blocks; b++) {
+            if (!blockExecutable[b]) continue;
+            for (int p = ssa.firstPhi(b); p < ssa.endPhi(b); p++) {
+                if (ssa.isPhiRemoved(p) || !valueOf(ssa, ssa.phiResult(p)).isConstant()) continue;
+                propagate(ssa, ssa.phiResult(p));
+                ssa.removePhi(p);
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (ssa.isRemoved(i) || !code.opcode(i).hasResult() || !ssa.isVersion(code.result(i))) continue;
+                Constant value = valueOf(ssa, code.result(i));
+                if (!value.isConstant()) continue;
+                int literal = literal(value);
+                if (code.opcode(i) != CompactTAC.Opcode.COPY || code.a(i) != literal) {
+                    if (diagnostics.isTracing()) trace("   [Constant Folding] " + code.toString(i) + "  ->  " + code.text(code.result(i)) + " = " + code.text(literal));
+                    ssa.rewrite(i, CompactTAC.Opcode.COPY, literal, CompactTAC.NONE);
+                }
+                propagate(ssa, code.result(i));
+            }
+        }
+        lattice = null;
+    }
+
+    private void propagate(SsaForm ssa, int version) {
+        if (ssa.useCount(version) == 0) return;
+        int literal = literal(valueOf(ssa, version));
+        if (diagnostics.isTracing()) trace("   [Constant Propagation] " + code.text(version) + " = " + code.text(literal));
+        ssa.replaceAllUses(version, literal);
+    }
+
+    private int visitPhi(SsaForm ssa, int p, int[] edgeBase, boolean[] edgeExecutable, int[] work, boolean[] queued, int top) {
+        if (ssa.isPhiRemoved(p)) return top;
+        int y = ssa.phiBlock(p);
+        Constant value = Constant.TOP;
+        for (int k = 0; k < ssa.phiArgCount(p); k++) {
+            // The last argument of an entry-block phi comes from outside: always executable
+            if (k < ssa.cfg.predecessorCount(y) && !edgeExecutable[edgeBase[y] + k]) continue;
+            value = value.meet(valueOf(ssa, ssa.phiArg(p, k)));
+        }
+        return lower(ssa, ssa.phiResult(p), value, work, queued, top);
+    }
+
+    private int visitInstruction(SsaForm ssa, int i, int[] work, boolean[] queued, int top) {
+        CompactTAC.Opcode op = code.opcode(i);
+        if (ssa.isRemoved(i) || !op.hasResult() || !ssa.isVersion(code.result(i))) return top;
+        Constant value;
+        if (op == CompactTAC.Opcode.COPY) {
+            value = valueOf(ssa, code.a(i));
+        } else if (op.isBinary()) {
+            Constant a = valueOf(ssa, code.a(i)), b = valueOf(ssa, code.b(i));
+            if (a.kind == Constant.OVERDEFINED || b.kind == Constant.OVERDEFINED) value = Constant.BOTTOM;
+            else if (a.kind == Constant.UNKNOWN || b.kind == Constant.UNKNOWN) value = Constant.TOP;
+            else value = fold(op, a, b);
+        } else {
+            value = Constant.BOTTOM; // new
+        }
+        return lower(ssa, code.result(i), value, work, queued, top);
+    }
+
+    // Moves 'version' down to 'value' (never back up) and queues its users if it changed
+    private int lower(SsaForm ssa, int version, Constant value, int[] work, boolean[] queued, int top) {
+        Constant current = valueOf(ssa, version);
+        if (current.kind != Constant.UNKNOWN) value = current.meet(value);
+        if (value.sameAs(current)) return top;
+        lattice[version] = value;
+        for (int k = 0; k < ssa.useCount(version); k++) top = queue(ssa.use(version, k), work, queued, top);
+        return top;
+    }
+
+    private int queue(int site, int[] work, boolean[] queued, int top) {
+        int index = site >= 0 ? site : code.size() + ~site;
+        if (!queued[index]) {
+            queued[index] = true;
+            work[top++] = site;
+        }
+        return top;
+    }
+
+    private Constant valueOf(SsaForm ssa, int operand) {
+        if (operand == CompactTAC.NONE) return Constant.BOTTOM;
+        switch (code.kind(operand)) {
+            case INT: return Constant.integer(code.intValue(operand));
+            case FLOAT: return Constant.floating(code.numericValue(operand));
+            default:
+                // Fields, and a variable's value on entry, may be anything
+                if (!ssa.isVersion(operand)) return Constant.BOTTOM;
+                return operand < lattice.length && lattice[operand] != null ? lattice[operand] : Constant.TOP;
+        }
+    }
+
+    private int literal(Constant value) {
+        return value.kind == Constant.FLOAT ? code.floatConstant(value.asDouble()) : code.intConstant(value.bits);
+    }
+
+    // 'a op b' on two constants. Integers (and booleans, which the backend keeps as 0 / 1) use
+    // long arithmetic; a float operand makes it double arithmetic. Comparisons and && || give
+    // booleans. Division by zero, and the one quotient idivq traps on, stay for run time.
+    private static Constant fold(CompactTAC.Opcode op, Constant a, Constant b) {
+        if (op == CompactTAC.Opcode.AND) return Constant.bool(a.isTrue() && b.isTrue());
+        if (op == CompactTAC.Opcode.OR) return Constant.bool(a.isTrue() || b.isTrue());
+
+        if (a.kind == Constant.FLOAT || b.kind == Constant.FLOAT) {
+            double u = a.asDouble(), v = b.asDouble();
+            switch (op) {
+                case ADD: return Constant.floating(u + v);
+                case SUB: return Constant.floating(u - v);
+                case MUL: return Constant.floating(u * v);
+                case DIV: return v == 0 ? Constant.BOTTOM : Constant.floating(u / v);
+                case LT: return Constant.bool(u < v);
+                case GT: return Constant.bool(u > v);
+                case LE: return Constant.bool(u <= v);
+                case GE: return Constant.bool(u >= v);
+                case EQ: return Constant.bool(u == v);
+                case NE: return Constant.bool(u != v);
+                default: return Constant.BOTTOM;
+            }
+        }
+
+        long u = a.bits, v = b.bits;
+        switch (op) {
+            case ADD: return Constant.integer(u + v);
+            case SUB: return Constant.integer(u - v);
+            case MUL: return Constant.integer(u * v);
+            case DIV: return v == 0 || (u == Long.MIN_VALUE && v == -1) ? Constant.BOTTOM : Constant.integer(u / v);
+            case LT: return Constant.bool(u < v);
+            case GT: return Constant.bool(u > v);
+            case LE: return Constant.bool(u <= v);
+            case GE: return Constant.bool(u >= v);
+            case EQ: return Constant.bool(u == v);
+            case NE: return Constant.bool(u != v);
+            default: return Constant.BOTTOM;
+        }
+    }
+
+    // Second half of pass 1, once the code has left SSA form: a branch on a constant becomes a
+    // goto or disappears, and the blocks no path reaches any more are deleted
+    private void foldConstantBranches() {
+        boolean[] removed = new boolean[code.size()];
+        boolean folded = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) != CompactTAC.Opcode.IF_FALSE || !code.isConstant(code.a(i))) continue;
+            boolean jumps = code.numericValue(code.a(i)) == 0;
+            if (diagnostics.isTracing()) {
+                trace("   [Constant Branch] " + code.toString(i) + "  ->  " + (jumps ? "goto " + code.text(code.b(i)) : "falls through"));
+            }
+            if (jumps) code.set(i, CompactTAC.Opcode.GOTO, CompactTAC.NONE, code.b(i), CompactTAC.NONE);
+            else removed[i] = true;
+            folded = true;
+        }
+        if (!folded) return;
+        code.removeAll(removed);
+
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        removed = new boolean[code.size()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (cfg.isReachable(b)) continue;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (diagnostics.isTracing()) trace("   [Unreachable] Removed: " + code.toString(i));
+                removed[i] = true;
+            }
+        }
+        // What is left of a folded if may be a goto to the label right after it
+        for (int i = 0; i < code.size(); i++) {
+            if (removed[i] || code.opcode(i) != CompactTAC.Opcode.GOTO) continue;
+            for (int j = i + 1; j < code.size() && (removed[j] || code.opcode(j) == CompactTAC.Opcode.LABEL); j++) {
+                if (!removed[j] && code.a(j) == code.a(i)) removed[i] = true;
+            }
+        }
+        code.removeAll(removed);
+    }
+
+    // Pass 2: Global Value Numbering
+    // Walks the dominator tree with one hash table of "op, number, number -> result". A block
+    // sees the entries of the blocks that dominate it, and its own entries are undone when the
+    // walk leaves it. A computation already in the table becomes a copy of the earlier result.
+    // Value numbers: a constant or an SSA value on entry is its own number, a copy has its
+    // source's, a phi whose arguments all agree has theirs. A field can change under us, so it
+    // gets a fresh number at the start of every block and after every store to it or call:
+    // expressions over fields are reused only within a block (local value numbering). The
+    // exception is a field the function never stores to and has no call to change: it holds
+    // one value throughout, and is its own number like a constant.
+    private void valueNumbering(SsaForm ssa) {
+        ControlFlowGraph cfg = ssa.cfg;
+        if (cfg.blockCount() == 0) return;
+        int operands = code.operandCount();
+        boolean[] readOnly = new boolean[operands];
+        boolean calls = false;
+        for (int op = 0; op < operands; op++) readOnly[op] = isField(op);
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) == CompactTAC.Opcode.CALL) calls = true;
+            if (code.opcode(i).hasResult()) readOnly[code.result(i)] = false;
+        }
+        if (calls) readOnly = new boolean[operands];
+        int[] number = new int[operands]; // SSA value -> its number; field -> its current number
+        Arrays.fill(number, CompactTAC.NONE);
+        int[] fieldVisit = new int[operands]; // Block visit in which the field's number was given
+        int fresh = operands; // Numbers past the operand IDs stand for field contents
+        int visit = 0;
+
+        Map<Long, Long> table = new HashMap<>(); // Key -> (leader << 32) | its number when entered
+        List<Long> undoKeys = new ArrayList<>();
+        List<Long> undoValues = new ArrayList<>(); // Previous entry, or null
+        int[] undoMark = new int[cfg.blockCount()];
+
+        // Explicit stack over the dominator tree (deep trees must not overflow the Java stack)
+        int[] stack = new int[cfg.blockCount()];
+        int[] nextChild = new int[cfg.blockCount()];
+        int top = 0;
+        stack[0] = 0;
+        boolean entering = true;
+        while (top >= 0) {
+            int b = stack[top];
+            if (entering) {
+                undoMark[b] = undoKeys.size();
+                visit++;
+                for (int p = ssa.firstPhi(b); p < ssa.endPhi(b); p++) {
+                    if (ssa.isPhiRemoved(p)) continue;
+                    int agreed = valueNumber(ssa, readOnly, ssa.phiArg(p, 0), number, fieldVisit, visit);
+                    for (int k = 1; k < ssa.phiArgCount(p) && agreed != CompactTAC.NONE; k++) {
+                        if (valueNumber(ssa, readOnly, ssa.phiArg(p, k), number, fieldVisit, visit) != agreed) agreed = CompactTAC.NONE;
+                    }
+                    // An argument not numbered yet comes along a back edge: no agreement
+                    number[ssa.phiResult(p)] = agreed != CompactTAC.NONE ? agreed : ssa.phiResult(p);
+                }
+
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (ssa.isRemoved(i)) continue;
+                    CompactTAC.Opcode op = code.opcode(i);
+                    if (op == CompactTAC.Opcode.CALL) visit++; // May store to any field
+                    if (!op.hasResult()) continue;
+                    int r = code.result(i);
+                    boolean ssaResult = ssa.isRenamed(r);
+
+                    int value;
+                    if (op == CompactTAC.Opcode.COPY) {
+                        value = valueNumber(ssa, readOnly, code.a(i), number, fieldVisit, visit);
+                    } else if (op.isBinary()) {
+                        int a = valueNumber(ssa, readOnly, code.a(i), number, fieldVisit, visit);
+                        int c = valueNumber(ssa, readOnly, code.b(i), number, fieldVisit, visit);
+                        if (isCommutative(op) && a > c) {
+                            int swap = a;
+                            a = c;
+                            c = swap;
+                        }
+                        long key = ((long) op.ordinal() << 58) | ((long) a << 29) | c;
+                        // A field last set in another block (or before a call) has no number to match
+                        Long entry = a == CompactTAC.NONE || c == CompactTAC.NONE ? null : table.get(key);
+                        int leader = entry == null ? CompactTAC.NONE : (int) (entry >>> 32);
+                        if (leader != CompactTAC.NONE && leader != r
+                                && valueNumber(ssa, readOnly, leader, number, fieldVisit, visit) == (int) (long) entry) {
+                            if (diagnostics.isTracing()) {
+                                trace("   [Value Numbering] " + code.toString(i) + "  ->  " + code.text(r) + " = " + code.text(leader));
+                            }
+                            ssa.rewrite(i, CompactTAC.Opcode.COPY, leader, CompactTAC.NONE);
+                            value = (int) (long) entry;
+                        } else {
+                            value = ssaResult ? r : fresh++;
+                            if (a != CompactTAC.NONE && c != CompactTAC.NONE) {
+                                undoKeys.add(key);
+                                undoValues.add(entry);
+                                table.put(key, ((long) r << 32) | (value & 0xFFFFFFFFL));
+                            }
+                        }
+                    } else {
+                        value = CompactTAC.NONE; // new: a new object every time
                     }
+                    if (value == CompactTAC.NONE) value = ssaResult ? r : fresh++;
 
-                    // Convert to integer string if whole number
-                    String valStr = (result % 1 == 0) ? String.valueOf((int)result) : String.valueOf(result);
-                    System.out.println("   [Constant Folding] " + instr + "  ->  " + instr.result + " = " + valStr);
+                    number[r] = value;
+                    if (!ssaResult) fieldVisit[r] = visit;
+                }
+            }
 
-                    instr.operator = "";
-                    instr.operand1 = valStr;
-                    instr.operand2 = null;
-                    changed = true;
-                } catch (Exception e) {}
+            if (nextChild[b] < cfg.dominatorChildCount(b)) {
+                stack[++top] = cfg.dominatorChild(b, nextChild[b]++);
+                entering = true;
+                continue;
             }
+            for (int k = undoKeys.size() - 1; k >= undoMark[b]; k--) {
+                Long previous = undoValues.remove(k);
+                long key = undoKeys.remove(k);
+                if (previous == null) table.remove(key);
+                else table.put(key, previous);
+            }
+            top--;
+            entering = false;
+        }
+    }
+
+    // Number of what 'operand' holds at this point of the walk
+    private int valueNumber(SsaForm ssa, boolean[] readOnly, int operand, int[] number, int[] fieldVisit, int visit) {
+        if (operand == CompactTAC.NONE || !code.isStorage(operand) || readOnly[operand]) return operand; // Constants (and names)
+        if (ssa.isRenamed(operand)) return number[operand] != CompactTAC.NONE ? number[operand] : operand;
+        if (fieldVisit[operand] != visit) return CompactTAC.NONE; // Set before this block or call: unknown
+        return number[operand];
+    }
+
+    // Second half of pass 2: "x = y" where both are SSA values (or y is a constant) is the same
+    // value under two names, so every use of x reads y and the copy goes. That removes the
+    // "x = tN" of each assignment and declaration, and the copies value numbering left behind.
+    // Fields are left alone: a copy into one is a store, and a copy out of one is a load.
+    private void propagateCopies(SsaForm ssa) {
+        for (int i = 0; i < code.size(); i++) {
+            if (ssa.isRemoved(i) || code.opcode(i) != CompactTAC.Opcode.COPY) continue;
+            int x = code.result(i), y = code.a(i);
+            if (!ssa.isVersion(x) || !(code.isConstant(y) || ssa.isRenamed(y))) continue;
+            if (diagnostics.isTracing()) trace("   [Copy Propagation] " + code.toString(i));
+            ssa.replaceAllUses(x, y);
+            ssa.removeInstruction(i);
         }
-        return changed;
     }
 
-    // --- Pass 2: Dead Code Elimination (Aggressive) ---
-    private boolean deadCodeElimination() {
-        // 1. Collect all variables that are USED
-        List<String> usedVars = new ArrayList<>();
-        for (TACInstruction instr : instructions) {
-            if (instr.operand1 != null) usedVars.add(instr.operand1);
-            if (instr.operand2 != null) usedVars.add(instr.operand2);
-            if (instr.result != null && (instr.result.equals("if_false") || instr.result.equals("param") || instr.result.equals("call"))) {
-                usedVars.add(instr.operand1);
+    private static boolean isCommutative(CompactTAC.Opcode op) {
+        switch (op) {
+            case ADD: case MUL: case EQ: case NE: case AND: case OR: return true;
+            default: return false;
+        }
+    }
+
+    // --- Pass 3: Dead Code Elimination (Liveness) ---
+    // Backward dataflow over the CFG with a BitSet per block. A value-producing instruction only
+    // makes its operands live if its own result is live ("strong" liveness), so one fixpoint
+    // finds whole dead chains, even across blocks and around loops (x = x + 1 that nothing else
+    // reads). Jumps, labels, param/call and print produce no value and always stay; a call
+    // reads every field (the callee may), and a param is a use like any other.
+    // Bits are dense IDs of the names that can be live across a block boundary: the ones read
+    // before being written in some block, or fields. Block-local temps need none.
+    private void deadCodeElimination() {
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        int blocks = cfg.blockCount();
+
+        int[] bit = new int[code.operandCount()];
+        Arrays.fill(bit, -1);
+        int[] writtenIn = new int[code.operandCount()]; // Block + 1 that last wrote the name in the scan
+        int bits = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int a = code.a(i), c = code.b(i);
+                if (code.isStorage(a) && writtenIn[a] != b + 1 && bit[a] < 0) bit[a] = bits++;
+                if (code.isStorage(c) && writtenIn[c] != b + 1 && bit[c] < 0) bit[c] = bits++;
+                if (code.opcode(i).hasResult()) writtenIn[code.result(i)] = b + 1;
             }
         }
+        BitSet exit = new BitSet(), fields = new BitSet(); // A call may read any field
+        for (int op = 0; op < code.operandCount(); op++) {
+            if (!isField(op)) continue;
+            if (bit[op] < 0) bit[op] = bits++;
+            fields.set(bit[op]);
+            if (liveAtExit(op)) exit.set(bit[op]);
+        }
 
-        boolean changed = false;
-        Iterator<TACInstruction> iter = instructions.iterator();
-        while (iter.hasNext()) {
-            TACInstruction instr = iter.next();
+        BitSet[] liveIn = new BitSet[blocks], liveOut = new BitSet[blocks];
+        int[] localLive = new int[code.operandCount()]; // Stamp: live in the block walk with that number
+        int walks = 0;
 
-            // CHECK: Is the result variable EVER used?
-            // (We removed the 'startsWith("t")' check so it cleans EVERYTHING)
-            if (instr.result != null && !usedVars.contains(instr.result)) {
+        // Backward problem: pop blocks in postorder first; unreachable ones still get a set
+        int[] work = new int[blocks];
+        boolean[] queued = new boolean[blocks];
+        int top = 0;
+        for (int b = 0; b < blocks; b++) {
+            liveIn[b] = new BitSet();
+            if (!cfg.isReachable(b)) work[top++] = b;
+        }
+        for (int b : cfg.reversePostorder()) work[top++] = b;
+        Arrays.fill(queued, true);
 
-                // SAFETY: Don't delete keywords/instructions that don't produce values
-                boolean isKeyword = instr.result.equals("goto") ||
-                        instr.result.equals("if_false") ||
-                        instr.result.equals("call") ||
-                        instr.result.equals("param") ||
-                        instr.operator.equals(":"); // Don't delete Labels!
+        while (top > 0) {
+            int b = work[--top];
+            queued[b] = false;
+            BitSet live = new BitSet();
+            if (cfg.successorCount(b) == 0) live.or(exit);
+            for (int k = 0; k < cfg.successorCount(b); k++) live.or(liveIn[cfg.successor(b, k)]);
+            liveOut[b] = (BitSet) live.clone();
+            walkBackward(cfg, b, live, bit, fields, localLive, ++walks, null);
+            if (live.equals(liveIn[b])) continue;
+            liveIn[b] = live;
+            for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                int p = cfg.predecessor(b, k);
+                if (!queued[p]) {
+                    queued[p] = true;
+                    work[top++] = p;
+                }
+            }
+        }
 
-                if (!isKeyword) {
-                    System.out.println("   [Dead Code] Removed unused: " + instr);
-                    iter.remove();
-                    changed = true;
+        boolean[] dead = new boolean[code.size()];
+        for (int b = 0; b < blocks; b++) walkBackward(cfg, b, liveOut[b], bit, fields, localLive, ++walks, dead);
+        boolean any = false;
+        for (int i = 0; i < dead.length; i++) {
+            if (!dead[i]) continue;
+            any = true;
+            if (diagnostics.isTracing()) trace("   [Dead Code] Removed unused: " + code.toString(i));
+        }
+        if (any) code.removeAll(dead);
+    }
+
+    // Transfer function of one block: turns the live-out set 'live' into the live-in set.
+    // Names without a bit are tracked by stamping 'localLive' with this walk's number.
+    // With 'dead' given, also marks the instructions whose result is not live.
+    private void walkBackward(ControlFlowGraph cfg, int b, BitSet live, int[] bit, BitSet fields, int[] localLive, int walk, boolean[] dead) {
+        for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+            if (code.opcode(i) == CompactTAC.Opcode.CALL) live.or(fields);
+            if (code.opcode(i).hasResult()) {
+                int r = code.result(i);
+                boolean used = bit[r] >= 0 ? live.get(bit[r]) : localLive[r] == walk;
+                if (!used) {
+                    if (dead != null) dead[i] = true;
+                    continue;
                 }
+                if (bit[r] >= 0) live.clear(bit[r]);
+                else localLive[r] = 0;
             }
+            markLive(code.a(i), live, bit, localLive, walk);
+            markLive(code.b(i), live, bit, localLive, walk);
         }
-        return changed;
     }
 
-    // --- Pass 3: Loop Invariant Code Motion (Improved) ---
+    private void markLive(int operand, BitSet live, int[] bit, int[] localLive, int walk) {
+        if (!code.isStorage(operand)) return;
+        if (bit[operand] >= 0) live.set(bit[operand]);
+        else localLive[operand] = walk;
+    }
+
+    // Fields of a module function are read by the other functions after it returns
+    private boolean liveAtExit(int operand) {
+        return fieldsEscape && code.kind(operand) == CompactTAC.Kind.VARIABLE && code.slot(operand) < 0;
+    }
+
+    // --- Pass 4: Loop Invariant Code Motion ---
+    // Natural loops (from the CFG's back edges), innermost first: what a level hoists into its
+    // preheaders is inside the enclosing loop, so the next level out may hoist it again.
     private void loopInvariantCodeMotion() {
-        for (int i = 0; i < instructions.size(); i++) {
-            TACInstruction instr = instructions.get(i);
-
-            // 1. Detect end of a loop
-            if (instr.result != null && instr.result.equals("goto")) {
-                String labelName = instr.operand1;
-                int labelIndex = findLabelIndex(labelName);
-
-                if (labelIndex != -1 && labelIndex < i) {
-                    // 2. Scan the loop body
-                    for (int k = labelIndex + 1; k < i; k++) {
-                        TACInstruction candidate = instructions.get(k);
-
-                        // CHECK 1: Is it a Math Operation? (t1 = 5 * 20)
-                        boolean isMath = candidate.operand2 != null &&
-                                isNumeric(candidate.operand1) &&
-                                isNumeric(candidate.operand2);
-
-                        // CHECK 2: Is it a Simple Constant Assignment? (t1 = 100)
-                        // (This catches cases where Constant Folding already ran!)
-                        boolean isConst = candidate.operand2 == null &&
-                                candidate.operator.equals("") &&
-                                isNumeric(candidate.operand1);
-
-                        if (isMath || isConst) {
-                            System.out.println("   [Code Motion] Moving out of loop: " + candidate);
-                            instructions.remove(k);
-                            instructions.add(labelIndex, candidate); // Move BEFORE label
-
-                            // Adjust indices
-                            labelIndex++;
-                            i++;
-                        }
+        int depth = 0;
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        for (int loop = 0; loop < cfg.loopCount(); loop++) depth = Math.max(depth, cfg.loopDepth(loop));
+        for (; depth > 0; depth--) {
+            if (cfg == null) cfg = new ControlFlowGraph(code);
+            if (hoistLoops(cfg, depth)) cfg = null; // Code moved: the next level needs a new graph
+        }
+    }
+
+    // One level of loops. An instruction moves to its loop's preheader when:
+    //  - it computes a value (math or a copy; never new, a call or a print),
+    //  - each operand is a constant, is not assigned in the loop (fields: nor is there a call),
+    //    or is the result of an instruction already hoisted,
+    //  - its result is assigned only there in the loop, and that assignment dominates every
+    //    read of it in the loop (so no read sees the value from before the loop or from an
+    //    earlier iteration), and is not a field if the loop has a call (the callee reads fields),
+    //  - and running it once before the loop is safe: it dominates every exit of the loop, so it
+    //    ran anyway before the loop was left; or it cannot trap and nothing after the loop reads it
+    //    (a field always may be: other functions read it).
+    // The preheader is the code between the header's label and what precedes it; when jumps from
+    // outside the loop also enter at the label, it gets a label of its own and they go there.
+    private boolean hoistLoops(ControlFlowGraph cfg, int depth) {
+        int n = code.size(), operands = code.operandCount();
+        int[] usesTotal = new int[operands];
+        for (int i = 0; i < n; i++) {
+            if (code.isStorage(code.a(i))) usesTotal[code.a(i)]++;
+            if (code.isStorage(code.b(i))) usesTotal[code.b(i)]++;
+        }
+        int[] rpoIndex = new int[cfg.blockCount()];
+        int[] rpo = cfg.reversePostorder();
+        for (int k = 0; k < rpo.length; k++) rpoIndex[rpo[k]] = k;
+
+        int[] loopStamp = new int[cfg.blockCount()]; // Loop + 1 while that loop is looked at
+        int[] definitions = new int[operands], definer = new int[operands], usesInLoop = new int[operands];
+        int[] firstUse = new int[operands], nextUse = new int[2 * n]; // Use sites 2i (a) and 2i+1 (b)
+        Arrays.fill(firstUse, -1);
+        boolean[] hoisted = new boolean[n];
+        List<Integer> moved = new ArrayList<>(); // Grouped by loop, each group in dominance order
+        // By header label instruction: its group in 'moved' (empty: none), and the preheader's own label or NONE
+        int[] groupStart = new int[n], groupEnd = new int[n], preLabel = new int[n];
+        Arrays.fill(preLabel, CompactTAC.NONE);
+
+        for (int loop = 0; loop < cfg.loopCount(); loop++) {
+            if (cfg.loopDepth(loop) != depth) continue;
+            int header = cfg.loopHeader(loop);
+            int label = cfg.start(header);
+            if (code.opcode(label) != CompactTAC.Opcode.LABEL) continue;
+            int[] blocks = cfg.loopBlocks(loop).clone();
+            for (int b : blocks) loopStamp[b] = loop + 1;
+
+            boolean calls = false;
+            for (int b : blocks) {
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (code.opcode(i) == CompactTAC.Opcode.CALL) calls = true;
+                    if (code.opcode(i).hasResult()) {
+                        definitions[code.result(i)]++;
+                        definer[code.result(i)] = i;
+                    }
+                    for (int site = 2 * i; site <= 2 * i + 1; site++) {
+                        int operand = site % 2 == 0 ? code.a(i) : code.b(i);
+                        if (!code.isStorage(operand)) continue;
+                        usesInLoop[operand]++;
+                        nextUse[site] = firstUse[operand];
+                        firstUse[operand] = site;
+                    }
+                }
+            }
+            int exits = 0;
+            int[] exiting = new int[blocks.length];
+            for (int b : blocks) {
+                for (int k = 0; k < cfg.successorCount(b); k++) {
+                    if (loopStamp[cfg.successor(b, k)] != loop + 1) {
+                        exiting[exits++] = b;
+                        break;
+                    }
+                }
+            }
+
+            // Dominators come first in reverse postorder, so a hoisted definition is always seen
+            // before the instructions that read it
+            Integer[] order = new Integer[blocks.length];
+            for (int k = 0; k < blocks.length; k++) order[k] = blocks[k];
+            Arrays.sort(order, (x, y) -> rpoIndex[x] - rpoIndex[y]);
+            int group = moved.size();
+            for (int b : order) {
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    CompactTAC.Opcode op = code.opcode(i);
+                    if (!op.isBinary() && op != CompactTAC.Opcode.COPY) continue;
+                    int x = code.result(i);
+                    if (definitions[x] != 1) continue;
+                    if (calls && isField(x)) continue; // The callee may read the field before the store
+                    if (!isInvariant(code.a(i), definitions, definer, hoisted, calls)) continue;
+                    if (code.b(i) != CompactTAC.NONE && !isInvariant(code.b(i), definitions, definer, hoisted, calls)) continue;
+
+                    boolean dominatesUses = true;
+                    for (int site = firstUse[x]; site >= 0 && dominatesUses; site = nextUse[site]) {
+                        int use = site / 2, ub = cfg.blockOf(use);
+                        dominatesUses = ub == b ? i < use : cfg.dominates(b, ub);
+                    }
+                    if (!dominatesUses) continue;
+
+                    boolean mayTrap = op == CompactTAC.Opcode.DIV
+                            && !(code.isConstant(code.b(i)) && code.numericValue(code.b(i)) != 0 && code.numericValue(code.b(i)) != -1);
+                    boolean dominatesExits = exits > 0;
+                    for (int k = 0; k < exits && dominatesExits; k++) dominatesExits = cfg.dominates(b, exiting[k]);
+                    // Fields outlive the function: always read after the loop
+                    boolean readAfter = isField(x) || usesTotal[x] > usesInLoop[x];
+                    if (!dominatesExits && (mayTrap || readAfter)) continue;
+
+                    if (diagnostics.isTracing()) trace("   [Code Motion] Moving out of loop: " + code.toString(i));
+                    hoisted[i] = true;
+                    moved.add(i);
+                }
+            }
+
+            groupStart[label] = group;
+            groupEnd[label] = moved.size();
+            if (moved.size() > group) {
+                // Jumps into the loop from outside it must run the preheader too
+                for (int k = 0; k < cfg.predecessorCount(header); k++) {
+                    int p = cfg.predecessor(header, k);
+                    if (loopStamp[p] == loop + 1) continue;
+                    int jump = cfg.end(p) - 1;
+                    CompactTAC.Opcode op = code.opcode(jump);
+                    int target = op == CompactTAC.Opcode.GOTO ? code.a(jump) : op == CompactTAC.Opcode.IF_FALSE ? code.b(jump) : CompactTAC.NONE;
+                    if (target != code.a(label)) continue;
+                    if (preLabel[label] == CompactTAC.NONE) {
+                        preLabel[label] = code.intern(CompactTAC.Kind.LABEL, code.text(code.a(label)) + ".pre", CompactTAC.NONE);
+                        if (diagnostics.isTracing()) trace("   [Code Motion] Preheader " + code.text(preLabel[label]) + " for loop at " + code.text(code.a(label)));
                     }
+                    if (op == CompactTAC.Opcode.GOTO) code.set(jump, op, CompactTAC.NONE, preLabel[label], CompactTAC.NONE);
+                    else code.set(jump, op, CompactTAC.NONE, code.a(jump), preLabel[label]);
                 }
             }
+
+            for (int b : blocks) {
+                loopStamp[b] = 0;
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (code.opcode(i).hasResult()) definitions[code.result(i)] = 0;
+                    if (code.isStorage(code.a(i))) {
+                        usesInLoop[code.a(i)] = 0;
+                        firstUse[code.a(i)] = -1;
+                    }
+                    if (code.isStorage(code.b(i))) {
+                        usesInLoop[code.b(i)] = 0;
+                        firstUse[code.b(i)] = -1;
+                    }
+                }
+            }
+        }
+        if (moved.isEmpty()) return false;
+
+        // Rebuild: each group (after its preheader label, if it has one) goes right before the
+        // label of its loop header
+        int[][] out = new int[n + 2 * cfg.loopCount()][];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (hoisted[i]) continue;
+            if (code.opcode(i) == CompactTAC.Opcode.LABEL && groupEnd[i] > groupStart[i]) {
+                if (preLabel[i] != CompactTAC.NONE) {
+                    out[count++] = new int[] { CompactTAC.Opcode.LABEL.ordinal(), CompactTAC.NONE, preLabel[i], CompactTAC.NONE };
+                }
+                for (int m = groupStart[i]; m < groupEnd[i]; m++) {
+                    int k = moved.get(m);
+                    out[count++] = new int[] { code.opcode(k).ordinal(), code.result(k), code.a(k), code.b(k) };
+                }
+            }
+            out[count++] = new int[] { code.opcode(i).ordinal(), code.result(i), code.a(i), code.b(i) };
+        }
+        CompactTAC.Opcode[] opcodes = CompactTAC.Opcode.values();
+        code.clear();
+        for (int k = 0; k < count; k++) code.add(opcodes[out[k][0]], out[k][1], out[k][2], out[k][3]);
+        return true;
+    }
+
+    private boolean isInvariant(int operand, int[] definitions, int[] definer, boolean[] hoisted, boolean calls) {
+        if (code.isConstant(operand)) return true;
+        if (!code.isStorage(operand)) return false;
+        if (definitions[operand] == 0) {
+            // A call in the loop may assign any field (a name without a frame slot)
+            return !(calls && code.kind(operand) == CompactTAC.Kind.VARIABLE && code.slot(operand) < 0);
+        }
+        return definitions[operand] == 1 && hoisted[definer[operand]];
+    }
+
+    // --- Pass 5: Temp Coalescing ---
+    // "t = a op b ... x = t" where t is read by nothing but that copy becomes "x = a op b": the
+    // copies left in place of phis, and the stores of computed values to fields. x must not be
+    // read or written between the two (the write now happens earlier), and for a field not
+    // across a call either (the callee may read it).
+    private void coalesceTemps() {
+        int[] uses = new int[code.operandCount()];
+        int[] defs = new int[code.operandCount()];
+        int[] definedAt = new int[code.operandCount()];
+        for (int i = 0; i < code.size(); i++) {
+            if (code.isStorage(code.a(i))) uses[code.a(i)]++;
+            if (code.isStorage(code.b(i))) uses[code.b(i)]++;
+            if (code.opcode(i).hasResult()) {
+                defs[code.result(i)]++;
+                definedAt[code.result(i)] = i;
+            }
+        }
+
+        boolean[] removed = new boolean[code.size()];
+        boolean coalesced = false;
+        ControlFlowGraph cfg = new ControlFlowGraph(code);
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (code.opcode(i) != CompactTAC.Opcode.COPY) continue;
+                int x = code.result(i), t = code.a(i);
+                if (!code.isStorage(t) || isField(t) || uses[t] != 1 || defs[t] != 1) continue;
+                int j = definedAt[t];
+                if (j >= i || j < cfg.start(b) || !isFree(x, j + 1, i)) continue;
+                if (diagnostics.isTracing()) trace("   [Coalescing] " + code.toString(j) + "; " + code.toString(i));
+                code.set(j, code.opcode(j), x, code.a(j), code.b(j));
+                definedAt[x] = j; // A copy of x may coalesce next
+                removed[i] = true;
+                coalesced = true;
+            }
         }
+        if (coalesced) code.removeAll(removed);
     }
 
-    private int findLabelIndex(String labelName) {
-        for (int i = 0; i < instructions.size(); i++) {
-            if (instructions.get(i).operator.equals(":") && instructions.get(i).result.equals(labelName)) return i;
+    // Nothing in [from, to) touches x: x can be written at 'from' instead of at 'to'
+    private boolean isFree(int x, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (code.a(k) == x || code.b(k) == x || (code.opcode(k).hasResult() && code.result(k) == x)) return false;
+            if (code.opcode(k) == CompactTAC.Opcode.CALL && isField(x)) return false;
         }
-        return -1;
+        return true;
     }
 
-    private boolean isNumeric(String str) {
-        return str != null && str.matches("-?\\d+(\\.\\d+)?");
+    private boolean isField(int operand) {
+        return code.kind(operand) == CompactTAC.Kind.VARIABLE && code.slot(operand) < 0;
     }
-}
\ No newline at end of file
+}
@@ -1,120 +1,139 @@
 import java.util.List;
 
 public class ZaraParser {
-    private List<LexicalAnalyzer.Token> tokens;
+    private TokenBuffer tokens;
     private int pos; // Current position in the list
     private symboltable symbolTable;
-    public ZaraParser(List<LexicalAnalyzer.Token> tokens) {
+    private final Diagnostics diagnostics;
+
+    public ZaraParser(TokenBuffer tokens) {
+        this(tokens, Diagnostics.quiet());
+    }
+
+    public ZaraParser(TokenBuffer tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
         this.pos = 0;
-        this.symbolTable = new symboltable();
+        this.diagnostics = diagnostics;
+        this.symbolTable = new symboltable(diagnostics);
+    }
+
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return diagnostics.getErrors();
+    }
+
+    private void trace(String message) {
+        diagnostics.trace(Diagnostics.Phase.PARSER, message);
+    }
+
+    private void reportError(String message) {
+        diagnostics.error(Diagnostics.Phase.PARSER, tokens.line(pos), message);
     }
 
     // Helper: Peek at the current token without consuming it
-    private LexicalAnalyzer.Token current() {
-        if (pos >= tokens.size()) {
-            // FIX: Added the 3rd argument (-1) for the line number
-            return new LexicalAnalyzer.Token(LexicalAnalyzer.TokenType.EOF, "", -1);
-        }
-        return tokens.get(pos);
+    private LexicalAnalyzer.TokenType type() {
+        return tokens.type(pos);
+    }
+
+    private boolean at(String text) {
+        return tokens.is(pos, text);
+    }
+
+    private boolean atKeyword(LexicalAnalyzer.Keyword keyword) {
+        return tokens.isKeyword(pos, keyword);
     }
 
     // The logic to "eat" a token
     private void match(LexicalAnalyzer.TokenType expectedType) {
-        LexicalAnalyzer.Token token = current();
-
-        if (token.type == expectedType) {
-            System.out.println("Matched: " + token.data);
+        if (type() == expectedType) {
+            if (diagnostics.isTracing()) trace("Matched: " + tokens.text(pos));
             pos++; // Move to the next token
         } else {
-            System.out.println("Error: Expected " + expectedType + " but found " + token.type);
+            reportError("Expected " + expectedType + " but found " + type());
         }
     }
 
     // We will add grammar rules here next...
     public void parseProgram() {
         // While we haven't reached the End of File (EOF)...
-        while (current().type != LexicalAnalyzer.TokenType.EOF) {
+        while (type() != LexicalAnalyzer.TokenType.EOF) {
             // ... parse the next statement
             parseStatement();
         }
     }
 
     public void parseStatement() {
-        LexicalAnalyzer.Token token = current();
+        LexicalAnalyzer.TokenType type = type();
 
         // 1. Check for Keywords (Declarations or Control Flow)
-        if (token.type == LexicalAnalyzer.TokenType.KEYWORD) {
-            if (token.data.equals("if")) {
+        if (type == LexicalAnalyzer.TokenType.KEYWORD) {
+            LexicalAnalyzer.Keyword keyword = LexicalAnalyzer.Keyword.of(tokens.symbol(pos));
+            if (keyword == LexicalAnalyzer.Keyword.IF) {
                 parseIf();
-            } else if (token.data.equals("for")) {
+            } else if (keyword == LexicalAnalyzer.Keyword.FOR) {
                 parseFor();
-            }else if (token.data.equals("while")) {
+            }else if (keyword == LexicalAnalyzer.Keyword.WHILE) {
                 parseWhile();
-            }else if (token.data.equals("do")) {
+            }else if (keyword == LexicalAnalyzer.Keyword.DO) {
                 parseDoWhile();
-            }else if (token.data.equals("integer") || token.data.equals("float")
-                    || token.data.equals("string") || token.data.equals("boolean")) {
+            }else if (keyword.isPrimitiveType()) {
                 parseDeclaration();
             } else {
-                System.out.println("Unexpected keyword: " + token.data);
+                reportError("Unexpected keyword: " + tokens.text(pos));
                 pos++; // Skip to avoid infinite loop
             }
         }
         // 2. Check for Identifiers (Assignments like 'count = count + 1')
-        else if (token.type == LexicalAnalyzer.TokenType.IDENTIFIER) {
+        else if (type == LexicalAnalyzer.TokenType.IDENTIFIER) {
             parseAssignment();
         }
         // 3. Skip unknown things to keep the compiler running
         else {
-            System.out.println("Error: Unexpected token at start of statement: " + token);
+            reportError("Unexpected token at start of statement: " + tokens.toToken(pos));
             pos++;
         }
     }
 
     private void parseDeclaration() {
-        System.out.println("--- Parsing Declaration ---");
+        trace("--- Parsing Declaration ---");
 
         // 1. Capture the Type (e.g., "integer")
-        LexicalAnalyzer.Token typeToken = current();
+        String typeName = tokens.text(pos);
         match(LexicalAnalyzer.TokenType.KEYWORD);
 
         // 2. Capture the Name (e.g., "x")
-        LexicalAnalyzer.Token nameToken = current();
+        String name = tokens.text(pos);
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
 
         // 3. Register it in the Symbol Table!
         // We use the name ("x") as the key, and the type ("integer") as the value.
-        symbolTable.add(nameToken.data, typeToken.data);
+        symbolTable.add(name, typeName);
 
         match(LexicalAnalyzer.TokenType.OPERATOR);
         match(LexicalAnalyzer.TokenType.CONSTANT);
     }
     private void parseCondition() {
-        System.out.println("--- Parsing Condition ---");
+        trace("--- Parsing Condition ---");
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
         match(LexicalAnalyzer.TokenType.OPERATOR);
         // Part 3: The Right Side (e.g., '5')
         // (For simplicity, we assume Identifier or Constant here)
-        LexicalAnalyzer.Token token = current();
-        if (token.type == LexicalAnalyzer.TokenType.IDENTIFIER) {
+        if (type() == LexicalAnalyzer.TokenType.IDENTIFIER) {
             match(LexicalAnalyzer.TokenType.IDENTIFIER);
         } else {
             match(LexicalAnalyzer.TokenType.CONSTANT);
         }
 
         // --- NEW: Check for Logical Operators (&&, ||) ---
-        LexicalAnalyzer.Token next = current();
-        if (next.type == LexicalAnalyzer.TokenType.OPERATOR) {
-            if (next.data.equals("&&") || next.data.equals("||")) {
-                System.out.println("--- Found Logical Operator '" + next.data + "' ---");
+        if (type() == LexicalAnalyzer.TokenType.OPERATOR) {
+            if (at("&&") || at("||")) {
+                if (diagnostics.isTracing()) trace("--- Found Logical Operator '" + tokens.text(pos) + "' ---");
                 match(LexicalAnalyzer.TokenType.OPERATOR); // Eat && or ||
                 parseCondition();
             }
         }
     }
     private void parseIf() {
-        System.out.println("--- Parsing If Statement ---");
+        trace("--- Parsing If Statement ---");
         match(LexicalAnalyzer.TokenType.KEYWORD);
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR);
@@ -130,8 +149,8 @@ public class ZaraParser {
         match(LexicalAnalyzer.TokenType.PUNCTUATOR);
 
 
-        if (current().data.equals("else")) {
-            System.out.println("--- Parsing Else Block ---");
+        if (atKeyword(LexicalAnalyzer.Keyword.ELSE)) {
+            trace("--- Parsing Else Block ---");
             match(LexicalAnalyzer.TokenType.KEYWORD);    // Eat 'else'
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat '{'
             parseStatement();                            // Eat body
@@ -139,34 +158,34 @@ public class ZaraParser {
         }
     }
     private void parseAssignment() {
-        System.out.println("--- Parsing Assignment ---");
+        trace("--- Parsing Assignment ---");
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
         match(LexicalAnalyzer.TokenType.OPERATOR);
         parseExpression();
     }
     private void parseExpression() {
-        System.out.println("--- Parsing Expression ---");
+        trace("--- Parsing Expression ---");
 
         // Step A: We expect a value first (Number or Variable)
-        LexicalAnalyzer.Token token = current();
-        if (token.type == LexicalAnalyzer.TokenType.IDENTIFIER) {
+        LexicalAnalyzer.TokenType type = type();
+        if (type == LexicalAnalyzer.TokenType.IDENTIFIER) {
             match(LexicalAnalyzer.TokenType.IDENTIFIER);
-        } else if (token.type == LexicalAnalyzer.TokenType.CONSTANT) {
+        } else if (type == LexicalAnalyzer.TokenType.CONSTANT) {
             match(LexicalAnalyzer.TokenType.CONSTANT);
         } else {
-            System.out.println("Error: Expected Identifier or Constant in expression.");
+            reportError("Expected Identifier or Constant in expression.");
         }
 
         // Step B: Is there an operator next? (e.g., '+')
-        if (current().type == LexicalAnalyzer.TokenType.OPERATOR) {
-            System.out.println("--- Found Operator, continuing expression ---");
+        if (type() == LexicalAnalyzer.TokenType.OPERATOR) {
+            trace("--- Found Operator, continuing expression ---");
             match(LexicalAnalyzer.TokenType.OPERATOR); // Eat '+'
             parseExpression(); // Recurse to handle the rest (e.g., '1')
         }
     }
 
     private void parseFor() {
-        System.out.println("--- Parsing For Loop ---");
+        trace("--- Parsing For Loop ---");
 
         match(LexicalAnalyzer.TokenType.KEYWORD);    // Match 'for'
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Match '('
@@ -183,7 +202,7 @@ public class ZaraParser {
 
     private void parseWhile() {
 
-        System.out.println("--- Parsing while loop---");
+        trace("--- Parsing while loop---");
 
         match(LexicalAnalyzer.TokenType.KEYWORD);
         match(LexicalAnalyzer.TokenType.PUNCTUATOR);
@@ -195,7 +214,7 @@ public class ZaraParser {
     }
 
     private void parseDoWhile() {
-        System.out.println("--- Parsing do_while loop---");
+        trace("--- Parsing do_while loop---");
         match(LexicalAnalyzer.TokenType.KEYWORD);
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR);
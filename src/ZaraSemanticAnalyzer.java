@@ -6,20 +6,34 @@ public class ZaraSemanticAnalyzer {
     private symboltable symbolTable;
     private TACInstruction.CodeGenerator generator; // External class
 
-    // Global Error Flag
-    private boolean hasError = false;
+    private final Diagnostics diagnostics;
+
+    // Expression parser stacks: fixed size, see Operators.MAX_PENDING
+    private final String[] operandStack = new String[Operators.MAX_PENDING + 1];
+    private final String[] operatorStack = new String[Operators.MAX_PENDING];
+    private final Type[] typeStack = new Type[Operators.MAX_PENDING + 1]; // Type of each operand
+    private Type expressionType; // Type of the last parsed expression / operand
+    private int expressionLine;  // Line where that expression started (errors are found at its end)
 
     public ZaraSemanticAnalyzer(List<LexicalAnalyzer.Token> tokens) {
+        this(tokens, Diagnostics.quiet());
+    }
+
+    public ZaraSemanticAnalyzer(List<LexicalAnalyzer.Token> tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
         this.pos = 0;
-        this.symbolTable = new symboltable();
+        this.diagnostics = diagnostics;
+        this.symbolTable = new symboltable(diagnostics);
         this.generator = new TACInstruction.CodeGenerator();
     }
 
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return diagnostics.getErrors();
+    }
+
     // --- Helper Methods ---
-    private void reportError(String message) {
-        System.out.println("⛔ " + message);
-        hasError = true;
+    private void reportError(Diagnostics.Phase phase, String message) {
+        diagnostics.error(phase, current().line, message);
     }
     private LexicalAnalyzer.Token current() {
         if (pos >= tokens.size()) {
@@ -33,21 +47,16 @@ public class ZaraSemanticAnalyzer {
         if (current().type == expectedType) {
             pos++;
         } else {
-            reportError("Syntax Error: Expected " + expectedType + " but found " + current().type);
+            reportError(Diagnostics.Phase.PARSER, "Expected " + expectedType + " but found " + current().type);
             pos++;
         }
     }
 
-    private void checkTypeConsistency(String declaredType, String valueData) {
-        String inferredType = "unknown";
-        if (valueData.startsWith("\"")) inferredType = "string";
-        else if (valueData.contains(".")) inferredType = "float";
-        else if (valueData.matches("\\d+")) inferredType = "integer";
-        else if (valueData.equals("true") || valueData.equals("false")) inferredType = "boolean";
-        else if (valueData.startsWith("t") && valueData.matches("t\\d+")) return;
-
-        if (!inferredType.equals("unknown") && !declaredType.equals(inferredType)) {
-            reportError("Semantic Error: Type Mismatch! Cannot assign " + inferredType + " ('" + valueData + "') to " + declaredType + ".");
+    // The value's type comes from parseExpression, not from its spelling
+    private void checkTypeConsistency(String declaredType, Type valueType, String valueData) {
+        Type target = Type.primitive(declaredType);
+        if (target != null && !valueType.isAssignableTo(target)) {
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, expressionLine, "Type Mismatch! Cannot assign " + valueType + " ('" + valueData + "') to " + declaredType + ".");
         }
     }
 
@@ -62,7 +71,7 @@ public class ZaraSemanticAnalyzer {
         System.out.println("--- Analysis Complete ---");
 
         // The Gate: Only proceed if the code is clean
-        if (!hasError) {
+        if (!diagnostics.hasErrors()) {
             System.out.println("✅ Build Successful! Generating Code...");
 
             // --- CONNECTING THE OPTIMIZER ---
@@ -70,7 +79,7 @@ public class ZaraSemanticAnalyzer {
             List<TACInstruction> rawCode = generator.getInstructions();
 
             // 2. Initialize the external Optimizer
-            ZaraOptimizer optimizer = new ZaraOptimizer(rawCode);
+            ZaraOptimizer optimizer = new ZaraOptimizer(rawCode, diagnostics);
 
             // 3. Run Optimization
             optimizer.optimize();
@@ -119,7 +128,7 @@ public class ZaraSemanticAnalyzer {
         if (current().data.equals("=")) {
             match(LexicalAnalyzer.TokenType.OPERATOR);
             String resultTemp = parseExpression();
-            checkTypeConsistency(declaredType, resultTemp);
+            checkTypeConsistency(declaredType, expressionType, resultTemp);
             generator.emit(varName, resultTemp, "", null);
         }
     }
@@ -128,32 +137,99 @@ public class ZaraSemanticAnalyzer {
         String varName = current().data;
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
         symbol existingSym = symbolTable.get(varName);
-        if (existingSym == null) reportError("Semantic Error: Variable '" + varName + "' used before declaration.");
+        if (existingSym == null) reportError(Diagnostics.Phase.SEMANTIC, "Variable '" + varName + "' used before declaration.");
 
         match(LexicalAnalyzer.TokenType.OPERATOR);
         String resultTemp = parseExpression();
-        if (existingSym != null) checkTypeConsistency(existingSym.getType(), resultTemp);
+        if (existingSym != null) checkTypeConsistency(existingSym.getType(), expressionType, resultTemp);
         generator.emit(varName, resultTemp, "", null);
     }
 
+    // Precedence climbing with explicit stacks (see Operators): an operator is emitted as soon as
+    // one of lower or equal precedence follows it, so temps are numbered left to right
     private String parseExpression() {
+        expressionLine = current().line;
+        int operands = 0;
+        int operators = 0;
+        int depth = 0;
+
+        while (true) {
+            // Operand position: '(' opens a group
+            while (current().data.equals("(") && current().type == LexicalAnalyzer.TokenType.PUNCTUATOR) {
+                if (depth == Operators.MAX_NESTING) {
+                    reportError(Diagnostics.Phase.PARSER, "Expression nested deeper than " + Operators.MAX_NESTING + " parentheses.");
+                    expressionType = Type.ERROR;
+                    return "?";
+                }
+                operatorStack[operators++] = "(";
+                depth++;
+                pos++;
+            }
+            operandStack[operands] = parseOperand();
+            typeStack[operands++] = expressionType;
+
+            // ')' closes a group opened inside this expression (any other ')' ends it)
+            while (depth > 0 && current().data.equals(")")) {
+                while (!operatorStack[operators - 1].equals("(")) operands = emitOperator(operands, operatorStack[--operators]);
+                operators--;
+                depth--;
+                pos++;
+            }
+
+            int precedence = current().type == LexicalAnalyzer.TokenType.OPERATOR ? Operators.precedence(current().data) : Operators.NONE;
+            if (precedence == Operators.NONE) break;
+
+            // Left-associative: emit everything pending that binds at least as tightly
+            while (operators > 0 && Operators.precedence(operatorStack[operators - 1]) >= precedence) {
+                operands = emitOperator(operands, operatorStack[--operators]);
+            }
+            operatorStack[operators++] = current().data;
+            pos++;
+        }
+
+        if (depth > 0) reportError(Diagnostics.Phase.PARSER, "Expected ')' to close expression.");
+        while (operators > 0) {
+            String operator = operatorStack[--operators];
+            if (!operator.equals("(")) operands = emitOperator(operands, operator);
+        }
+        expressionType = typeStack[0];
+        return operandStack[0];
+    }
+
+    // t = op1 operator op2 over the top two operands; returns the new operand count
+    private int emitOperator(int operands, String operator) {
+        String op1 = operandStack[operands - 2];
+        String op2 = operandStack[operands - 1];
+        Type left = typeStack[operands - 2];
+        Type right = typeStack[operands - 1];
+        Type result = Type.binary(operator, left, right);
+        if (result == null) {
+            if (left == Type.STRING || right == Type.STRING) diagnostics.error(Diagnostics.Phase.SEMANTIC, expressionLine, "Cannot perform math on Strings!");
+            else diagnostics.error(Diagnostics.Phase.SEMANTIC, expressionLine, "Operator '" + operator + "' cannot be applied to " + left + " and " + right + ".");
+            result = Type.ERROR;
+        }
+        typeStack[operands - 2] = result;
+
+        String temp = generator.newTemp();
+        generator.emit(temp, op1, operator, op2);
+        operandStack[operands - 2] = temp;
+        return operands - 1;
+    }
+
+    // Sets expressionType to the operand's type (ERROR if unknown, so it is not reported twice)
+    private String parseOperand() {
         String op1 = current().data;
+        expressionType = Type.ERROR;
         if (current().type == LexicalAnalyzer.TokenType.IDENTIFIER) {
-            if (symbolTable.get(op1) == null) reportError("Semantic Error: Variable '" + op1 + "' used in expression before declaration.");
+            symbol sym = symbolTable.get(op1);
+            if (sym == null) reportError(Diagnostics.Phase.SEMANTIC, "Variable '" + op1 + "' used in expression before declaration.");
+            else if (Type.primitive(sym.getType()) != null) expressionType = Type.primitive(sym.getType());
             pos++;
         } else if (current().type == LexicalAnalyzer.TokenType.CONSTANT) {
+            expressionType = Type.ofConstant(op1);
             pos++;
-        }
-
-        if (current().type == LexicalAnalyzer.TokenType.OPERATOR && !current().data.equals(";")) {
-            String operator = current().data;
-            pos++;
-            String op2 = parseExpression();
-            if (op1.startsWith("\"") || op2.startsWith("\"")) reportError("Semantic Error: Cannot perform math on Strings!");
-
-            String temp = generator.newTemp();
-            generator.emit(temp, op1, operator, op2);
-            return temp;
+        } else {
+            reportError(Diagnostics.Phase.PARSER, "Expected an expression but found " + current().type);
         }
         return op1;
     }
@@ -233,7 +309,7 @@ public class ZaraSemanticAnalyzer {
         System.out.println("--- Test  Code  ---");
         LexicalAnalyzer lexer = new LexicalAnalyzer();
         List<LexicalAnalyzer.Token> tokens = lexer.tokenize(code);
-        ZaraSemanticAnalyzer analyzer = new ZaraSemanticAnalyzer(tokens);
+        ZaraSemanticAnalyzer analyzer = new ZaraSemanticAnalyzer(tokens, Diagnostics.console(Diagnostics.Level.TRACE));
         analyzer.parseProgram();
 
         System.out.println("\n-----------------------------------\n");
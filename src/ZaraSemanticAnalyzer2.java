@@ -1,73 +1,124 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ZaraSemanticAnalyzer2 {
-    private List<LexicalAnalyzer.Token> tokens;
-    private List<String> errors = new ArrayList<>(); // To collect all errors
-    private int pos;
+    private TokenStream tokens;
+    private final Diagnostics diagnostics; // Errors (structured) and trace output
+    private boolean passedSemicolon; // Was the last consumed token ';'? (for panic mode)
 
     // SWITCHED TO NEW TABLE
-    private OOPSymbolTable symbolTable;
+    private ConcurrentSymbolTable symbolTable;
+    private Type.Hierarchy types; // Built after the declaration pass, read by every unit
 
-    private TACInstruction.CodeGenerator generator;
-    private boolean hasError = false;
+    // Syntax tree shared by the semantic and TAC passes
+    private ZaraAst ast;
 
-    public ZaraSemanticAnalyzer2(List<LexicalAnalyzer.Token> tokens) {
+    // Expression parser stacks: fixed size, see Operators.MAX_PENDING
+    private final int[] operandStack = new int[Operators.MAX_PENDING + 1];
+    private final int[] operatorStack = new int[Operators.MAX_PENDING]; // Operator literal ('(' marker: NONE)
+    private final int[] precedenceStack = new int[Operators.MAX_PENDING];
+
+    public ZaraSemanticAnalyzer2(TokenBuffer tokens) {
+        this(tokens.cursor());
+    }
+
+    // Works on any token source, e.g. a StreamingLexer that lexes while we parse
+    public ZaraSemanticAnalyzer2(TokenStream tokens) {
+        this(tokens, new ZaraAst(tokens.names()));
+    }
+
+    // Parse into an existing arena (reset and reused, e.g. one arena per compiler thread)
+    public ZaraSemanticAnalyzer2(TokenStream tokens, ZaraAst arena) {
+        this(tokens, arena, Diagnostics.quiet());
+    }
+
+    public ZaraSemanticAnalyzer2(TokenStream tokens, ZaraAst arena, Diagnostics diagnostics) {
+        this(tokens, arena, diagnostics, new ConcurrentSymbolTable());
+    }
+
+    // Declare into a class table shared with other analyses (e.g. one per source file, running
+    // at the same time). Bodies see every class published before this analysis' type pass.
+    public ZaraSemanticAnalyzer2(TokenStream tokens, ZaraAst arena, Diagnostics diagnostics, ConcurrentSymbolTable symbolTable) {
         this.tokens = tokens;
-        this.pos = 0;
-        this.symbolTable = new OOPSymbolTable(); // <--- New OOPSymbolTable
-        this.generator = new TACInstruction.CodeGenerator();
+        this.diagnostics = diagnostics;
+        this.symbolTable = symbolTable;
+        this.ast = arena;
+        arena.reset(tokens.names());
     }
 
     // --- Helper Methods ---
     private void reportError(String message) {
-        String err = " Error at Line " + current().line + ": " + message;
-        System.out.println(err); // Print immediately
-        errors.add(err);         // Add to log
-        hasError = true;
+        diagnostics.error(Diagnostics.Phase.PARSER, tokens.peekLine(0), message);
     }
+
     private void synchronize() {
-        System.out.println("   ...Panic Mode: Skipping tokens until safe point...");
+        diagnostics.trace(Diagnostics.Phase.PARSER, "   ...Panic Mode: Skipping tokens until safe point...");
 
-        pos++; // Advance one token to avoid infinite loops
+        advance(); // Advance one token to avoid infinite loops
 
-        while (current().type != LexicalAnalyzer.TokenType.EOF) {
+        while (type() != LexicalAnalyzer.TokenType.EOF) {
             // Safe Point 1: We just passed a semicolon (end of previous statement)
-            if (pos > 0 && tokens.get(pos - 1).data.equals(";")) {
+            if (passedSemicolon) {
                 return;
             }
 
             // Safe Point 2: We see a keyword that starts a NEW statement or declaration
-            String data = current().data;
-            if (data.equals("class") ||
-                    data.equals("void") ||
-                    data.equals("integer") ||
-                    data.equals("float") ||
-                    data.equals("string") ||
-                    data.equals("if") ||
-                    data.equals("while") ||
-                    data.equals("return")) {
+            LexicalAnalyzer.Keyword keyword = keyword();
+            if (keyword == LexicalAnalyzer.Keyword.CLASS ||
+                    keyword == LexicalAnalyzer.Keyword.VOID ||
+                    keyword == LexicalAnalyzer.Keyword.INTEGER ||
+                    keyword == LexicalAnalyzer.Keyword.FLOAT ||
+                    keyword == LexicalAnalyzer.Keyword.STRING ||
+                    keyword == LexicalAnalyzer.Keyword.IF ||
+                    keyword == LexicalAnalyzer.Keyword.WHILE ||
+                    keyword == LexicalAnalyzer.Keyword.RETURN) {
                 return;
             }
 
-            pos++; // Skip current token
+            advance(); // Skip current token
         }
     }
 
-    private LexicalAnalyzer.Token current() {
-        if (pos >= tokens.size()) {
-            // Pass -1 as the line number for EOF
-            return new LexicalAnalyzer.Token(LexicalAnalyzer.TokenType.EOF, "", -1);
-        }
-        return tokens.get(pos);
+    // Current token, read from the stream (EOF with line -1 past the end)
+    private LexicalAnalyzer.TokenType type() {
+        return tokens.peekType(0);
+    }
+
+    private String text() {
+        return tokens.peekText(0);
+    }
+
+    private boolean at(String text) {
+        return tokens.peekIs(0, text);
+    }
+
+    // Keywords are compared by NameTable ID, never by spelling
+    private boolean atKeyword(LexicalAnalyzer.Keyword keyword) {
+        return tokens.peekKeyword(0, keyword);
+    }
+
+    private LexicalAnalyzer.Keyword keyword() {
+        return LexicalAnalyzer.Keyword.of(tokens.peekSymbol(0));
+    }
+
+    private void advance() {
+        passedSemicolon = at(";");
+        tokens.advance();
     }
 
 
     private void match(LexicalAnalyzer.TokenType expectedType) {
-        if (current().type == expectedType) {
-            pos++;
+        if (type() == expectedType) {
+            advance();
         } else {
-            reportError("Expected " + expectedType + " but found " + current().type);
+            reportError("Expected " + expectedType + " but found " + type());
             synchronize();
         }
     }
@@ -77,108 +128,273 @@ public class ZaraSemanticAnalyzer2 {
     // 1. TOP LEVEL: PROGRAM -> CLASSES
     // ==========================================
     public void parseProgram() {
-        System.out.println("--- Starting OOP Semantic Analysis ---");
+        parseProgram(null);
+    }
 
-        // Loop: Expect "class" keywords until EOF
-        while (current().type != LexicalAnalyzer.TokenType.EOF) {
-            if (current().data.equals("class")) {
-                parseClass();
-            } else {
-                reportError("Syntax Error: Expected 'class' definition at top level.");
-                pos++; // Skip garbage
-            }
-        }
+    // 'cache': functions compiled by earlier runs, reused while their code is unchanged (null:
+    // compile every function). The progress banners are trace output, like the passes' own.
+    public void parseProgram(ZaraModule.Cache cache) {
+        diagnostics.trace(Diagnostics.Phase.SEMANTIC, "--- Starting OOP Semantic Analysis ---");
 
-        System.out.println("--- Analysis Complete ---");
+        List<ZaraModule> modules = analyzeModules(ForkJoinPool.commonPool());
 
-        if (!hasError) {
-            System.out.println("Build Successful! Generating Code...");
+        diagnostics.trace(Diagnostics.Phase.SEMANTIC, "--- Analysis Complete ---");
 
-            // 1. Get Code
-            List<TACInstruction> rawCode = generator.getInstructions();
+        if (modules != null) {
+            diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Build Successful! Generating Code...");
 
-            // 2. Optimization (Optional - you can keep or remove)
-            ZaraOptimizer optimizer = new ZaraOptimizer(rawCode);
-            optimizer.optimize();
+            // 2. Optimization and code generation, function by function
+            ZaraModule.compile(modules, ForkJoinPool.commonPool(), cache, diagnostics);
 
             // 3. Print TAC (Intermediate)
-            generator.printCode();
+            ZaraModule.printCode(modules);
 
             //  4. NEW: BACKEND GENERATION ---
-            ZaraBackend backend = new ZaraBackend(rawCode);
-            backend.generate();
+            ZaraBackend.generate(modules);
 
 
         } else {
-            System.out.println(" Build Failed.");
+            diagnostics.trace(Diagnostics.Phase.SEMANTIC, " Build Failed.");
+        }
+    }
+
+    // Parse, check and lower to TAC; returns the code as one list, or null if there were errors
+    public List<TACInstruction> analyze() {
+        return analyze(ForkJoinPool.commonPool());
+    }
+
+    public List<TACInstruction> analyze(ForkJoinPool pool) {
+        List<ZaraModule> modules = analyzeModules(pool);
+        return modules != null ? ZaraModule.flatten(modules) : null;
+    }
+
+    // Parse, check and lower to one module per class; null if there were errors.
+    // Method bodies are checked and lowered on 'pool' (null: one after another on this thread).
+    // The output is the same for any pool: every body has its own temp/label namespace and
+    // Diagnostics buffer, and these are merged in source order.
+    public List<ZaraModule> analyzeModules(ForkJoinPool pool) {
+        // Phase 1: Syntax -> AST
+        int program = parse();
+
+        // Phase 2: Every class, field and method signature goes into the symbol table first
+        List<ZaraModule> modules = new ArrayList<>();
+        List<Unit> units = declare(program, modules);
+        types = new Type.Hierarchy(symbolTable);
+
+        // Phase 3: Name checks + TAC per method body
+        if (pool == null || units.size() < 2) {
+            for (Unit unit : units) unit.run();
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Unit unit : units) tasks.add(pool.submit(unit::run));
+            for (ForkJoinTask<?> task : tasks) task.join();
+        }
+
+        for (Unit unit : units) diagnostics.replay(unit.diagnostics);
+        if (diagnostics.hasErrors()) return null;
+
+        // Methods become functions; a class's field initialisers together become its constructor
+        Map<ZaraModule, TACInstruction.CodeGenerator> initialisers = new HashMap<>();
+        for (Unit unit : units) {
+            if (unit.function != null) {
+                unit.module.addFunction(function(unit.module, unit.function, ZaraModule.Function.Kind.METHOD, unit.code, unit.scope));
+            } else {
+                initialisers.computeIfAbsent(unit.module, m -> new TACInstruction.CodeGenerator()).append(unit.code);
+            }
+        }
+        for (ZaraModule module : modules) {
+            TACInstruction.CodeGenerator code = initialisers.get(module);
+            if (code != null) module.addFunction(function(module, module.name + ".<init>", ZaraModule.Function.Kind.CONSTRUCTOR, code, null));
+        }
+        return modules;
+    }
+
+    private ZaraModule.Function function(ZaraModule module, String name, ZaraModule.Function.Kind kind,
+                                         TACInstruction.CodeGenerator generator, OOPSymbolTable.MethodScope scope) {
+        CompactTAC code = CompactTAC.from(generator.getInstructions());
+        String[] locals = new String[scope != null ? scope.frameSize() : 0];
+        for (int slot = 0; slot < locals.length; slot++) locals[slot] = scope.symbolAt(slot).name;
+
+        // Names without a frame slot are fields, of this class or an ancestor
+        Map<String, String> fieldSymbols = new HashMap<>();
+        for (int op = 0; op < code.operandCount(); op++) {
+            if (code.kind(op) == CompactTAC.Kind.VARIABLE && code.slot(op) < 0) {
+                fieldSymbols.put(code.text(op), declaringClass(module.name, code.text(op)) + "." + code.text(op));
+            }
+        }
+        return new ZaraModule.Function(name, kind, Collections.emptyList(), locals, generator.slotCount, fieldSymbols, code);
+    }
+
+    // The class in 'className''s chain that declares field 'name' ('className' if none does)
+    private String declaringClass(String className, String name) {
+        OOPSymbolTable.Symbol member = symbolTable.resolveMember(className, name);
+        return member != null && !(member instanceof OOPSymbolTable.MethodSymbol) ? member.owner : className;
+    }
+
+    // Declaration pass: defines classes, fields and methods in source order, adds a module per
+    // class to 'modules' and returns the field initialisers and method bodies to analyse
+    private List<Unit> declare(int program, List<ZaraModule> modules) {
+        List<Unit> units = new ArrayList<>();
+        Set<String> namespaces = new HashSet<>();
+        ConcurrentSymbolTable.Context context = symbolTable.context(diagnostics);
+
+        for (int cls = ast.firstChild(program); cls != ZaraAst.NONE; cls = ast.nextSibling(cls)) {
+            if (!context.defineClass(ast.valueName(cls), ast.extraName(cls), ast.line(cls))) continue;
+            ZaraModule module = new ZaraModule(ast.valueName(cls), ast.extraName(cls));
+            modules.add(module);
+
+            for (int member = ast.firstChild(cls); member != ZaraAst.NONE; member = ast.nextSibling(member)) {
+                if (ast.kind(member) == ZaraAst.Kind.FIELD) {
+                    context.defineField(ast.valueName(member), ast.extraName(member), ast.line(member));
+                    module.addField(ast.valueName(member));
+                    if (ast.firstChild(member) != ZaraAst.NONE) units.add(new Unit(member, module, null, null, ""));
+                } else {
+                    context.defineMethod(ast.valueName(member), ast.extraName(member), ast.line(member));
+
+                    // Temps/labels become "Class.method.t0"; a repeated method name gets a number
+                    String namespace = ast.valueName(cls) + "." + ast.valueName(member) + ".";
+                    for (int n = 2; !namespaces.add(namespace); n++) {
+                        namespace = ast.valueName(cls) + "." + ast.valueName(member) + "." + n + ".";
+                    }
+                    units.add(new Unit(member, module, namespace.substring(0, namespace.length() - 1), context, namespace));
+                }
+            }
+            context.endClass();
         }
+
+        // Parents may be declared after their subclasses, so the chains are checked once all exist
+        for (int cls = ast.firstChild(program); cls != ZaraAst.NONE; cls = ast.nextSibling(cls)) {
+            context.checkInheritance(ast.valueName(cls), ast.line(cls));
+        }
+        return units;
+    }
+
+    // A field initialiser or method body, analysed on its own (possibly on another thread)
+    private class Unit {
+        final int node;
+        final ZaraModule module;
+        final String function; // "Class.method" (numbered if repeated); null for a field initialiser
+        final Diagnostics diagnostics = ZaraSemanticAnalyzer2.this.diagnostics.buffer();
+        final OOPSymbolTable.MethodScope scope;
+        final TACInstruction.CodeGenerator code;
+
+        // 'declaring' is positioned on the method's class; null for a field initialiser
+        Unit(int node, ZaraModule module, String function, ConcurrentSymbolTable.Context declaring, String namespace) {
+            this.node = node;
+            this.module = module;
+            this.function = function;
+            this.scope = declaring != null ? declaring.enterMethod(diagnostics) : null;
+            this.code = new TACInstruction.CodeGenerator(namespace);
+        }
+
+        void run() {
+            ast.accept(node, new SemanticChecker(this));
+            if (scope != null) code.slotCount = scope.frameSize(); // Temps go after the locals
+            if (!diagnostics.hasErrors()) ast.accept(node, new TacEmitter(code));
+        }
+
+        void error(int line, String message) {
+            diagnostics.error(Diagnostics.Phase.SEMANTIC, line, message);
+        }
+    }
+
+    // Parse the whole token stream into the arena; returns the PROGRAM node
+    public int parse() {
+        int program = ast.add(ZaraAst.Kind.PROGRAM, tokens.peekLine(0), ZaraAst.NONE, ZaraAst.NONE);
+        int last = ZaraAst.NONE;
+
+        // Loop: Expect "class" keywords until EOF
+        while (type() != LexicalAnalyzer.TokenType.EOF) {
+            if (atKeyword(LexicalAnalyzer.Keyword.CLASS)) {
+                last = ast.link(program, last, parseClass());
+            } else {
+                reportError("Expected 'class' definition at top level.");
+                advance(); // Skip garbage
+            }
+        }
+        return program;
+    }
+
+    public ZaraAst getAst() {
+        return ast;
+    }
+
+    public List<Diagnostics.Diagnostic> getErrors() {
+        return diagnostics.getErrors();
+    }
+
+    // NameTable ID of the current token (tokens without one, e.g. after an error, are interned)
+    private int name() {
+        int symbol = tokens.peekSymbol(0);
+        return symbol >= 0 ? symbol : ast.names().intern(text());
     }
 
     // 2. CLASS LEVEL: FIELDS & METHODS
-    private void parseClass() {
+    private int parseClass() {
         match(LexicalAnalyzer.TokenType.KEYWORD); // class
 
-        String className = current().data;
+        int line = tokens.peekLine(0);
+        int className = name();
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
 
-        String parentClass = null;
+        int parentClass = ZaraAst.NONE;
         // Check for Inheritance
-        if (current().data.equals("extends")) {
+        if (atKeyword(LexicalAnalyzer.Keyword.EXTENDS)) {
             match(LexicalAnalyzer.TokenType.KEYWORD);
-            parentClass = current().data;
+            parentClass = name();
             match(LexicalAnalyzer.TokenType.IDENTIFIER);
         }
 
-        // Define Class in Symbol Table
-        symbolTable.defineClass(className, parentClass);
+        int classNode = ast.add(ZaraAst.Kind.CLASS, line, className, parentClass);
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // {
 
         // Parse Class Members (Fields or Methods)
-        while (!current().data.equals("}") && current().type != LexicalAnalyzer.TokenType.EOF) {
-            parseMember();
+        int last = ZaraAst.NONE;
+        while (!at("}") && type() != LexicalAnalyzer.TokenType.EOF) {
+            last = ast.link(classNode, last, parseMember());
         }
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // }
+        return classNode;
     }
 
-    private void parseMember() {
+    private int parseMember() {
         // Look ahead: "integer x =" (Field) vs "void func() {" (Method)
-        String type = current().data;
+        int type = name();
         match(LexicalAnalyzer.TokenType.KEYWORD); // type (int, void...)
 
-        String name = current().data;
+        int line = tokens.peekLine(0);
+        int name = name();
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
 
         // If '(', it's a method!
-        if (current().data.equals("(")) {
-            parseMethod(name, type);
+        if (at("(")) {
+            return parseMethod(name, type, line);
         }
         // If '=' or ';', it's a field!
         else {
-            parseField(name, type);
+            return parseField(name, type, line);
         }
     }
 
-    private void parseField(String name, String type) {
-        symbolTable.defineField(name, type);
+    private int parseField(int name, int type, int line) {
+        int field = ast.add(ZaraAst.Kind.FIELD, line, name, type);
 
-        if (current().data.equals("=")) {
+        if (at("=")) {
             match(LexicalAnalyzer.TokenType.OPERATOR);
             // We use simple constants for field init for now
-            String value = current().data;
-            if (current().type == LexicalAnalyzer.TokenType.CONSTANT) pos++;
-
-            // Simple TAC for field init
-            generator.emit(name, value, "", null);
+            if (type() == LexicalAnalyzer.TokenType.CONSTANT) {
+                ast.link(field, ZaraAst.NONE, literal());
+                advance();
+            }
         }
         // Optional semicolon
-        if (current().data.equals(";")) match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        if (at(";")) match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        return field;
     }
 
-    private void parseMethod(String name, String returnType) {
-        symbolTable.defineMethod(name, returnType);
-
+    private int parseMethod(int name, int returnType, int line) {
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // (
         // TODO: Parse Parameters here later
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // )
@@ -186,104 +402,109 @@ public class ZaraSemanticAnalyzer2 {
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // {
 
         // Parse Method Body (Statements)
-        while (!current().data.equals("}") && current().type != LexicalAnalyzer.TokenType.EOF) {
-            parseStatement();
-        }
+        int body = parseStatements();
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // }
+        return ast.add(ZaraAst.Kind.METHOD, line, name, returnType, body);
     }
 
-    // 3. METHOD LEVEL: STATEMENTS (Old Logic)
+    // Statements up to (not including) the closing '}'
+    private int parseStatements() {
+        int block = ast.add(ZaraAst.Kind.BLOCK, tokens.peekLine(0), ZaraAst.NONE, ZaraAst.NONE);
+        int last = ZaraAst.NONE;
+        while (!at("}") && type() != LexicalAnalyzer.TokenType.EOF) {
+            int statement = parseStatement();
+            if (statement != ZaraAst.NONE) last = ast.link(block, last, statement);
+        }
+        return block;
+    }
 
-    private void parseStatement() {
-        LexicalAnalyzer.Token token = current();
+    // 3. METHOD LEVEL: STATEMENTS (Old Logic)
 
-        if (token.type == LexicalAnalyzer.TokenType.KEYWORD) {
-            if (token.data.matches("integer|float|string|boolean")) {
-                parseLocalDeclaration();
-            } else if (token.data.equals("if")) {
-                parseIf();
-            } else if (token.data.equals("while")) {
-                parseWhile();
+    // Returns the statement node, or NONE when a token was skipped
+    private int parseStatement() {
+        LexicalAnalyzer.TokenType type = type();
+
+        if (type == LexicalAnalyzer.TokenType.KEYWORD) {
+            LexicalAnalyzer.Keyword keyword = keyword();
+            if (keyword.isPrimitiveType()) {
+                return parseLocalDeclaration();
+            } else if (keyword == LexicalAnalyzer.Keyword.IF) {
+                return parseIf();
+            } else if (keyword == LexicalAnalyzer.Keyword.WHILE) {
+                return parseWhile();
+            } else if (keyword == LexicalAnalyzer.Keyword.PRINT) {
+                return parsePrint();
             } else {
-                pos++;
+                advance();
             }
         }
-        else if (token.type == LexicalAnalyzer.TokenType.IDENTIFIER) {
-            // --- FIX: Check for Class Types or 'print' ---
-
-            // 1. Is it 'print'?
-            if (token.data.equals("print")) {
-                parsePrint();
-            }
-            // 2. Is it a Class Type declaration? (e.g. "Dog d")
+        else if (type == LexicalAnalyzer.TokenType.IDENTIFIER) {
+            // Is it a Class Type declaration? (e.g. "Dog d")
             // We check if the NEXT token is an identifier (the variable name)
-            else if (pos + 1 < tokens.size() && tokens.get(pos + 1).type == LexicalAnalyzer.TokenType.IDENTIFIER) {
-                parseLocalDeclaration();
+            if (tokens.peekType(1) == LexicalAnalyzer.TokenType.IDENTIFIER) {
+                return parseLocalDeclaration();
             }
-            // 3. Otherwise, it's an Assignment or Method Call (d.bark)
+            // Otherwise, it's an Assignment or Method Call (d.bark)
             else {
-                parseIdentifierStatement();
+                return parseIdentifierStatement();
             }
         }
-        else if (token.data.equals("}")) {
-            return;
+        else if (at("}")) {
+            return ZaraAst.NONE;
         }
         else {
-            pos++;
+            advance();
         }
+        return ZaraAst.NONE;
     }
-    private void parsePrint() {
-        match(LexicalAnalyzer.TokenType.IDENTIFIER); // Eat 'print'
+    private int parsePrint() {
+        int line = tokens.peekLine(0);
+        match(LexicalAnalyzer.TokenType.KEYWORD); // Eat 'print'
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat '('
 
         // Allow printing strings or variables
-        String content = current().data;
-        if (current().type == LexicalAnalyzer.TokenType.CONSTANT) {
-            pos++; // String literal
+        int content;
+        if (type() == LexicalAnalyzer.TokenType.CONSTANT) {
+            content = literal();
+            advance(); // String literal
         } else {
             content = parseExpression(); // Variable/Expression
         }
 
         match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat ')'
 
-        generator.emit("print", content, "", null);
+        return ast.add(ZaraAst.Kind.PRINT, line, ZaraAst.NONE, ZaraAst.NONE, content);
     }
-    private void parseIdentifierStatement() {
-        String name = current().data;
+    private int parseIdentifierStatement() {
+        int line = tokens.peekLine(0);
+        int name = name();
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
 
         // CASE 1: Method Call (e.g., d.bark() )
-        if (current().data.equals(".")) {
+        if (at(".")) {
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat '.'
-            String methodName = current().data;
+            int methodName = name();
             match(LexicalAnalyzer.TokenType.IDENTIFIER); // Eat 'bark'
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat '('
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat ')'
 
-            // Verify object exists
-            if (symbolTable.resolve(name) == null) reportError("Object '" + name + "' not found.");
-
-            // Generate TAC: call d.bark
-            generator.emit("call", name + "." + methodName, "", "0");
+            return ast.add(ZaraAst.Kind.CALL, line, name, methodName);
         }
         // CASE 2: Assignment (e.g., x = 5 )
         else {
-            if (symbolTable.resolve(name) == null) reportError("Variable '" + name + "' not found.");
             match(LexicalAnalyzer.TokenType.OPERATOR); // Eat '='
-            String val = parseExpression();
-            generator.emit(name, val, "", null);
+            int val = parseExpression();
+            return ast.add(ZaraAst.Kind.ASSIGN, line, name, ZaraAst.NONE, val);
         }
     }
 
-    // REUSED LOGIC (Slightly modified to use resolve()) ---
-
-    private void parseLocalDeclaration() {
+    private int parseLocalDeclaration() {
         // 1. Capture the Type (Could be "integer" or "Dog")
-        String type = current().data;
+        int type = name();
 
         // Allow KEYWORD (primitive) OR IDENTIFIER (object type)
-        if (current().type == LexicalAnalyzer.TokenType.KEYWORD) {
+        if (type() == LexicalAnalyzer.TokenType.KEYWORD) {
             match(LexicalAnalyzer.TokenType.KEYWORD);
         } else {
             match(LexicalAnalyzer.TokenType.IDENTIFIER);
@@ -291,68 +512,437 @@ public class ZaraSemanticAnalyzer2 {
         }
 
         // 2. Capture the Name
-        String name = current().data;
+        int line = tokens.peekLine(0);
+        int name = name();
         match(LexicalAnalyzer.TokenType.IDENTIFIER);
 
-        symbolTable.defineLocal(name, type);
-
         // 3. Handle Initialization ( = new Dog() )
-        if (current().data.equals("=")) {
+        int init = ZaraAst.NONE;
+        if (at("=")) {
             match(LexicalAnalyzer.TokenType.OPERATOR);
-            String val = parseExpression();
-            generator.emit(name, val, "", null);
+            init = parseExpression();
         }
+        return ast.add(ZaraAst.Kind.LOCAL, line, name, type, init);
     }
 
+    private int literal() {
+        String constant = text();
+        return ast.add(ZaraAst.Kind.LITERAL, tokens.peekLine(0), ast.literal(constant),
+                constant.startsWith("\"") ? 1 : 0);
+    }
+
+    // Precedence climbing without recursion: operands wait on one stack, operators on another
+    // until an operator of lower or equal precedence (or the end) shows up. Every BINARY node is
+    // created right after its operands, so an expression is stored in postfix order.
+    private int parseExpression() {
+        int operands = 0;
+        int operators = 0;
+        int depth = 0;
+
+        while (true) {
+            // Operand position: '(' opens a group
+            while (at("(")) {
+                if (depth == Operators.MAX_NESTING) {
+                    reportError("Expression nested deeper than " + Operators.MAX_NESTING + " parentheses");
+                    synchronize();
+                    return ast.add(ZaraAst.Kind.ERROR, tokens.peekLine(0), ZaraAst.NONE, ZaraAst.NONE);
+                }
+                operatorStack[operators] = ZaraAst.NONE;
+                precedenceStack[operators++] = Operators.NONE;
+                depth++;
+                advance();
+            }
+            operandStack[operands++] = parsePrimary();
+
+            // ')' closes a group opened inside this expression (any other ')' ends it)
+            while (depth > 0 && at(")")) {
+                while (precedenceStack[operators - 1] != Operators.NONE) operands = reduce(operands, --operators);
+                operators--;
+                depth--;
+                advance();
+            }
+
+            int precedence = type() == LexicalAnalyzer.TokenType.OPERATOR ? Operators.precedence(text()) : Operators.NONE;
+            if (precedence == Operators.NONE) break;
+
+            // Left-associative: finish everything pending that binds at least as tightly
+            while (operators > 0 && precedenceStack[operators - 1] >= precedence) operands = reduce(operands, --operators);
+            operatorStack[operators] = ast.literal(text());
+            precedenceStack[operators++] = precedence;
+            advance();
+        }
+
+        if (depth > 0) reportError("Expected ')' to close expression");
+        while (operators > 0) {
+            if (precedenceStack[--operators] != Operators.NONE) operands = reduce(operands, operators);
+        }
+        return operandStack[0];
+    }
 
+    // Combine the top two operands with operator 'index'; returns the new operand count
+    private int reduce(int operands, int index) {
+        int op1 = operandStack[operands - 2];
+        int op2 = operandStack[operands - 1];
+        ast.setNextSibling(op1, op2);
+        operandStack[operands - 2] = ast.add(ZaraAst.Kind.BINARY, ast.line(op1), operatorStack[index], ZaraAst.NONE, op1);
+        return operands - 1;
+    }
 
-    // (parseExpression, parseIf, parseWhile are the same as before,
-    //  just ensure parseExpression uses symbolTable.resolve(op1) for checks)
-    private String parseExpression() {
-        String op1 = current().data;
+    private int parsePrimary() {
+        int line = tokens.peekLine(0);
 
         // --- NEW: Handle Object Creation (new Dog) ---
-        if (op1.equals("new")) {
+        if (atKeyword(LexicalAnalyzer.Keyword.NEW)) {
             match(LexicalAnalyzer.TokenType.KEYWORD); // Eat 'new'
-            String className = current().data;
+            int className = name();
             match(LexicalAnalyzer.TokenType.IDENTIFIER); // Eat 'Dog'
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat '('
             match(LexicalAnalyzer.TokenType.PUNCTUATOR); // Eat ')'
+            return ast.add(ZaraAst.Kind.NEW, line, className, ZaraAst.NONE);
+        }
 
-            // Generate TAC: t0 = new Dog
-            String temp = generator.newTemp();
-            generator.emit(temp, "new " + className, "", null);
-            return temp;
+        if (type() == LexicalAnalyzer.TokenType.IDENTIFIER) {
+            int node = ast.add(ZaraAst.Kind.NAME, line, name(), ZaraAst.NONE);
+            advance();
+            return node;
+        } else if (type() == LexicalAnalyzer.TokenType.CONSTANT) {
+            int node = literal();
+            advance();
+            return node;
+        }
+        reportError("Expected an expression but found " + type());
+        return ast.add(ZaraAst.Kind.ERROR, line, ZaraAst.NONE, ZaraAst.NONE);
+    }
+
+    private int parseIf() {
+        int line = tokens.peekLine(0);
+        match(LexicalAnalyzer.TokenType.KEYWORD); match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        int condition = parseExpression();
+        match(LexicalAnalyzer.TokenType.PUNCTUATOR); match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        int thenBlock = parseStatements();
+        match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+
+        int elseBlock = ZaraAst.NONE;
+        if (atKeyword(LexicalAnalyzer.Keyword.ELSE)) {
+            match(LexicalAnalyzer.TokenType.KEYWORD); match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+            elseBlock = parseStatements();
+            match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        }
+        ast.setNextSibling(condition, thenBlock);
+        ast.setNextSibling(thenBlock, elseBlock);
+        return ast.add(ZaraAst.Kind.IF, line, ZaraAst.NONE, ZaraAst.NONE, condition);
+    }
+
+    private int parseWhile() {
+        int line = tokens.peekLine(0);
+        match(LexicalAnalyzer.TokenType.KEYWORD); match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        int condition = parseExpression();
+        match(LexicalAnalyzer.TokenType.PUNCTUATOR); match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+        int body = parseStatements();
+        match(LexicalAnalyzer.TokenType.PUNCTUATOR);
+
+        ast.setNextSibling(condition, body);
+        return ast.add(ZaraAst.Kind.WHILE, line, ZaraAst.NONE, ZaraAst.NONE, condition);
+    }
+
+    // ==========================================
+    // SEMANTIC PASS: name and type checks in one method body (or field initialiser)
+    // ==========================================
+    // Walks the body in source order, so a local must be declared before it is used.
+    // Classes, fields and methods were declared beforehand by declare().
+    // Expressions return their Type; statements return null.
+    private class SemanticChecker implements ZaraAst.Visitor<Type> {
+        private final Unit unit;
+
+        SemanticChecker(Unit unit) {
+            this.unit = unit;
+        }
+
+        public Type visitProgram(ZaraAst ast, int node) { return null; }
+
+        public Type visitClass(ZaraAst ast, int node) { return null; }
+
+        public Type visitField(ZaraAst ast, int node) {
+            int init = ast.firstChild(node);
+            if (init != ZaraAst.NONE) checkAssignable(ast.line(node), typeNamed(node), ast.accept(init, this));
+            return null;
+        }
+
+        public Type visitMethod(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public Type visitLocal(ZaraAst ast, int node) {
+            int init = ast.firstChild(node);
+            Type value = init != ZaraAst.NONE ? ast.accept(init, this) : null; // Cannot see the new local yet
+            String name = ast.valueName(node);
+            OOPSymbolTable.Symbol local = unit.scope.defineLocal(name, ast.value(node), ast.extraName(node));
+            if (local == null) unit.error(ast.line(node), "Variable '" + name + "' already defined in this block.");
+            else ast.setSlot(node, local.slot);
+            if (value != null) checkAssignable(ast.line(node), typeNamed(node), value);
+            return null;
+        }
+
+        public Type visitAssign(ZaraAst ast, int node) {
+            Type target = resolve(node, "Variable");
+            checkAssignable(ast.line(node), target, ast.accept(ast.firstChild(node), this));
+            return null;
+        }
+
+        public Type visitCall(ZaraAst ast, int node) {
+            // Verify object exists
+            resolve(node, "Object");
+            return null;
         }
 
+        // Records the local's frame slot on the node for the TAC pass; returns the symbol's type
+        private Type resolve(int node, String what) {
+            OOPSymbolTable.Symbol symbol = unit.scope.resolve(ast.valueName(node), ast.value(node));
+            if (symbol == null) {
+                unit.error(ast.line(node), what + " '" + ast.valueName(node) + "' not found.");
+                return Type.ERROR;
+            }
+            ast.setSlot(node, symbol.slot);
+            Type type = types.of(symbol.type);
+            return type != null ? type : Type.ERROR; // Unknown type names are reported at the declaration
+        }
+
+        // Declared type (extra) of a FIELD or LOCAL node
+        private Type typeNamed(int node) {
+            Type type = types.of(ast.extraName(node));
+            if (type != null) return type;
+            unit.error(ast.line(node), "Unknown type '" + ast.extraName(node) + "'.");
+            return Type.ERROR;
+        }
+
+        private void checkAssignable(int line, Type target, Type value) {
+            if (!value.isAssignableTo(target)) {
+                unit.error(line, "Type Mismatch! Cannot assign " + value + " to " + target + ".");
+            }
+        }
 
-        if (current().type == LexicalAnalyzer.TokenType.IDENTIFIER) {
+        public Type visitPrint(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public Type visitIf(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public Type visitWhile(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public Type visitBlock(ZaraAst ast, int node) {
+            unit.scope.enterBlock();
+            ast.acceptChildren(node, this);
+            unit.scope.exitBlock();
+            return null;
+        }
+
+        public Type visitBinary(ZaraAst ast, int node) {
+            // Walk the postfix range with a type stack instead of recursing: operands are checked
+            // in source order and every node is typed once
+            int start = ast.expressionStart(node);
+            Type[] stack = new Type[node - start + 1];
+            int top = 0;
+            for (int i = start; i <= node; i++) {
+                if (ast.kind(i) != ZaraAst.Kind.BINARY) {
+                    stack[top++] = ast.accept(i, this);
+                    continue;
+                }
+                Type right = stack[--top];
+                Type left = stack[--top];
+                String operator = ast.literalText(i);
+                Type result = Type.binary(operator, left, right);
+                if (result == null) {
+                    if (left == Type.STRING || right == Type.STRING) unit.error(ast.line(i), "Cannot perform math on Strings!");
+                    else unit.error(ast.line(i), "Operator '" + operator + "' cannot be applied to " + left + " and " + right + ".");
+                    result = Type.ERROR;
+                }
+                stack[top++] = result;
+            }
+            return stack[0];
+        }
+
+        public Type visitName(ZaraAst ast, int node) {
             // Check if variable exists
-            if (symbolTable.resolve(op1) == null) reportError("Variable '" + op1 + "' not found.");
-            pos++;
-        } else if (current().type == LexicalAnalyzer.TokenType.CONSTANT) {
-            pos++;
+            return resolve(node, "Variable");
+        }
+
+        public Type visitLiteral(ZaraAst ast, int node) {
+            if (ast.extra(node) == 1) return Type.STRING;
+            Type type = Type.ofConstant(ast.literalText(node));
+            if (type == Type.INTEGER && !fitsInLong(ast.literalText(node))) {
+                // Integers are 64-bit, in the optimiser's folding and in the backend's registers
+                unit.error(ast.line(node), "Integer literal '" + ast.literalText(node) + "' does not fit in 64 bits.");
+                return Type.ERROR;
+            }
+            return type;
+        }
+
+        private boolean fitsInLong(String text) {
+            try {
+                Long.parseLong(text);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        public Type visitNew(ZaraAst ast, int node) {
+            Type type = types.of(ast.valueName(node));
+            if (type != null && type.isClass()) return type;
+            unit.error(ast.line(node), "Class '" + ast.valueName(node) + "' not found.");
+            return Type.ERROR;
         }
 
-        if (current().type == LexicalAnalyzer.TokenType.OPERATOR && !current().data.equals(";") && !current().data.equals(")")) {
-            String operator = current().data;
-            pos++;
-            String op2 = parseExpression();
+        public Type visitError(ZaraAst ast, int node) { return Type.ERROR; }
+    }
+
+    // ==========================================
+    // TAC PASS: statements emit code, expressions return the name holding their value
+    // ==========================================
+    private class TacEmitter implements ZaraAst.Visitor<String> {
+        private final TACInstruction.CodeGenerator generator;
+        private int valueSlot; // Frame slot of the value the last expression returned, or -1
+
+        TacEmitter(TACInstruction.CodeGenerator generator) {
+            this.generator = generator;
+        }
+
+        public String visitProgram(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public String visitClass(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public String visitField(ZaraAst ast, int node) {
+            // Simple TAC for field init
+            int init = ast.firstChild(node);
+            if (init != ZaraAst.NONE) generator.emit(ast.valueName(node), ast.literalText(init), "", null);
+            return null;
+        }
+
+        public String visitMethod(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public String visitLocal(ZaraAst ast, int node) {
+            int init = ast.firstChild(node);
+            if (init != ZaraAst.NONE) {
+                String value = ast.accept(init, this);
+                generator.emit(ast.valueName(node), value, "", null).slots(ast.slot(node), valueSlot, -1);
+            }
+            return null;
+        }
+
+        public String visitAssign(ZaraAst ast, int node) {
+            String value = ast.accept(ast.firstChild(node), this);
+            generator.emit(ast.valueName(node), value, "", null).slots(ast.slot(node), valueSlot, -1);
+            return null;
+        }
+
+        public String visitCall(ZaraAst ast, int node) {
+            // Generate TAC: param d, call d.bark (the receiver is the one argument, and a use of d)
+            generator.emitParam(ast.valueName(node)).slots(-1, ast.slot(node), -1);
+            generator.emitCall(ast.valueName(node) + "." + ast.extraName(node), "1");
+            return null;
+        }
+
+        public String visitPrint(ZaraAst ast, int node) {
+            String value = ast.accept(ast.firstChild(node), this);
+            generator.emit("print", value, "", null).slots(-1, valueSlot, -1);
+            return null;
+        }
+
+        public String visitIf(ZaraAst ast, int node) {
+            String condition = ast.accept(ast.child(node, 0), this);
+            String labelElse = generator.newLabel();
+            String labelEnd = generator.newLabel();
+            generator.emitIfFalse(condition, labelElse).slots(-1, valueSlot, -1);
+
+            ast.accept(ast.child(node, 1), this);
+
+            generator.emitJump(labelEnd);
+            generator.emitLabel(labelElse);
+
+            int elseBlock = ast.child(node, 2);
+            if (elseBlock != ZaraAst.NONE) ast.accept(elseBlock, this);
+            generator.emitLabel(labelEnd);
+            return null;
+        }
+
+        public String visitWhile(ZaraAst ast, int node) {
+            String labelStart = generator.newLabel();
+            String labelEnd = generator.newLabel();
+            generator.emitLabel(labelStart);
+
+            String condition = ast.accept(ast.child(node, 0), this);
+            generator.emitIfFalse(condition, labelEnd).slots(-1, valueSlot, -1);
+
+            ast.accept(ast.child(node, 1), this);
+
+            generator.emitJump(labelStart);
+            generator.emitLabel(labelEnd);
+            return null;
+        }
+
+        public String visitBlock(ZaraAst ast, int node) { ast.acceptChildren(node, this); return null; }
+
+        public String visitBinary(ZaraAst ast, int node) {
+            // Evaluate the postfix range with a value stack: temps come out left to right and
+            // the Java stack stays flat however long the expression is
+            int start = ast.expressionStart(node);
+            String[] values = new String[node - start + 1];
+            int[] slots = new int[values.length];
+            int top = 0;
+            for (int i = start; i <= node; i++) {
+                if (ast.kind(i) == ZaraAst.Kind.BINARY) {
+                    top -= 2;
+                    String temp = generator.newTemp();
+                    int slot = generator.newSlot();
+                    generator.emit(temp, values[top], ast.literalText(i), values[top + 1]).slots(slot, slots[top], slots[top + 1]);
+                    values[top] = temp;
+                    slots[top++] = slot;
+                } else {
+                    values[top] = ast.accept(i, this);
+                    slots[top++] = valueSlot;
+                }
+            }
+            valueSlot = slots[0];
+            return values[0];
+        }
+
+        public String visitName(ZaraAst ast, int node) {
+            valueSlot = ast.slot(node);
+            return ast.valueName(node);
+        }
+
+        public String visitLiteral(ZaraAst ast, int node) {
+            valueSlot = -1;
+            return ast.literalText(node);
+        }
+
+        public String visitNew(ZaraAst ast, int node) {
+            // Generate TAC: t0 = new Dog
             String temp = generator.newTemp();
-            generator.emit(temp, op1, operator, op2);
+            valueSlot = generator.newSlot();
+            generator.emit(temp, "new " + ast.valueName(node), "", null).slots(valueSlot, -1, -1);
             return temp;
         }
-        return op1;
-    }
 
-    // Stubs for If/While to keep code valid
-    private void parseIf() { match(LexicalAnalyzer.TokenType.KEYWORD); match(LexicalAnalyzer.TokenType.PUNCTUATOR); String c = parseExpression(); match(LexicalAnalyzer.TokenType.PUNCTUATOR); match(LexicalAnalyzer.TokenType.PUNCTUATOR); while(!current().data.equals("}")) parseStatement(); match(LexicalAnalyzer.TokenType.PUNCTUATOR); }
-    private void parseWhile() { match(LexicalAnalyzer.TokenType.KEYWORD); match(LexicalAnalyzer.TokenType.PUNCTUATOR); String c = parseExpression(); match(LexicalAnalyzer.TokenType.PUNCTUATOR); match(LexicalAnalyzer.TokenType.PUNCTUATOR); while(!current().data.equals("}")) parseStatement(); match(LexicalAnalyzer.TokenType.PUNCTUATOR); }
+        public String visitError(ZaraAst ast, int node) {
+            valueSlot = -1;
+            return "?";
+        }
+    }
 
 
     // 4. MAIN TESTER
 
     public static void main(String[] args) {
+        // Pass a file name to stream it through the pull lexer instead
+        if (args.length > 0) {
+            try (StreamingLexer stream = StreamingLexer.fromChannel(
+                    java.nio.channels.FileChannel.open(java.nio.file.Path.of(args[0])),
+                    java.nio.charset.StandardCharsets.UTF_8)) {
+                new ZaraSemanticAnalyzer2(stream, new ZaraAst(stream.names()),
+                        Diagnostics.console(Diagnostics.Level.TRACE)).parseProgram();
+            } catch (java.io.IOException e) {
+                System.out.println("Cannot read " + args[0] + ": " + e.getMessage());
+            }
+            return;
+        }
+
        /* String code =
                 "class Animal { \n" +
                         "    integer age = 0 \n" +
@@ -408,8 +998,31 @@ public class ZaraSemanticAnalyzer2 {
         System.out.println(code);
 
         LexicalAnalyzer lexer = new LexicalAnalyzer();
-        List<LexicalAnalyzer.Token> tokens = lexer.tokenize(code);
-        ZaraSemanticAnalyzer2 analyzer = new ZaraSemanticAnalyzer2(tokens);
+        TokenBuffer tokens = lexer.tokenizeBuffer(code);
+        ZaraSemanticAnalyzer2 analyzer = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()),
+                Diagnostics.console(Diagnostics.Level.TRACE));
         analyzer.parseProgram();
+
+        System.out.println(fieldStoresSurvive() ? "Field stores survive optimisation."
+                : "Optimised code lost a field store!");
+    }
+
+    // Fields named like generated temps ("t1") must still be stored to and read from memory
+    static boolean fieldStoresSurvive() {
+        String[][] cases = {
+                {"class Main { integer t1 = 3  integer x = 0  void run() { x = t1 + 1 } }",
+                        "movq %rax, Main.t1(%rip)", "movq Main.t1(%rip), %rax"},
+                {"class Main { integer t1 = 0  void run() { t1 = 5 } }", "movq $5, %rax\n    movq %rax, Main.t1(%rip)"},
+        };
+        for (String[] c : cases) {
+            TokenBuffer tokens = new LexicalAnalyzer().tokenizeBuffer(c[0]);
+            List<ZaraModule> modules = new ZaraSemanticAnalyzer2(tokens.cursor(), new ZaraAst(tokens.names()),
+                    Diagnostics.quiet()).analyzeModules(null);
+            if (modules == null) return false;
+            ZaraModule.compile(modules, null, null, Diagnostics.quiet());
+            String program = ZaraBackend.generateProgram(modules);
+            for (int k = 1; k < c.length; k++) if (!program.contains(c[k])) return false;
+        }
+        return true;
     }
 }
\ No newline at end of file
@@ -25,41 +25,46 @@ public class symbol{
 }
 class symboltable{
     private Map<String,symbol> symbols;
+    private Diagnostics diagnostics;
 
     public symboltable(){
+        this(Diagnostics.quiet());
+    }
+
+    public symboltable(Diagnostics diagnostics){
         this.symbols= new HashMap<>();
-        System.out.println("Symbol Table Initialized");
+        this.diagnostics = diagnostics;
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Symbol Table Initialized");
     }
 
     public void add(String name, String type){
         if( symbols.containsKey(name)){
-            System.out.println("Warning : symbol"+name+"already exists");
+            diagnostics.warning(Diagnostics.Phase.SEMANTIC, -1, "symbol '" + name + "' already exists");
         };
         symbol newSym = new symbol(name, type);
         symbols.put(name,newSym);
 
-        System.out.println("Added Symbol: Name='" + name + "', Type='" + type + "'");
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Added Symbol: Name='" + name + "', Type='" + type + "'");
 
     }
 
     public void update(String name, String newtype){
         if( !symbols.containsKey(name)){
-            System.out.println("Warning : symbol"+name+"not found, cannot update.");
+            diagnostics.warning(Diagnostics.Phase.SEMANTIC, -1, "symbol '" + name + "' not found, cannot update.");
             return;
         };
 
         symbol sym = symbols.get(name);
         sym.setType(newtype);
 
-        System.out.println("Updated Symbol: Name='" + name + "', New Type='" + newtype + "'");
+        if (diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Updated Symbol: Name='" + name + "', New Type='" + newtype + "'");
     }
 
+    // Lookups that miss are normal (callers report their own errors), so they are only traced
     public symbol get(String name){
-        if( !symbols.containsKey(name)){
-            System.out.println("Warning : symbol"+name+"not found");
-            return null;
-        };
-        return symbols.get(name);
+        symbol sym = symbols.get(name);
+        if (sym == null && diagnostics.isTracing()) diagnostics.trace(Diagnostics.Phase.SEMANTIC, "Symbol '" + name + "' not found");
+        return sym;
     }
 
 
@@ -70,7 +75,7 @@ class Main {
         System.out.println("--- Simulating Symbol  ---");
 
         // 1. Initialize the Symbol Table
-        symboltable symbolTable = new symboltable();
+        symboltable symbolTable = new symboltable(Diagnostics.console(Diagnostics.Level.TRACE));
 
         System.out.println("\nProcessing declarations:");
 